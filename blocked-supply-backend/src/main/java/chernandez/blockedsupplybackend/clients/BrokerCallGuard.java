@@ -0,0 +1,194 @@
+package chernandez.blockedsupplybackend.clients;
+
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Isolates the backend from a slow or failing broker.
+ * <p>
+ * Every broker call passes through a circuit breaker and one of two semaphore bulkheads, one
+ * for chain reads and one for chain writes, so slow transactions cannot starve reads and
+ * neither can occupy every request thread. A full bulkhead or an open breaker fails the call
+ * immediately with a {@link CapacityExceededException}, which is answered with 503 and a
+ * {@code Retry-After} header. Client errors reported by the broker, including contract
+ * reverts, which it answers with 422 and the {@value #REVERT_CODE} code, are not counted as
+ * broker failures. Breaker state and bulkhead usage are published as
+ * {@code resilience4j.*} metrics.
+ * </p>
+ * <p>
+ * When several broker instances are configured, each has its own breaker, named after the
+ * endpoint, so one failing instance is taken out of rotation without affecting the others.
+ * The bulkheads are shared, as they protect this backend rather than a broker.
+ * </p>
+ */
+@Component
+public class BrokerCallGuard {
+
+    public static final String DEFAULT_BREAKER = "broker";
+    /**
+     * The error code the broker sends with the 422 answer to a reverted contract call.
+     */
+    public static final String REVERT_CODE = "CONTRACT_REVERT";
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final Bulkhead readBulkhead;
+    private final Bulkhead writeBulkhead;
+    private final long openRetryAfterSeconds;
+
+    public BrokerCallGuard(MeterRegistry meterRegistry, BrokerProperties properties) {
+        BrokerProperties.CircuitBreaker breaker = properties.circuitBreaker();
+        BrokerProperties.Bulkhead bulkhead = properties.bulkhead();
+        this.circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(breaker.failureRateThreshold())
+                .slowCallRateThreshold(breaker.failureRateThreshold())
+                .slowCallDurationThreshold(Duration.ofMillis(breaker.slowCallThreshold()))
+                .slidingWindowSize(breaker.windowSize())
+                .minimumNumberOfCalls(breaker.minimumCalls())
+                .waitDurationInOpenState(Duration.ofMillis(breaker.openDuration()))
+                .permittedNumberOfCallsInHalfOpenState(Math.max(1, breaker.minimumCalls() / 4))
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .ignoreException(BrokerCallGuard::isCallerError)
+                .build());
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.ofDefaults();
+
+        this.readBulkhead = bulkheadRegistry.bulkhead("broker-read", bulkheadConfig(bulkhead.read().maxConcurrent(), bulkhead.maxWait()));
+        this.writeBulkhead = bulkheadRegistry.bulkhead("broker-write", bulkheadConfig(bulkhead.write().maxConcurrent(), bulkhead.maxWait()));
+        this.openRetryAfterSeconds = Math.max(1, Duration.ofMillis(breaker.openDuration()).toSeconds());
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+    }
+
+    /**
+     * Runs a call that only reads chain state.
+     *
+     * @param call The broker call.
+     * @param <T>  The result type.
+     * @return The result of the call.
+     * @throws CapacityExceededException if the read bulkhead is full or the breaker is open.
+     */
+    public <T> T read(Supplier<T> call) {
+        return read(DEFAULT_BREAKER, call);
+    }
+
+    /**
+     * Runs a call that only reads chain state on a given broker instance.
+     *
+     * @param endpoint The name of the broker instance.
+     * @param call     The broker call.
+     * @param <T>      The result type.
+     * @return The result of the call.
+     * @throws CapacityExceededException if the read bulkhead is full or the instance's breaker is open.
+     */
+    public <T> T read(String endpoint, Supplier<T> call) {
+        return execute(readBulkhead, circuitBreakerRegistry.circuitBreaker(endpoint), call);
+    }
+
+    /**
+     * Runs a call that sends a transaction.
+     *
+     * @param call The broker call.
+     * @param <T>  The result type.
+     * @return The result of the call.
+     * @throws CapacityExceededException if the write bulkhead is full or the breaker is open.
+     */
+    public <T> T write(Supplier<T> call) {
+        return write(DEFAULT_BREAKER, call);
+    }
+
+    /**
+     * Runs a call that sends a transaction through a given broker instance.
+     *
+     * @param endpoint The name of the broker instance.
+     * @param call     The broker call.
+     * @param <T>      The result type.
+     * @return The result of the call.
+     * @throws CapacityExceededException if the write bulkhead is full or the instance's breaker is open.
+     */
+    public <T> T write(String endpoint, Supplier<T> call) {
+        return execute(writeBulkhead, circuitBreakerRegistry.circuitBreaker(endpoint), call);
+    }
+
+    /**
+     * Returns the state of the broker circuit breaker.
+     *
+     * @return The breaker state.
+     */
+    public CircuitBreaker.State getState() {
+        return getState(DEFAULT_BREAKER);
+    }
+
+    /**
+     * Returns the state of the circuit breaker of a broker instance.
+     *
+     * @param endpoint The name of the broker instance.
+     * @return The breaker state.
+     */
+    public CircuitBreaker.State getState(String endpoint) {
+        return circuitBreakerRegistry.circuitBreaker(endpoint).getState();
+    }
+
+    /**
+     * Checks whether a broker instance currently accepts calls.
+     *
+     * @param endpoint The name of the broker instance.
+     * @return False if the instance's breaker is open, true otherwise.
+     */
+    public boolean isAvailable(String endpoint) {
+        CircuitBreaker.State state = getState(endpoint);
+        return state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    /**
+     * Returns the number of reads that may run at once, across all broker instances.
+     *
+     * @return The size of the read bulkhead.
+     */
+    public int getMaxConcurrentReads() {
+        return readBulkhead.getBulkheadConfig().getMaxConcurrentCalls();
+    }
+
+    /**
+     * Checks whether a failure was caused by the request rather than by the broker.
+     *
+     * @param throwable The failure.
+     * @return True if the failure says nothing about the health of the broker.
+     */
+    public static boolean isCallerError(Throwable throwable) {
+        return throwable instanceof HttpClientErrorException || throwable instanceof DeadlineExceededException;
+    }
+
+    private <T> T execute(Bulkhead bulkhead, CircuitBreaker circuitBreaker, Supplier<T> call) {
+        try {
+            return Bulkhead.decorateSupplier(bulkhead, CircuitBreaker.decorateSupplier(circuitBreaker, call)).get();
+        } catch (BulkheadFullException e) {
+            throw new CapacityExceededException("Too many concurrent blockchain requests, try again later", 1);
+        } catch (CallNotPermittedException e) {
+            throw new CapacityExceededException("Blockchain broker is unavailable, try again later", openRetryAfterSeconds);
+        }
+    }
+
+    private static BulkheadConfig bulkheadConfig(int maxConcurrentCalls, long maxWait) {
+        return BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ofMillis(maxWait))
+                .build();
+    }
+}
@@ -0,0 +1,284 @@
+package chernandez.blockedsupplybackend.clients;
+
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerAccounts;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerShipment;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerTransfer;
+import chernandez.blockedsupplybackend.domain.dto.broker.NextShipmentId;
+import chernandez.blockedsupplybackend.domain.dto.broker.NextTransferId;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentWithTransfer;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferBatch;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferBatchItem;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import chernandez.blockedsupplybackend.utils.SingleFlight;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+/**
+ * Client for the node-broker REST API.
+ * <p>
+ * This class is the single entry point for calls to the broker. It keeps a pool of persistent
+ * connections, so requests do not pay connection setup, and applies connect, pool-acquire and
+ * response timeouts, so a hung broker call cannot hold a request thread forever. Every call
+ * runs through the {@link BrokerCallGuard}. The broker address may list several instances,
+ * separated by commas; the {@link BrokerRouter} balances and hedges reads across them and
+ * keeps the writes of each sender on one instance. With the {@code simulated-chain} profile,
+ * requests are served in process by the {@link SimulatedBroker} instead.
+ * </p>
+ * <p>
+ * The client offers one method per broker route. Non-2xx responses are raised as
+ * {@link org.springframework.web.client.RestClientResponseException}.
+ * </p>
+ * <p>
+ * Responses are bound straight from the response stream into typed records by a dedicated
+ * mapper. It ignores fields the backend does not use, but fails on missing fields or null
+ * numbers, so a change in the broker payloads shows up as an error instead of wrong data.
+ * </p>
+ * <p>
+ * Concurrent identical reads share one outstanding call through a {@link SingleFlight}, so a
+ * burst of users opening the same shipment costs the broker a single request. Results are
+ * shared between callers and must not be modified.
+ * </p>
+ */
+@Component
+public class BrokerClient implements DisposableBean {
+
+    private final CloseableHttpClient httpClient;
+    private final BrokerRouter router;
+    private final SingleFlight<String, Object> reads = new SingleFlight<>();
+
+    public BrokerClient(RestClient.Builder restClientBuilder,
+                        ObjectMapper objectMapper,
+                        BrokerCallGuard guard,
+                        Optional<SimulatedBroker> simulatedBroker,
+                        BrokerProperties properties,
+                        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        BrokerProperties.Pool pool = properties.pool();
+        BrokerProperties.Hedge hedge = properties.hedge();
+        long readTimeout = properties.readTimeout();
+        long acquireTimeout = pool.acquireTimeout();
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(pool.maxTotal())
+                .setMaxConnPerRoute(pool.maxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(properties.connectTimeout()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeout))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        RequestConfig defaultRequestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(acquireTimeout))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeout))
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultRequestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(pool.idleTimeout()))
+                .build();
+        ObjectMapper brokerMapper = objectMapper.copy()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .enable(DeserializationFeature.FAIL_ON_MISSING_CREATOR_PROPERTIES)
+                .enable(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES);
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setHttpContextFactory((method, uri) ->
+                deadlineContext(defaultRequestConfig, acquireTimeout, readTimeout));
+        RestClient.Builder clientBuilder = restClientBuilder
+                .messageConverters(converters -> {
+                    converters.removeIf(MappingJackson2HttpMessageConverter.class::isInstance);
+                    converters.add(new MappingJackson2HttpMessageConverter(brokerMapper));
+                })
+                .requestFactory(simulatedBroker.<ClientHttpRequestFactory>map(broker -> broker).orElse(requestFactory))
+                .defaultHeader("Accept", MediaType.APPLICATION_JSON_VALUE);
+        List<String> baseUrls = Arrays.stream(properties.address().split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .toList();
+        this.router = new BrokerRouter(baseUrls, url -> clientBuilder.clone().baseUrl(url).build(), guard,
+                hedge.enabled(), hedge.percentile(), hedge.minDelay(), virtualThreads);
+    }
+
+    /**
+     * Calls {@code GET /api/shipments/next-id}.
+     *
+     * @return The next shipment ID.
+     */
+    public NextShipmentId getNextShipmentId() {
+        return get(NextShipmentId.class, "/api/shipments/next-id");
+    }
+
+    /**
+     * Calls {@code GET /api/transfers/next-id}.
+     *
+     * @return The next transfer ID.
+     */
+    public NextTransferId getNextTransferId() {
+        return get(NextTransferId.class, "/api/transfers/next-id");
+    }
+
+    /**
+     * Calls {@code POST /api/shipments}.
+     *
+     * @param shipmentInput The shipment to create, including the sender address.
+     * @return The ID, owner and delivery date of the created shipment.
+     */
+    public ShipmentCreated createShipment(ShipmentInput shipmentInput) {
+        return post(ShipmentCreated.class, shipmentInput.getFrom(), "/api/shipments", shipmentInput);
+    }
+
+    /**
+     * Calls {@code POST /api/shipments/with-transfer}, which creates the shipment and records its
+     * initial transfer to the sender, in state CREATED at the origin, in one transaction.
+     *
+     * @param shipmentInput The shipment to create, including the sender address.
+     * @param transferNotes The notes of the initial transfer.
+     * @return The ID, owner and delivery date of the created shipment.
+     */
+    public ShipmentCreated createShipmentWithTransfer(ShipmentInput shipmentInput, String transferNotes) {
+        return post(ShipmentCreated.class, shipmentInput.getFrom(), "/api/shipments/with-transfer",
+                new ShipmentWithTransfer(shipmentInput, transferNotes));
+    }
+
+    /**
+     * Calls {@code GET /api/shipments/{shipmentId}}.
+     *
+     * @param shipmentId The ID of the shipment.
+     * @return The shipment.
+     */
+    public BrokerShipment getShipment(long shipmentId) {
+        return get(BrokerShipment.class, "/api/shipments/{shipmentId}", shipmentId);
+    }
+
+    /**
+     * Calls {@code POST /api/shipments/{shipmentId}/transfer}.
+     *
+     * @param shipmentId    The ID of the shipment.
+     * @param transferInput The transfer, including the sender address.
+     * @return The shipment ID, new owner and new state after the transfer.
+     */
+    public TransferResult transferShipment(long shipmentId, TransferInput transferInput) {
+        return post(TransferResult.class, transferInput.getFrom(), "/api/shipments/{shipmentId}/transfer", transferInput, shipmentId);
+    }
+
+    /**
+     * Calls {@code POST /api/transfers/batch}, which sends several transfers of the same owner
+     * in one transaction. A transfer the contract rejects does not fail the others.
+     *
+     * @param from      The address of the sender of every transfer.
+     * @param transfers The transfers, in the order they are applied.
+     * @return The outcome of each transfer, in the same order.
+     */
+    public List<TransferBatchItem> transferShipments(String from, List<TransferInput> transfers) {
+        return List.of(post(TransferBatchItem[].class, from, "/api/transfers/batch", new TransferBatch(from, transfers)));
+    }
+
+    /**
+     * Calls {@code GET /api/shipments/{shipmentId}/transfers}.
+     *
+     * @param shipmentId The ID of the shipment.
+     * @return The transfers of the shipment, oldest first.
+     */
+    public List<BrokerTransfer> getTransfers(long shipmentId) {
+        return List.of(get(BrokerTransfer[].class, "/api/shipments/{shipmentId}/transfers", shipmentId));
+    }
+
+    /**
+     * Calls {@code GET /api/accounts}.
+     *
+     * @return The accounts available on the blockchain node.
+     */
+    public List<String> getAccounts() {
+        List<String> accounts = get(BrokerAccounts.class, "/api/accounts").accounts();
+        return accounts != null ? accounts : List.of();
+    }
+
+    private <T> T get(Class<T> type, String uri, Object... uriVariables) {
+        RequestDeadline.check("broker call");
+        String key = uri + Arrays.toString(uriVariables);
+        return type.cast(reads.execute(key, () -> router.read(restClient -> withinDeadline(() -> restClient.get()
+                .uri(uri, uriVariables)
+                .retrieve()
+                .body(type)))));
+    }
+
+    private <T> T post(Class<T> type, String sender, String uri, Object body, Object... uriVariables) {
+        RequestDeadline.check("broker call");
+        return router.write(sender, restClient -> withinDeadline(() -> restClient.post()
+                .uri(uri, uriVariables)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body)
+                .retrieve()
+                .body(type)));
+    }
+
+    /**
+     * Reports an I/O failure caused by the request running out of time as a
+     * {@link DeadlineExceededException} rather than a broker failure.
+     */
+    private static <T> T withinDeadline(Supplier<T> exchange) {
+        try {
+            return exchange.get();
+        } catch (ResourceAccessException e) {
+            if (RequestDeadline.isExpired()) {
+                throw new DeadlineExceededException("Request deadline exceeded while waiting for the broker");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Shrinks the pool and response timeouts of a single exchange to whatever
+     * remains of the current request's deadline. Without a deadline the
+     * client's defaults apply.
+     */
+    private static HttpContext deadlineContext(RequestConfig defaults, long acquireTimeout, long readTimeout) {
+        OptionalLong remaining = RequestDeadline.remainingMillis();
+        if (remaining.isEmpty()) {
+            return null;
+        }
+        long budget = Math.max(1, remaining.getAsLong());
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.copy(defaults)
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(Math.min(acquireTimeout, budget)))
+                .setResponseTimeout(Timeout.ofMilliseconds(Math.min(readTimeout, budget)))
+                .build());
+        return context;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        router.close();
+        httpClient.close();
+    }
+}
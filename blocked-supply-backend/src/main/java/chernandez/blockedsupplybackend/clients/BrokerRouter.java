@@ -0,0 +1,332 @@
+package chernandez.blockedsupplybackend.clients;
+
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.utils.LatencyWindow;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.web.client.RestClient;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Spreads broker calls over one or more broker instances.
+ * <p>
+ * Reads go to the available instance with the fewest outstanding calls. If a read has not
+ * answered by the configured latency percentile of recent reads, a hedged copy is sent to the
+ * next best instance, the first successful answer wins and the other attempt is cancelled. A
+ * read that fails because of its instance is retried on another instance straight away; a read
+ * rejected by the shared bulkhead is not, as another instance would take from the same bulkhead.
+ * Writes are never duplicated: all
+ * transactions from one sender go to the same instance, chosen by rendezvous hashing, so the
+ * instance signing them sees every transaction of the sender in order. A sender only moves to
+ * another instance while its own has an open breaker.
+ * </p>
+ * <p>
+ * With a single instance, calls run on the caller's thread and none of this applies. With
+ * several, routed calls run on a pool of platform threads no larger than the read bulkhead, or
+ * on virtual threads when the application runs in virtual-thread mode. A read that finds the
+ * pool full is rejected like one that finds the bulkhead full.
+ * </p>
+ */
+public class BrokerRouter implements AutoCloseable {
+
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final List<Endpoint> endpoints;
+    private final BrokerCallGuard guard;
+    private final LatencyWindow readLatency;
+    private final boolean hedging;
+    private final long minHedgeDelayNanos;
+    private final Executor executor;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /**
+     * Constructs a new BrokerRouter.
+     *
+     * @param baseUrls        The base URLs of the broker instances.
+     * @param clients         Builds the REST client of an instance from its base URL.
+     * @param guard           The guard every call runs through.
+     * @param hedging         Whether slow reads are hedged.
+     * @param hedgePercentile The read latency percentile after which a read is hedged.
+     * @param minHedgeDelay   The least time to wait before hedging, in milliseconds.
+     * @param virtualThreads  Whether routed calls run on virtual threads, which requires Java 21.
+     */
+    public BrokerRouter(List<String> baseUrls, Function<String, RestClient> clients, BrokerCallGuard guard,
+                        boolean hedging, double hedgePercentile, long minHedgeDelay, boolean virtualThreads) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one broker address is required");
+        }
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < baseUrls.size(); i++) {
+            String name = baseUrls.size() == 1 ? BrokerCallGuard.DEFAULT_BREAKER : BrokerCallGuard.DEFAULT_BREAKER + "-" + i;
+            String baseUrl = baseUrls.get(i);
+            endpoints.add(new Endpoint(name, baseUrl.hashCode(), clients.apply(baseUrl), new AtomicInteger()));
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.guard = guard;
+        this.readLatency = new LatencyWindow(LATENCY_SAMPLES, hedgePercentile);
+        this.hedging = hedging;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelay);
+        if (endpoints.size() == 1) {
+            this.executor = null;
+        } else if (virtualThreads) {
+            this.executor = new VirtualThreadTaskExecutor("broker-router-");
+        } else {
+            // Reads beyond the read bulkhead would be rejected anyway, so they get no thread
+            this.executor = new ThreadPoolExecutor(0, guard.getMaxConcurrentReads(), 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "broker-router");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Runs a read on the least loaded available instance, hedging it if it is slow.
+     *
+     * @param call The call to make with the client of the chosen instance.
+     * @param <T>  The result type.
+     * @return The first successful result.
+     */
+    public <T> T read(Function<RestClient, T> call) {
+        if (endpoints.size() == 1) {
+            return attempt(endpoints.get(0), call, true);
+        }
+
+        Endpoint primary = pickRead(null);
+        CompletableFuture<T> first = submit(primary, call);
+        CompletableFuture<T> second = null;
+        try {
+            return awaitFor(first, hedgeDelayNanos());
+        } catch (TimeoutException e) {
+            Endpoint hedge = pickRead(primary);
+            if (hedge == null) {
+                return RequestDeadline.await(first, "the broker");
+            }
+            second = submit(hedge, call);
+            return RequestDeadline.await(firstSuccess(first, second), "the broker");
+        } catch (RuntimeException e) {
+            Endpoint fallback = failedOnInstance(primary, e) ? pickRead(primary) : null;
+            if (fallback == null) {
+                throw e;
+            }
+            second = submit(fallback, call);
+            return RequestDeadline.await(second, "the broker");
+        } finally {
+            // Frees the thread and bulkhead permit of an attempt whose answer is no longer needed
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Runs a write on the instance assigned to the sender.
+     *
+     * @param sender The address sending the transaction.
+     * @param call   The call to make with the client of the chosen instance.
+     * @param <T>    The result type.
+     * @return The result of the call.
+     */
+    public <T> T write(String sender, Function<RestClient, T> call) {
+        return attempt(pickWrite(sender), call, false);
+    }
+
+    @Override
+    public void close() {
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T> T attempt(Endpoint endpoint, Function<RestClient, T> call, boolean read) {
+        Supplier<T> exchange = () -> call.apply(endpoint.client());
+        endpoint.outstanding().incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            if (!read) {
+                return guard.write(endpoint.name(), exchange);
+            }
+            T result = guard.read(endpoint.name(), exchange);
+            readLatency.record(System.nanoTime() - start);
+            return result;
+        } finally {
+            endpoint.outstanding().decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs a read on the router's threads. Cancelling the returned future interrupts the read
+     * if it is still running.
+     */
+    private <T> CompletableFuture<T> submit(Endpoint endpoint, Function<RestClient, T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Supplier<T> task = RequestDeadline.bind(() -> attempt(endpoint, call, true));
+        AtomicReference<Thread> runner = new AtomicReference<>();
+        try {
+            executor.execute(() -> {
+                synchronized (runner) {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    runner.set(Thread.currentThread());
+                }
+                try {
+                    future.complete(task.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    synchronized (runner) {
+                        runner.set(null);
+                        // Drops an interrupt that arrived after the read had finished
+                        Thread.interrupted();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(
+                    new CapacityExceededException("Too many concurrent blockchain requests, try again later", 1));
+            return future;
+        }
+        future.whenComplete((result, failure) -> {
+            if (future.isCancelled()) {
+                synchronized (runner) {
+                    Thread thread = runner.get();
+                    if (thread != null) {
+                        thread.interrupt();
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for the first attempt up to the hedge delay, or up to the deadline if that is sooner
+     * or hedging is off.
+     */
+    private <T> T awaitFor(CompletableFuture<T> future, long delayNanos) throws TimeoutException {
+        OptionalLong remaining = RequestDeadline.remainingMillis();
+        if (delayNanos < 0 || (remaining.isPresent() && TimeUnit.MILLISECONDS.toNanos(remaining.getAsLong()) <= delayNanos)) {
+            return RequestDeadline.await(future, "the broker");
+        }
+        try {
+            return future.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the broker", e);
+        } catch (ExecutionException e) {
+            // Already failed; rethrows the failure itself
+            return RequestDeadline.await(future, "the broker");
+        }
+    }
+
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        for (CompletableFuture<T> attempt : List.of(first, second)) {
+            attempt.whenComplete((result, failure) -> {
+                if (failure == null) {
+                    winner.complete(result);
+                } else if (BrokerCallGuard.isCallerError(failure) || pending.decrementAndGet() == 0) {
+                    winner.completeExceptionally(failure);
+                }
+            });
+        }
+        return winner;
+    }
+
+    /**
+     * Checks whether a failed read may succeed on another instance. Errors of the request and
+     * rejections by the shared bulkhead or pool would fail there too; a rejection by the
+     * instance's own open breaker would not.
+     */
+    private boolean failedOnInstance(Endpoint endpoint, Throwable failure) {
+        if (BrokerCallGuard.isCallerError(failure)) {
+            return false;
+        }
+        return !(failure instanceof CapacityExceededException) || !guard.isAvailable(endpoint.name());
+    }
+
+    private long hedgeDelayNanos() {
+        long percentile = readLatency.percentile();
+        if (!hedging || percentile < 0) {
+            return -1;
+        }
+        return Math.max(minHedgeDelayNanos, percentile);
+    }
+
+    /**
+     * Picks the available instance with the fewest outstanding calls, starting from a rotating
+     * position so ties are spread evenly.
+     *
+     * @param excluded An instance not to pick, or null.
+     * @return The instance, or null if only the excluded one is available.
+     */
+    private Endpoint pickRead(Endpoint excluded) {
+        int size = endpoints.size();
+        int offset = Math.floorMod(rotation.getAndIncrement(), size);
+        Endpoint best = null;
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = endpoints.get((offset + i) % size);
+            if (endpoint == excluded || !guard.isAvailable(endpoint.name())) {
+                continue;
+            }
+            if (best == null || endpoint.outstanding().get() < best.outstanding().get()) {
+                best = endpoint;
+            }
+        }
+        if (best == null && excluded == null) {
+            // Every breaker is open; let the call fail fast through one of them
+            return endpoints.get(offset);
+        }
+        return best;
+    }
+
+    /**
+     * Picks the instance with the highest rendezvous score for the sender that is available,
+     * or the highest scoring one if none is.
+     */
+    private Endpoint pickWrite(String sender) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        int senderHash = sender != null ? sender.toLowerCase(Locale.ROOT).hashCode() : 0;
+        List<Endpoint> ranked = endpoints.stream()
+                .sorted(Comparator.comparingLong((Endpoint endpoint) -> score(senderHash, endpoint.seed())).reversed())
+                .toList();
+        return ranked.stream()
+                .filter(endpoint -> guard.isAvailable(endpoint.name()))
+                .findFirst()
+                .orElse(ranked.get(0));
+    }
+
+    private static long score(int senderHash, int endpointSeed) {
+        long z = ((long) senderHash << 32) ^ (endpointSeed & 0xffffffffL);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private record Endpoint(String name, int seed, RestClient client, AtomicInteger outstanding) {
+    }
+}
@@ -0,0 +1,454 @@
+package chernandez.blockedsupplybackend.clients;
+
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An in-process stand-in for the node-broker, backed by a {@link SimulatedShipmentContract}.
+ * <p>
+ * Active with the {@code simulated-chain} profile, in which the {@link BrokerClient} sends its
+ * requests here instead of over HTTP. Everything above the transport, including the guard,
+ * routing, coalescing, deadlines and response binding, runs as it does against the real broker.
+ * Routes, payloads and errors follow the node-broker: numbers are sent as strings, bad input
+ * is answered with 400, contract reverts with 422 and the {@link BrokerCallGuard#REVERT_CODE}
+ * code, and other failures with 500. Only the generated accounts can send transactions, as
+ * with Ganache.
+ * </p>
+ * <p>
+ * Each call waits for a latency drawn from the configured distribution ({@code fixed},
+ * {@code uniform}, {@code exponential} or {@code lognormal} around the read or write mean),
+ * multiplied on a fraction of calls to simulate tail spikes. A fraction of calls can be failed
+ * with a 500 before they reach the contract. A write changes the contract state before its
+ * latency elapses, so a write that times out may still have happened, as on a real chain. The
+ * random source is seeded, so a single-threaded run is reproducible.
+ * </p>
+ */
+@Component
+@Profile("simulated-chain")
+public class SimulatedBroker implements ClientHttpRequestFactory {
+
+    private final SimulatedShipmentContract contract = new SimulatedShipmentContract();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> accounts;
+    private final Set<String> accountSet;
+    private final Random random;
+    private final String distribution;
+    private final long readLatency;
+    private final long writeLatency;
+    private final double spikeRate;
+    private final double spikeFactor;
+    private final double errorRate;
+    private final long readTimeout;
+
+    public SimulatedBroker(@Value("${application.chain.simulated.accounts:10}") int accountCount,
+                           @Value("${application.chain.simulated.seed:42}") long seed,
+                           @Value("${application.chain.simulated.latency.distribution:fixed}") String distribution,
+                           @Value("${application.chain.simulated.latency.read:5}") long readLatency,
+                           @Value("${application.chain.simulated.latency.write:50}") long writeLatency,
+                           @Value("${application.chain.simulated.latency.spike-rate:0}") double spikeRate,
+                           @Value("${application.chain.simulated.latency.spike-factor:20}") double spikeFactor,
+                           @Value("${application.chain.simulated.error-rate:0}") double errorRate,
+                           @Value("${application.broker.read-timeout:30000}") long readTimeout) {
+        if (!Set.of("fixed", "uniform", "exponential", "lognormal").contains(distribution)) {
+            throw new IllegalArgumentException("Unknown latency distribution: " + distribution);
+        }
+        this.random = new Random(seed);
+        this.accounts = new ArrayList<>();
+        byte[] address = new byte[20];
+        for (int i = 0; i < accountCount; i++) {
+            random.nextBytes(address);
+            accounts.add("0x" + HexFormat.of().formatHex(address));
+        }
+        this.accountSet = Set.copyOf(accounts);
+        this.distribution = distribution;
+        this.readLatency = readLatency;
+        this.writeLatency = writeLatency;
+        this.spikeRate = spikeRate;
+        this.spikeFactor = spikeFactor;
+        this.errorRate = errorRate;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the contract behind this broker, for inspecting its state.
+     *
+     * @return The simulated contract.
+     */
+    public SimulatedShipmentContract getContract() {
+        return contract;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new SimulatedRequest(uri, httpMethod);
+    }
+
+    private Response handle(HttpMethod method, String path, byte[] body) throws IOException {
+        boolean write = method == HttpMethod.POST;
+        long latency = sampleLatency(write ? writeLatency : readLatency);
+        if (random.nextDouble() < errorRate) {
+            await(latency);
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Simulated broker failure");
+        }
+
+        Response response;
+        try {
+            response = dispatch(method, path.split("/"), write ? objectMapper.readTree(body) : null);
+        } catch (SimulatedShipmentContract.Revert e) {
+            String reason = e.getMessage().isEmpty() ? "" : " " + e.getMessage();
+            response = new Response(HttpStatus.UNPROCESSABLE_ENTITY, objectMapper.writeValueAsBytes(Map.of(
+                    "error", "VM Exception while processing transaction: revert" + reason,
+                    "code", BrokerCallGuard.REVERT_CODE)));
+        } catch (NumberFormatException e) {
+            response = error(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid number value: " + e.getMessage());
+        }
+        await(latency);
+        return response;
+    }
+
+    /**
+     * Serves a request from the path segments, which start with an empty segment and "api".
+     */
+    private Response dispatch(HttpMethod method, String[] segments, JsonNode body) throws IOException {
+        if (segments.length < 3 || !segments[1].equals("api")) {
+            return notFound(method, segments);
+        }
+        String resource = segments[2];
+        ObjectNode json = objectMapper.createObjectNode();
+
+        if (method == HttpMethod.GET && segments.length == 3 && resource.equals("accounts")) {
+            accounts.forEach(json.putArray("accounts")::add);
+            return ok(json);
+        }
+        if (method == HttpMethod.GET && segments.length == 4 && segments[3].equals("next-id")) {
+            if (resource.equals("shipments")) {
+                return ok(json.put("nextShipmentId", String.valueOf(contract.getNextShipmentId())));
+            }
+            if (resource.equals("transfers")) {
+                return ok(json.put("nextTransferId", String.valueOf(contract.getNextTransferId())));
+            }
+        }
+        if (method == HttpMethod.POST && segments.length == 4 && resource.equals("transfers")
+                && segments[3].equals("batch")) {
+            return transferShipments(body);
+        }
+        if (!resource.equals("shipments")) {
+            return notFound(method, segments);
+        }
+
+        if (method == HttpMethod.POST && segments.length == 3) {
+            return createShipment(body, false);
+        }
+        if (method == HttpMethod.POST && segments.length == 4 && segments[3].equals("with-transfer")) {
+            return createShipment(body, true);
+        }
+        if (segments.length < 4) {
+            return notFound(method, segments);
+        }
+        long shipmentId = Long.parseLong(segments[3]);
+        if (method == HttpMethod.GET && segments.length == 4) {
+            return ok(shipmentJson(contract.getShipment(shipmentId)));
+        }
+        if (method == HttpMethod.POST && segments.length == 5 && segments[4].equals("transfer")) {
+            return transferShipment(shipmentId, body);
+        }
+        if (method == HttpMethod.GET && segments.length == 5 && segments[4].equals("transfers")) {
+            ArrayNode transfers = objectMapper.createArrayNode();
+            for (SimulatedShipmentContract.Transfer transfer : contract.getTransfers(shipmentId)) {
+                transfers.addObject()
+                        .put("id", String.valueOf(transfer.id()))
+                        .put("shipmentId", String.valueOf(transfer.shipmentId()))
+                        .put("timestamp", String.valueOf(transfer.timestamp()))
+                        .put("newState", String.valueOf(transfer.newState()))
+                        .put("location", transfer.location())
+                        .put("newShipmentOwner", transfer.newShipmentOwner())
+                        .put("transferNotes", transfer.transferNotes());
+            }
+            return ok(transfers);
+        }
+        return notFound(method, segments);
+    }
+
+    private Response createShipment(JsonNode body, boolean withTransfer) throws IOException {
+        Response invalid = checkSender(body);
+        if (invalid != null) {
+            return invalid;
+        }
+        if (anyMissing(body, "productName", "description", "origin", "destination", "deliveryDate", "units", "weight")) {
+            return error(HttpStatus.BAD_REQUEST, "Missing required fields");
+        }
+        if (!isNumber(body.get("units")) || !isNumber(body.get("weight"))) {
+            return error(HttpStatus.BAD_REQUEST, "Units and weight must be numbers");
+        }
+        if (withTransfer && anyMissing(body, "transferNotes")) {
+            return error(HttpStatus.BAD_REQUEST, "Missing required fields");
+        }
+
+        SimulatedShipmentContract.Shipment shipment = withTransfer
+                ? contract.createShipmentWithTransfer(body.get("from").asText(), body.get("productName").asText(),
+                body.get("description").asText(), body.get("origin").asText(), body.get("destination").asText(),
+                body.get("deliveryDate").asText(), body.get("units").asLong(), body.get("weight").asLong(),
+                body.get("transferNotes").asText())
+                : contract.createShipment(body.get("from").asText(), body.get("productName").asText(),
+                body.get("description").asText(), body.get("origin").asText(), body.get("destination").asText(),
+                body.get("deliveryDate").asText(), body.get("units").asLong(), body.get("weight").asLong());
+        return ok(objectMapper.createObjectNode()
+                .put("id", String.valueOf(shipment.id()))
+                .put("currentOwner", shipment.currentOwner())
+                .put("deliveryDate", shipment.deliveryDate()));
+    }
+
+    private Response transferShipment(long shipmentId, JsonNode body) throws IOException {
+        Response invalid = checkSender(body);
+        if (invalid != null) {
+            return invalid;
+        }
+        if (anyMissing(body, "newShipmentOwner", "newState", "location", "transferNotes")) {
+            return error(HttpStatus.BAD_REQUEST, "Missing required fields");
+        }
+
+        SimulatedShipmentContract.Shipment shipment = contract.shipmentTransfer(body.get("from").asText(), shipmentId,
+                body.get("newShipmentOwner").asText(), body.get("newState").asInt(), body.get("location").asText(),
+                body.get("transferNotes").asText());
+        return ok(objectMapper.createObjectNode()
+                .put("shipmentId", String.valueOf(shipment.id()))
+                .put("newOwner", shipment.currentOwner())
+                .put("newState", String.valueOf(shipment.currentState())));
+    }
+
+    private Response transferShipments(JsonNode body) throws IOException {
+        Response invalid = checkSender(body);
+        if (invalid != null) {
+            return invalid;
+        }
+        JsonNode transfers = body.get("transfers");
+        if (transfers == null || !transfers.isArray() || transfers.isEmpty()) {
+            return error(HttpStatus.BAD_REQUEST, "At least one transfer is required");
+        }
+        List<SimulatedShipmentContract.TransferRequest> requests = new ArrayList<>(transfers.size());
+        for (JsonNode transfer : transfers) {
+            if (anyMissing(transfer, "shipmentId", "newShipmentOwner", "newState", "location", "transferNotes")) {
+                return error(HttpStatus.BAD_REQUEST, "Missing required fields");
+            }
+            requests.add(new SimulatedShipmentContract.TransferRequest(transfer.get("shipmentId").asLong(),
+                    transfer.get("newShipmentOwner").asText(), transfer.get("newState").asInt(),
+                    transfer.get("location").asText(), transfer.get("transferNotes").asText()));
+        }
+
+        List<String> reasons = contract.batchShipmentTransfer(body.get("from").asText(), requests);
+        ArrayNode results = objectMapper.createArrayNode();
+        for (int i = 0; i < requests.size(); i++) {
+            SimulatedShipmentContract.TransferRequest request = requests.get(i);
+            ObjectNode result = results.addObject().put("shipmentId", String.valueOf(request.shipmentId()));
+            if (reasons.get(i) != null) {
+                result.putNull("newOwner").putNull("newState").put("error", "revert " + reasons.get(i));
+            } else {
+                result.put("newOwner", request.newShipmentOwner().toLowerCase(Locale.ROOT))
+                        .put("newState", String.valueOf(request.newState()))
+                        .putNull("error");
+            }
+        }
+        return ok(results);
+    }
+
+    private Response checkSender(JsonNode body) throws IOException {
+        if (anyMissing(body, "from")) {
+            return error(HttpStatus.BAD_REQUEST, "'from' address is required");
+        }
+        if (!accountSet.contains(body.get("from").asText().toLowerCase(Locale.ROOT))) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Returned error: sender account not recognized");
+        }
+        return null;
+    }
+
+    private ObjectNode shipmentJson(SimulatedShipmentContract.Shipment shipment) {
+        return objectMapper.createObjectNode()
+                .put("id", String.valueOf(shipment.id()))
+                .put("name", shipment.name())
+                .put("description", shipment.description())
+                .put("origin", shipment.origin())
+                .put("destination", shipment.destination())
+                .put("deliveryDate", shipment.deliveryDate())
+                .put("units", String.valueOf(shipment.units()))
+                .put("weight", String.valueOf(shipment.weight()))
+                .put("currentState", String.valueOf(shipment.currentState()))
+                .put("currentOwner", shipment.currentOwner());
+    }
+
+    private static boolean anyMissing(JsonNode body, String... fields) {
+        for (String field : fields) {
+            if (body == null || body.get(field) == null || body.get(field).isNull()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNumber(JsonNode value) {
+        return value.isNumber() || value.asText().matches("\\s*-?\\d+(\\.\\d+)?\\s*");
+    }
+
+    private long sampleLatency(long mean) {
+        double latency = switch (distribution) {
+            case "uniform" -> random.nextDouble() * 2 * mean;
+            case "exponential" -> -mean * Math.log(1 - random.nextDouble());
+            case "lognormal" -> mean * Math.exp(0.5 * random.nextGaussian() - 0.125);
+            default -> mean;
+        };
+        if (random.nextDouble() < spikeRate) {
+            latency *= spikeFactor;
+        }
+        return Math.round(latency);
+    }
+
+    /**
+     * Waits out the latency of a call, giving up like the HTTP client would when the read
+     * timeout or the request deadline comes first.
+     */
+    private void await(long latency) throws IOException {
+        long timeout = readTimeout;
+        OptionalLong remaining = RequestDeadline.remainingMillis();
+        if (remaining.isPresent()) {
+            timeout = Math.min(timeout, Math.max(0, remaining.getAsLong()));
+        }
+        try {
+            Thread.sleep(Math.min(latency, timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the simulated broker");
+        }
+        if (latency > timeout) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+    }
+
+    private Response ok(JsonNode json) throws IOException {
+        return new Response(HttpStatus.OK, objectMapper.writeValueAsBytes(json));
+    }
+
+    private Response error(HttpStatus status, String message) throws IOException {
+        return new Response(status, objectMapper.writeValueAsBytes(Map.of("error", message)));
+    }
+
+    private Response notFound(HttpMethod method, String[] segments) throws IOException {
+        return error(HttpStatus.NOT_FOUND, "Cannot " + method + " " + String.join("/", segments));
+    }
+
+    private record Response(HttpStatus status, byte[] body) {
+    }
+
+    private class SimulatedRequest implements ClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final HttpHeaders headers = new HttpHeaders();
+        private final Map<String, Object> attributes = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private SimulatedRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            Response response = handle(method, uri.getPath(), body.toByteArray());
+            return new SimulatedResponse(response.status(), response.body());
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+    }
+
+    private static class SimulatedResponse implements ClientHttpResponse {
+
+        private final HttpStatus status;
+        private final byte[] body;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private SimulatedResponse(HttpStatus status, byte[] body) {
+            this.status = status;
+            this.body = body;
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setContentLength(body.length);
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return status;
+        }
+
+        @Override
+        public String getStatusText() {
+            return status.getReasonPhrase();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package chernandez.blockedsupplybackend.clients;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory implementation of the {@code ShipmentManagement} contract.
+ * <p>
+ * It keeps the contract's semantics: shipment and transfer IDs start at 1 and are assigned in
+ * order, only the current owner can transfer a shipment, reading a shipment that does not exist
+ * fails, and every transfer is appended to the shipment's history. Failed requirements are
+ * raised as {@link Revert} with the contract's revert reason. Addresses are compared without
+ * regard to case and returned in lower case.
+ * </p>
+ */
+public class SimulatedShipmentContract {
+
+    private static final int STATE_COUNT = 4;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Shipment> shipments = new HashMap<>();
+    private final Map<Long, List<Transfer>> transfersByShipment = new HashMap<>();
+    private long nextShipmentId = 1;
+    private long nextTransferId = 1;
+
+    /**
+     * Creates a new shipment owned by the sender.
+     *
+     * @return The created shipment.
+     * @throws Revert if the units or weight are not positive.
+     */
+    public Shipment createShipment(String sender, String name, String description, String origin, String destination,
+                                   String deliveryDate, long units, long weight) {
+        require(units > 0, "Units must be greater than 0.");
+        require(weight > 0, "Weight must be greater than 0.");
+        lock.writeLock().lock();
+        try {
+            long id = nextShipmentId++;
+            Shipment shipment = new Shipment(id, name, description, origin, destination, deliveryDate, units, weight,
+                    0, normalize(sender));
+            shipments.put(id, shipment);
+            return shipment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a new shipment owned by the sender and records its initial transfer to the sender,
+     * in state CREATED at the origin, atomically.
+     *
+     * @return The created shipment.
+     * @throws Revert if the units or weight are not positive.
+     */
+    public Shipment createShipmentWithTransfer(String sender, String name, String description, String origin,
+                                               String destination, String deliveryDate, long units, long weight,
+                                               String transferNotes) {
+        lock.writeLock().lock();
+        try {
+            Shipment shipment = createShipment(sender, name, description, origin, destination, deliveryDate, units,
+                    weight);
+            recordTransfer(shipment.id(), shipment.currentOwner(), 0, origin, transferNotes);
+            return shipment;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Transfers a shipment to a new owner and records the transfer.
+     *
+     * @return The shipment after the transfer.
+     * @throws Revert if the sender is not the current owner or the state is not valid.
+     */
+    public Shipment shipmentTransfer(String sender, long shipmentId, String newShipmentOwner, int newState,
+                                     String location, String transferNotes) {
+        lock.writeLock().lock();
+        try {
+            Shipment shipment = shipments.get(shipmentId);
+            require(shipment != null && shipment.currentOwner().equals(normalize(sender)),
+                    "Only the current owner can perform this action.");
+            // Solidity panics when converting an out-of-range value to the State enum
+            require(newState >= 0 && newState < STATE_COUNT, "");
+
+            Shipment transferred = shipment.transferredTo(normalize(newShipmentOwner), newState);
+            shipments.put(shipmentId, transferred);
+            recordTransfer(shipmentId, normalize(newShipmentOwner), newState, location, transferNotes);
+            return transferred;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies several transfers of the same sender atomically, in order. A transfer of a
+     * shipment the sender does not own is skipped without affecting the others.
+     *
+     * @return The revert reason of each transfer, or null for each applied transfer.
+     * @throws Revert if a state is not valid, which fails the whole batch.
+     */
+    public List<String> batchShipmentTransfer(String sender, List<TransferRequest> transfers) {
+        // Solidity panics while decoding an out-of-range State, before any transfer is applied
+        for (TransferRequest transfer : transfers) {
+            require(transfer.newState() >= 0 && transfer.newState() < STATE_COUNT, "");
+        }
+        lock.writeLock().lock();
+        try {
+            List<String> reasons = new ArrayList<>(transfers.size());
+            for (TransferRequest transfer : transfers) {
+                try {
+                    shipmentTransfer(sender, transfer.shipmentId(), transfer.newShipmentOwner(), transfer.newState(),
+                            transfer.location(), transfer.transferNotes());
+                    reasons.add(null);
+                } catch (Revert e) {
+                    reasons.add(e.getMessage());
+                }
+            }
+            return reasons;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a shipment.
+     *
+     * @throws Revert if the shipment does not exist.
+     */
+    public Shipment getShipment(long shipmentId) {
+        lock.readLock().lock();
+        try {
+            checkExists(shipmentId);
+            return shipments.get(shipmentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the transfer history of a shipment, oldest first.
+     *
+     * @throws Revert if the shipment does not exist.
+     */
+    public List<Transfer> getTransfers(long shipmentId) {
+        lock.readLock().lock();
+        try {
+            checkExists(shipmentId);
+            return List.copyOf(transfersByShipment.getOrDefault(shipmentId, List.of()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getNextShipmentId() {
+        lock.readLock().lock();
+        try {
+            return nextShipmentId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getNextTransferId() {
+        lock.readLock().lock();
+        try {
+            return nextTransferId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void recordTransfer(long shipmentId, String newShipmentOwner, int newState, String location,
+                                String transferNotes) {
+        transfersByShipment.computeIfAbsent(shipmentId, id -> new ArrayList<>()).add(new Transfer(
+                nextTransferId++, shipmentId, System.currentTimeMillis() / 1000, newState, location,
+                newShipmentOwner, transferNotes));
+    }
+
+    private void checkExists(long shipmentId) {
+        require(shipmentId > 0, "Shipment ID must be greater than 0.");
+        require(shipmentId < nextShipmentId, "Shipment does not exist.");
+    }
+
+    private static void require(boolean condition, String reason) {
+        if (!condition) {
+            throw new Revert(reason);
+        }
+    }
+
+    private static String normalize(String address) {
+        return address == null ? null : address.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A shipment as stored by the contract.
+     */
+    public record Shipment(long id, String name, String description, String origin, String destination,
+                           String deliveryDate, long units, long weight, int currentState, String currentOwner) {
+
+        private Shipment transferredTo(String newOwner, int newState) {
+            return new Shipment(id, name, description, origin, destination, deliveryDate, units, weight, newState, newOwner);
+        }
+    }
+
+    /**
+     * A transfer as stored by the contract.
+     */
+    public record Transfer(long id, long shipmentId, long timestamp, int newState, String location,
+                           String newShipmentOwner, String transferNotes) {
+    }
+
+    /**
+     * One transfer of a batch.
+     */
+    public record TransferRequest(long shipmentId, String newShipmentOwner, int newState, String location,
+                                  String transferNotes) {
+    }
+
+    /**
+     * A failed contract requirement.
+     */
+    public static class Revert extends RuntimeException {
+
+        /**
+         * Constructs a new Revert.
+         *
+         * @param reason The revert reason, empty for a panic.
+         */
+        public Revert(String reason) {
+            super(reason);
+        }
+    }
+}
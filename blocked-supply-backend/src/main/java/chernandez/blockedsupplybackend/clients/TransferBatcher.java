@@ -0,0 +1,192 @@
+package chernandez.blockedsupplybackend.clients;
+
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferBatchItem;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups concurrent transfers from the same sender into batch transactions.
+ * <p>
+ * A transfer waits in the window of its sender until the window is full or has been open for
+ * the configured time, and the whole window is then sent through the broker's batch transfer
+ * endpoint as one transaction. Each caller gets only its own transfer: a transfer the
+ * contract rejects fails with the broker error a single transfer would have got, without
+ * affecting the others, while a failure of the whole call, such as a full bulkhead or a lost
+ * connection, is reported to every transfer of the window. A window holding a single transfer
+ * is sent as a plain transfer. The size of every sent window is published as the
+ * {@code broker.transfer.batch.size} metric.
+ * </p>
+ */
+@Component
+public class TransferBatcher implements DisposableBean {
+
+    private final BrokerClient brokerClient;
+    private final ObjectMapper objectMapper;
+    private final DistributionSummary batchSizes;
+    private final boolean enabled;
+    private final long window;
+    private final int maxSize;
+    private final Map<String, List<Pending>> windows = new HashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService senders;
+
+    public TransferBatcher(BrokerClient brokerClient, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                           @Value("${application.broker.transfer-batch.enabled:true}") boolean enabled,
+                           @Value("${application.broker.transfer-batch.window:20}") long window,
+                           @Value("${application.broker.transfer-batch.max-size:50}") int maxSize) {
+        this.brokerClient = brokerClient;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled && maxSize > 1;
+        this.window = window;
+        this.maxSize = maxSize;
+        this.batchSizes = DistributionSummary.builder("broker.transfer.batch.size")
+                .description("Transfers sent in one chain transaction")
+                .baseUnit("transfers")
+                .register(meterRegistry);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a transfer to the window of its sender without waiting for it to be sent.
+     * <p>
+     * Callers that handle many transfers, such as the outbox workers, use this so that a
+     * window is not limited to the number of threads able to wait on it. When batching is
+     * disabled the transfer is sent right away on the calling thread.
+     * </p>
+     *
+     * @param shipmentId    The ID of the shipment.
+     * @param transferInput The transfer, including the sender address.
+     * @return A future completed with the shipment ID, new owner and new state after the
+     * transfer, or with the broker error.
+     */
+    public CompletableFuture<TransferResult> submit(long shipmentId, TransferInput transferInput) {
+        if (!enabled) {
+            try {
+                return CompletableFuture.completedFuture(brokerClient.transferShipment(shipmentId, transferInput));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Pending pending = new Pending(shipmentId, transferInput, new CompletableFuture<>());
+        String sender = transferInput.getFrom().toLowerCase(Locale.ROOT);
+        List<Pending> full = null;
+        synchronized (windows) {
+            List<Pending> pendings = windows.get(sender);
+            if (pendings == null) {
+                pendings = new ArrayList<>();
+                windows.put(sender, pendings);
+                List<Pending> opened = pendings;
+                timer.schedule(() -> close(sender, opened), window, TimeUnit.MILLISECONDS);
+            }
+            pendings.add(pending);
+            if (pendings.size() >= maxSize) {
+                windows.remove(sender);
+                full = pendings;
+            }
+        }
+        if (full != null) {
+            List<Pending> batch = full;
+            senders.execute(() -> send(transferInput.getFrom(), batch));
+        }
+        return pending.result();
+    }
+
+    /**
+     * Sends a window whose time is up, unless it was already sent because it filled up.
+     */
+    private void close(String sender, List<Pending> pendings) {
+        synchronized (windows) {
+            if (windows.get(sender) != pendings) {
+                return;
+            }
+            windows.remove(sender);
+        }
+        senders.execute(() -> send(pendings.get(0).input().getFrom(), pendings));
+    }
+
+    private void send(String from, List<Pending> pendings) {
+        batchSizes.record(pendings.size());
+        try {
+            if (pendings.size() == 1) {
+                Pending pending = pendings.get(0);
+                pending.result().complete(brokerClient.transferShipment(pending.shipmentId(), pending.input()));
+                return;
+            }
+            List<TransferBatchItem> outcomes = brokerClient.transferShipments(from,
+                    pendings.stream().map(Pending::input).toList());
+            if (outcomes.size() != pendings.size()) {
+                throw new IllegalStateException("Broker returned " + outcomes.size() + " outcomes for "
+                        + pendings.size() + " transfers");
+            }
+            for (int i = 0; i < pendings.size(); i++) {
+                TransferBatchItem outcome = outcomes.get(i);
+                if (outcome.error() == null) {
+                    pendings.get(i).result().complete(outcome.toResult());
+                } else {
+                    pendings.get(i).result().completeExceptionally(rejected(outcome.error()));
+                }
+            }
+        } catch (Throwable e) {
+            // Callers would otherwise wait for their deadline on a window that is never answered
+            pendings.forEach(pending -> pending.result().completeExceptionally(e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Builds the error the broker answers a single reverted transfer with.
+     */
+    private HttpClientErrorException rejected(String error) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Map.of("error", error, "code", BrokerCallGuard.REVERT_CODE));
+        } catch (Exception e) {
+            body = error.getBytes(StandardCharsets.UTF_8);
+        }
+        return HttpClientErrorException.create(HttpStatus.UNPROCESSABLE_ENTITY, "Unprocessable Entity",
+                HttpHeaders.EMPTY, body, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    private record Pending(long shipmentId, TransferInput input, CompletableFuture<TransferResult> result) {
+    }
+}
@@ -0,0 +1,107 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.utils.AdaptiveConcurrencyLimit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sheds load on the endpoints that reach the broker with adaptive concurrency limits.
+ * <p>
+ * Chain reads, chain writes and registrations have very different latencies, so each group
+ * gets its own {@link AdaptiveConcurrencyLimit}. Requests above the current limit of their
+ * group are rejected with 429 and a {@code Retry-After} header instead of waiting for a
+ * thread. The limit and in-flight count of each group are published as the
+ * {@code adaptive.limit} and {@code adaptive.inflight} gauges, and rejections as the
+ * {@code adaptive.rejected} counter, all tagged by group.
+ * </p>
+ */
+@Component
+public class AdaptiveLimitInterceptor implements HandlerInterceptor {
+
+    private static final String START = AdaptiveLimitInterceptor.class.getName() + ".start";
+    private static final String IN_FLIGHT = AdaptiveLimitInterceptor.class.getName() + ".inFlight";
+    private static final String GROUP = AdaptiveLimitInterceptor.class.getName() + ".group";
+
+    /**
+     * The groups of endpoints sharing a limit.
+     */
+    enum Group {
+        CHAIN_READ, CHAIN_WRITE, REGISTER
+    }
+
+    private final Map<Group, AdaptiveConcurrencyLimit> limits = new EnumMap<>(Group.class);
+    private final Map<Group, Counter> rejections = new EnumMap<>(Group.class);
+
+    public AdaptiveLimitInterceptor(MeterRegistry meterRegistry,
+                                    @Value("${application.limits.chain-read.initial:32}") int readInitial,
+                                    @Value("${application.limits.chain-read.max:256}") int readMax,
+                                    @Value("${application.limits.chain-write.initial:8}") int writeInitial,
+                                    @Value("${application.limits.chain-write.max:64}") int writeMax,
+                                    @Value("${application.limits.register.initial:8}") int registerInitial,
+                                    @Value("${application.limits.register.max:64}") int registerMax,
+                                    @Value("${application.limits.min:2}") int min) {
+        limits.put(Group.CHAIN_READ, new AdaptiveConcurrencyLimit(readInitial, min, readMax));
+        limits.put(Group.CHAIN_WRITE, new AdaptiveConcurrencyLimit(writeInitial, min, writeMax));
+        limits.put(Group.REGISTER, new AdaptiveConcurrencyLimit(registerInitial, min, registerMax));
+
+        limits.forEach((group, limit) -> {
+            String tag = group.name().toLowerCase(Locale.ROOT).replace('_', '-');
+            Gauge.builder("adaptive.limit", limit, AdaptiveConcurrencyLimit::getLimit).tag("group", tag).register(meterRegistry);
+            Gauge.builder("adaptive.inflight", limit, AdaptiveConcurrencyLimit::getInFlight).tag("group", tag).register(meterRegistry);
+            rejections.put(group, Counter.builder("adaptive.rejected").tag("group", tag).register(meterRegistry));
+        });
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Group group = groupOf(request);
+        if (group == null) {
+            return true;
+        }
+        int inFlight = limits.get(group).tryAcquire();
+        if (inFlight < 0) {
+            rejections.get(group).increment();
+            throw new CapacityExceededException("Too many concurrent requests, try again later", HttpStatus.TOO_MANY_REQUESTS, 1);
+        }
+        request.setAttribute(GROUP, group);
+        request.setAttribute(IN_FLIGHT, inFlight);
+        request.setAttribute(START, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!(request.getAttribute(GROUP) instanceof Group group)) {
+            return;
+        }
+        long rtt = System.nanoTime() - (long) request.getAttribute(START);
+        int status = response.getStatus();
+        boolean overloaded = ex != null || status == HttpStatus.SERVICE_UNAVAILABLE.value()
+                || status == HttpStatus.GATEWAY_TIMEOUT.value() || status == HttpStatus.TOO_MANY_REQUESTS.value();
+        limits.get(group).release(rtt, (int) request.getAttribute(IN_FLIGHT), overloaded);
+    }
+
+    private static Group groupOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.equals("/auth/register")) {
+            return Group.REGISTER;
+        }
+        if (path.startsWith("/api/shipment/") || path.startsWith("/api/transfer/")) {
+            return HttpMethod.GET.matches(request.getMethod()) ? Group.CHAIN_READ : Group.CHAIN_WRITE;
+        }
+        return null;
+    }
+}
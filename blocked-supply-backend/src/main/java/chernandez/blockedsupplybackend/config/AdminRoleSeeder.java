@@ -0,0 +1,64 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.domain.Roles;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Grants the admin role to the users listed in {@code application.admin.emails}.
+ * <p>
+ * On startup, every listed user that is already registered receives the {@link Roles#ADMIN}
+ * role, which the admin endpoints require. Users registered later are granted the role on the
+ * next startup; an email that is not registered is skipped with a warning, so that registering
+ * a listed email never grants the role by itself. Removing an email from the list does not
+ * revoke the role.
+ * </p>
+ */
+@Component
+public class AdminRoleSeeder implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(AdminRoleSeeder.class);
+
+    private final UserRepository userRepository;
+
+    @Value("${application.admin.emails:}")
+    private List<String> adminEmails;
+
+    public AdminRoleSeeder(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * Grants the admin role to the listed users that do not have it yet.
+     *
+     * @param args The application arguments.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        for (String email : adminEmails) {
+            if (email.isBlank()) {
+                continue;
+            }
+            User user = userRepository.findByEmail(email.trim()).orElse(null);
+            if (user == null) {
+                log.warn("Admin user {} is not registered, the admin role was not granted", email.trim());
+                continue;
+            }
+            List<String> roles = user.getRoles() != null ? new ArrayList<>(user.getRoles()) : new ArrayList<>();
+            if (!roles.contains(Roles.ADMIN.name())) {
+                roles.add(Roles.ADMIN.name());
+                user.setRoles(roles);
+                userRepository.save(user);
+            }
+        }
+    }
+}
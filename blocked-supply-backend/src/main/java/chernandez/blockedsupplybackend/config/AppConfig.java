@@ -1,18 +1,24 @@
 package chernandez.blockedsupplybackend.config;
 
+import chernandez.blockedsupplybackend.domain.AuthenticatedUser;
 import chernandez.blockedsupplybackend.domain.User;
 import chernandez.blockedsupplybackend.repositories.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
 
 /**
  * Application configuration class.
@@ -27,6 +33,15 @@ public class AppConfig {
 
     private final UserRepository userRepository;
 
+    @Value("${application.security.password.bcrypt.strength:-1}")
+    private int bcryptStrength;
+    @Value("${application.security.password.bcrypt.target-millis:250}")
+    private long bcryptTargetMillis;
+    @Value("${application.security.password.hashing.threads:2}")
+    private int hashingThreads;
+    @Value("${application.security.password.hashing.queue-capacity:64}")
+    private int hashingQueueCapacity;
+
     /**
      * Provides a UserDetailsService bean that loads user-specific data.
      *
@@ -37,10 +52,7 @@ public class AppConfig {
         return username -> {
             final User user = userRepository.findByEmail(username)
                     .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-            return org.springframework.security.core.userdetails.User.builder()
-                    .username(user.getEmail())
-                    .password(user.getPassword())
-                    .build();
+            return new AuthenticatedUser(user);
         };
     }
 
@@ -54,9 +66,29 @@ public class AppConfig {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
         authProvider.setUserDetailsService(userDetailsService());
         authProvider.setPasswordEncoder(passwordEncoder());
+        authProvider.setUserDetailsPasswordService(userDetailsPasswordService());
         return authProvider;
     }
 
+    /**
+     * Provides a UserDetailsPasswordService bean that stores upgraded password hashes.
+     * <p>
+     * After a successful login, the authentication provider re-encodes passwords whose
+     * hash uses a lower BCrypt strength than the configured one and saves them here.
+     * </p>
+     *
+     * @return A {@link UserDetailsPasswordService} implementation.
+     */
+    @Bean
+    public UserDetailsPasswordService userDetailsPasswordService() {
+        return (userDetails, newPassword) -> {
+            userRepository.updatePassword(userDetails.getUsername(), newPassword);
+            final User user = ((AuthenticatedUser) userDetails).getUser();
+            user.setPassword(newPassword);
+            return userDetails;
+        };
+    }
+
     /**
      * Provides an AuthenticationManager bean.
      *
@@ -70,12 +102,31 @@ public class AppConfig {
     }
 
     /**
-     * Provides a PasswordEncoder bean that uses BCrypt hashing.
+     * Provides a PasswordEncoder bean that uses BCrypt hashing on a dedicated bounded pool.
+     * <p>
+     * When no strength is configured, it is calibrated at startup against the target latency.
+     * </p>
      *
      * @return A {@link PasswordEncoder} implementation.
      */
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        final int strength = bcryptStrength > 0 ? bcryptStrength : BoundedPasswordEncoder.calibrate(bcryptTargetMillis);
+        return new BoundedPasswordEncoder(strength, hashingThreads, hashingQueueCapacity);
+    }
+
+    /**
+     * Provides the JPA transaction manager, bounding every transaction by the request deadline.
+     *
+     * @param entityManagerFactory The entity manager factory.
+     * @param customizers          The transaction manager customizers configured by Spring Boot.
+     * @return A {@link DeadlineAwareTransactionManager}.
+     */
+    @Bean
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory,
+                                                         ObjectProvider<TransactionManagerCustomizers> customizers) {
+        DeadlineAwareTransactionManager transactionManager = new DeadlineAwareTransactionManager(entityManagerFactory);
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
     }
 }
@@ -0,0 +1,210 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/**
+ * A BCrypt {@link PasswordEncoder} that hashes and verifies passwords on a dedicated bounded pool.
+ * <p>
+ * Request threads hand the work to a fixed number of hashing threads and wait for the result,
+ * so a burst of logins or registrations can only occupy that many CPUs. When every hashing
+ * thread is busy and the queue is full, the call fails fast with a
+ * {@link CapacityExceededException} that is answered with 503.
+ * </p>
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    private static final int MIN_CALIBRATED_STRENGTH = 10;
+    private static final int MAX_CALIBRATED_STRENGTH = 16;
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final int strength;
+    private final int batchWindow;
+
+    /**
+     * Constructs a new BoundedPasswordEncoder.
+     *
+     * @param strength      The BCrypt log rounds to use for new hashes.
+     * @param threads       The number of hashing threads.
+     * @param queueCapacity The number of hashing requests allowed to wait for a thread.
+     */
+    public BoundedPasswordEncoder(int strength, int threads, int queueCapacity) {
+        this.strength = strength;
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.batchWindow = Math.max(1, Math.min(threads, queueCapacity));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Finds the highest BCrypt strength whose hashing time stays within a target latency.
+     * <p>
+     * The calibration never goes below the BCrypt default of 10 rounds.
+     * </p>
+     *
+     * @param targetMillis The target time for hashing one password, in milliseconds.
+     * @return The calibrated strength.
+     */
+    public static int calibrate(long targetMillis) {
+        return calibrate(targetMillis, BoundedPasswordEncoder::measure);
+    }
+
+    /**
+     * Finds the highest BCrypt strength whose hashing time, as reported by the given function,
+     * stays within a target latency.
+     * <p>
+     * The result is always between 10 and 16 rounds.
+     * </p>
+     *
+     * @param targetMillis The target time for hashing one password, in milliseconds.
+     * @param measure      Returns the time for hashing one password at a strength, in milliseconds.
+     * @return The calibrated strength.
+     */
+    public static int calibrate(long targetMillis, IntToLongFunction measure) {
+        int strength = MIN_CALIBRATED_STRENGTH;
+        long elapsed = measure.applyAsLong(strength);
+        while (strength < MAX_CALIBRATED_STRENGTH && elapsed * 2 <= targetMillis) {
+            strength++;
+            elapsed = measure.applyAsLong(strength);
+        }
+        return strength;
+    }
+
+    private static long measure(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            encoder.encode("calibration-password-1");
+            best = Math.min(best, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return best;
+    }
+
+    /**
+     * Returns the BCrypt log rounds used for new hashes.
+     *
+     * @return The BCrypt strength.
+     */
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> delegate.encode(rawPassword));
+    }
+
+    /**
+     * Hashes several passwords in parallel on the hashing pool.
+     * <p>
+     * At most one task per hashing thread is in flight for the batch at any time, and never more
+     * than the queue can hold, so a large batch never fills the queue and starves concurrent logins.
+     * </p>
+     *
+     * @param rawPasswords The passwords to hash.
+     * @return The hashes, in the same order as the passwords.
+     */
+    public List<String> encodeAll(List<? extends CharSequence> rawPasswords) {
+        // a task whose permit was just released may still be queued while its thread finishes
+        // the previous one, so the window is also bounded by the queue capacity
+        Semaphore window = new Semaphore(batchWindow);
+        List<Future<String>> futures = new ArrayList<>(rawPasswords.size());
+        try {
+            for (CharSequence rawPassword : rawPasswords) {
+                window.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return delegate.encode(rawPassword);
+                        } finally {
+                            window.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    window.release();
+                    throw new CapacityExceededException("Too many concurrent authentication requests, try again later", 1);
+                }
+            }
+
+            List<String> hashes = new ArrayList<>(futures.size());
+            for (Future<String> future : futures) {
+                hashes.add(await(future));
+            }
+            return hashes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T execute(Callable<T> task) {
+        final Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new CapacityExceededException("Too many concurrent authentication requests, try again later", 1);
+        }
+        return await(future);
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Failed to hash password", e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,86 @@
+package chernandez.blockedsupplybackend.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the connection to the node-broker, bound from {@code application.broker.*}.
+ * <p>
+ * Times are in milliseconds.
+ * </p>
+ *
+ * @param address        The base URLs of the broker instances, separated by commas.
+ * @param connectTimeout The longest time to wait for a connection to open.
+ * @param readTimeout    The longest time to wait for a response.
+ * @param pool           The pool of persistent connections.
+ * @param hedge          The hedging of slow reads across several instances.
+ * @param circuitBreaker The breaker of each instance.
+ * @param bulkhead       The limits on concurrent broker calls.
+ */
+@ConfigurationProperties("application.broker")
+public record BrokerProperties(String address,
+                               @DefaultValue("2000") long connectTimeout,
+                               @DefaultValue("30000") long readTimeout,
+                               @DefaultValue Pool pool,
+                               @DefaultValue Hedge hedge,
+                               @DefaultValue CircuitBreaker circuitBreaker,
+                               @DefaultValue Bulkhead bulkhead) {
+
+    /**
+     * @param acquireTimeout The longest time to wait for a pooled connection.
+     * @param maxTotal       The most connections across all instances.
+     * @param maxPerRoute    The most connections to one instance.
+     * @param idleTimeout    The time after which an unused connection is closed.
+     */
+    public record Pool(@DefaultValue("2000") long acquireTimeout,
+                       @DefaultValue("50") int maxTotal,
+                       @DefaultValue("50") int maxPerRoute,
+                       @DefaultValue("30000") long idleTimeout) {
+    }
+
+    /**
+     * @param enabled    Whether slow reads are hedged.
+     * @param percentile The read latency percentile after which a read is hedged.
+     * @param minDelay   The least time to wait before hedging.
+     */
+    public record Hedge(@DefaultValue("true") boolean enabled,
+                        @DefaultValue("95") double percentile,
+                        @DefaultValue("20") long minDelay) {
+    }
+
+    /**
+     * @param failureRateThreshold The percentage of failed or slow calls that opens the breaker.
+     * @param slowCallThreshold    The duration after which a call counts as slow.
+     * @param windowSize           The number of recent calls the rates are computed over.
+     * @param minimumCalls         The number of calls needed before the breaker can open.
+     * @param openDuration         How long the breaker stays open before letting trial calls through.
+     */
+    public record CircuitBreaker(@DefaultValue("50") float failureRateThreshold,
+                                 @DefaultValue("5000") long slowCallThreshold,
+                                 @DefaultValue("50") int windowSize,
+                                 @DefaultValue("20") int minimumCalls,
+                                 @DefaultValue("10000") long openDuration) {
+    }
+
+    /**
+     * @param read    The limit on concurrent reads.
+     * @param write   The limit on concurrent writes.
+     * @param maxWait How long a call waits for a free slot before it is rejected.
+     */
+    public record Bulkhead(@DefaultValue Read read,
+                           @DefaultValue Write write,
+                           @DefaultValue("0") long maxWait) {
+    }
+
+    /**
+     * @param maxConcurrent The most reads in flight at once.
+     */
+    public record Read(@DefaultValue("32") int maxConcurrent) {
+    }
+
+    /**
+     * @param maxConcurrent The most writes in flight at once.
+     */
+    public record Write(@DefaultValue("8") int maxConcurrent) {
+    }
+}
@@ -0,0 +1,45 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.util.OptionalLong;
+
+/**
+ * A {@link JpaTransactionManager} that bounds every transaction by the request deadline.
+ * <p>
+ * Transactions started while a request deadline is set get the remaining time, rounded up to
+ * whole seconds, as their timeout unless they declare a shorter one. JPA applies the
+ * transaction timeout to every query, so database calls stop once the budget is spent.
+ * No transaction is started or joined once the deadline has passed; the check runs before
+ * {@code doBegin}, which would wrap the {@link DeadlineExceededException} into a generic
+ * transaction failure.
+ * </p>
+ */
+public class DeadlineAwareTransactionManager extends JpaTransactionManager {
+
+    public DeadlineAwareTransactionManager(EntityManagerFactory entityManagerFactory) {
+        super(entityManagerFactory);
+    }
+
+    @Override
+    protected Object doGetTransaction() {
+        RequestDeadline.check("database access");
+        return super.doGetTransaction();
+    }
+
+    @Override
+    protected int determineTimeout(TransactionDefinition definition) {
+        int timeout = super.determineTimeout(definition);
+        OptionalLong remaining = RequestDeadline.remainingMillis();
+        if (remaining.isEmpty()) {
+            return timeout;
+        }
+        // At least one second, for a deadline that passed since doGetTransaction checked it
+        int remainingSeconds = Math.max(1, (int) Math.ceil(remaining.getAsLong() / 1000.0));
+        return timeout == TransactionDefinition.TIMEOUT_DEFAULT ? remainingSeconds : Math.min(timeout, remainingSeconds);
+    }
+}
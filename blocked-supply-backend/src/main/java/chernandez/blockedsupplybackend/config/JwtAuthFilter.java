@@ -1,10 +1,11 @@
 package chernandez.blockedsupplybackend.config;
 
-import chernandez.blockedsupplybackend.domain.Token;
+import chernandez.blockedsupplybackend.domain.AuthenticatedUser;
 import chernandez.blockedsupplybackend.domain.User;
-import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
 import chernandez.blockedsupplybackend.repositories.UserRepository;
 import chernandez.blockedsupplybackend.services.JwtService;
+import chernandez.blockedsupplybackend.services.TokenRevocationIndex;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -15,8 +16,6 @@ import org.jetbrains.annotations.NotNull;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -29,7 +28,8 @@ import java.util.Optional;
  * <p>
  * This filter intercepts incoming requests, extracts the JWT from the
  * Authorization header, validates it, and sets the authentication in the
- * Spring Security context if the token is valid.
+ * Spring Security context if the token is valid. The user is loaded once and
+ * stored in the context as an {@link AuthenticatedUser} principal.
  * </p>
  */
 @Component
@@ -37,8 +37,7 @@ import java.util.Optional;
 public class JwtAuthFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
-    private final UserDetailsService userDetailsService;
-    private final TokenRepository tokenRepository;
+    private final TokenRevocationIndex tokenRevocationIndex;
     private final UserRepository userRepository;
 
     /**
@@ -70,38 +69,41 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         }
 
         final String jwtToken = authHeader.substring(7);
-        final String userEmail = jwtService.extractUsername(jwtToken);
+        final VerifiedClaims claims = jwtService.verify(jwtToken).orElse(null);
+        if (claims == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final String userEmail = claims.subject();
         if (userEmail == null || SecurityContextHolder.getContext().getAuthentication() != null) {
             System.out.print("userEmail: " + userEmail);
             return;
         }
 
-        final Token token = tokenRepository.findByToken(jwtToken)
-                .orElse(null);
-        if (token == null || token.isRevoked() || token.isExpired()) {
-            System.out.print("token: " + token);
+        if (!tokenRevocationIndex.isLive(jwtToken, claims)) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        final UserDetails userDetails = userDetailsService.loadUserByUsername(userEmail);
-        final Optional<User> user = userRepository.findByEmail(userDetails.getUsername());
+        final Optional<User> user = userRepository.findByEmail(userEmail);
         if (user.isEmpty()) {
             System.out.print("user empty: " + user);
             filterChain.doFilter(request, response);
             return;
         }
 
-        final boolean isTokenValid = jwtService.isTokenValid(jwtToken, user.get());
+        final boolean isTokenValid = jwtService.isTokenValid(claims, user.get());
         if (!isTokenValid) {
             System.out.print("isTokenValid: " + isTokenValid);
             return;
         }
 
+        final AuthenticatedUser principal = new AuthenticatedUser(user.get());
         final var authToken = new UsernamePasswordAuthenticationToken(
-                userDetails,
+                principal,
                 null,
-                userDetails.getAuthorities()
+                principal.getAuthorities()
         );
         authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
         SecurityContextHolder.getContext().setAuthentication(authToken);
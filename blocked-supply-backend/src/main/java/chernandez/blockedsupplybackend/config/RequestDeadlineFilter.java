@@ -0,0 +1,67 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * A filter that gives every request a deadline.
+ * <p>
+ * The deadline is taken from the {@code X-Request-Timeout} header, in milliseconds, capped at
+ * a configured maximum. Without the header, requests that send blockchain transactions get
+ * the write default and all other requests the read default. The deadline is held in
+ * {@link RequestDeadline} for the duration of the request.
+ * </p>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    @Value("${application.deadline.read-default:15000}")
+    private long readDefault;
+    @Value("${application.deadline.write-default:60000}")
+    private long writeDefault;
+    @Value("${application.deadline.max:120000}")
+    private long max;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestDeadline.start(timeoutOf(request));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+
+    private long timeoutOf(HttpServletRequest request) {
+        String header = request.getHeader(TIMEOUT_HEADER);
+        if (header != null) {
+            try {
+                long timeout = Long.parseLong(header.trim());
+                if (timeout > 0) {
+                    return Math.min(timeout, max);
+                }
+            } catch (NumberFormatException e) {
+                // Fall back to the endpoint default.
+            }
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        boolean chainWrite = HttpMethod.POST.matches(request.getMethod())
+                && (path.startsWith("/api/shipment/") || path.startsWith("/api/transfer/") || path.startsWith("/api/admin/"));
+        return chainWrite ? writeDefault : readDefault;
+    }
+}
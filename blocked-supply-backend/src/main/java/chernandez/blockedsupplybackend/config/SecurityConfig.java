@@ -2,6 +2,8 @@ package chernandez.blockedsupplybackend.config;
 
 import chernandez.blockedsupplybackend.domain.Token;
 import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import chernandez.blockedsupplybackend.services.TokenRevocationIndex;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -36,6 +38,7 @@ public class SecurityConfig {
     private final JwtAuthFilter jwtAuthFilter;
     private final AuthenticationProvider authenticationProvider;
     private final TokenRepository tokenRepository;
+    private final TokenRevocationIndex tokenRevocationIndex;
 
     /**
      * Configures the security filter chain.
@@ -83,11 +86,12 @@ public class SecurityConfig {
         }
 
         final String jwtToken = token.substring(7);
-        final Token foundToken = tokenRepository.findByToken(jwtToken)
+        final Token foundToken = tokenRepository.findByTokenDigest(DigestUtil.sha256(jwtToken))
                 .orElseThrow(() -> new IllegalArgumentException("Invalid token"));
         foundToken.setExpired(true);
         foundToken.setRevoked(true);
         tokenRepository.save(foundToken);
+        tokenRevocationIndex.revoke(jwtToken);
     }
 
 }
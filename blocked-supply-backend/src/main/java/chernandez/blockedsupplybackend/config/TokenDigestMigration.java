@@ -0,0 +1,82 @@
+package chernandez.blockedsupplybackend.config;
+
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.services.JwtService;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migrates token rows created before tokens were stored as digests.
+ * <p>
+ * Older deployments kept the full JWT in the {@code token} column of the tokens table.
+ * On startup, this runner fills {@code token_digest} and {@code expires_at} for those rows
+ * in small batches and clears the legacy value. Rows whose JWT no longer verifies are marked
+ * as expired. When {@code application.security.token-digest.drop-legacy-column} is enabled,
+ * the legacy column and its unique index are dropped once every row has been migrated.
+ * </p>
+ */
+@Component
+public class TokenDigestMigration implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JwtService jwtService;
+
+    @Value("${application.security.token-digest.drop-legacy-column:false}")
+    private boolean dropLegacyColumn;
+
+    public TokenDigestMigration(JdbcTemplate jdbcTemplate, JwtService jwtService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jwtService = jwtService;
+    }
+
+    /**
+     * Runs the migration if the legacy {@code token} column is still present.
+     *
+     * @param args The application arguments.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        Integer legacyColumns = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.columns " +
+                        "where table_schema = database() and table_name = 'tokens' and column_name = 'token'",
+                Integer.class);
+        if (legacyColumns == null || legacyColumns == 0) {
+            return;
+        }
+
+        List<Map<String, Object>> rows;
+        do {
+            rows = jdbcTemplate.queryForList(
+                    "select id, token from tokens where token is not null limit " + BATCH_SIZE);
+            List<Object[]> updates = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                String jwtToken = (String) row.get("token");
+                VerifiedClaims claims = jwtService.verify(jwtToken).orElse(null);
+                Timestamp expiresAt = claims != null
+                        ? Timestamp.valueOf(LocalDateTime.ofInstant(claims.expiration(), ZoneId.systemDefault()))
+                        : null;
+                updates.add(new Object[]{DigestUtil.sha256(jwtToken), expiresAt, claims == null, row.get("id")});
+            }
+            jdbcTemplate.batchUpdate(
+                    "update tokens set token_digest = ?, expires_at = ?, expired = (expired or ?), token = null where id = ?",
+                    updates);
+        } while (rows.size() == BATCH_SIZE);
+
+        if (dropLegacyColumn) {
+            jdbcTemplate.execute("alter table tokens drop column token");
+        }
+    }
+}
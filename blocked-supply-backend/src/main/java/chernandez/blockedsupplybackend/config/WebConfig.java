@@ -0,0 +1,27 @@
+package chernandez.blockedsupplybackend.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Spring MVC configuration.
+ * <p>
+ * This class registers the interceptors applied to the controllers.
+ * </p>
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final AdaptiveLimitInterceptor adaptiveLimitInterceptor;
+
+    public WebConfig(AdaptiveLimitInterceptor adaptiveLimitInterceptor) {
+        this.adaptiveLimitInterceptor = adaptiveLimitInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(adaptiveLimitInterceptor)
+                .addPathPatterns("/api/shipment/**", "/api/transfer/**", "/auth/register");
+    }
+}
@@ -0,0 +1,38 @@
+package chernandez.blockedsupplybackend.controllers;
+
+import chernandez.blockedsupplybackend.domain.dto.auth.RegisterRequest;
+import chernandez.blockedsupplybackend.services.UserProvisioningService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Controller for administrative operations.
+ * <p>
+ * This class provides endpoints reserved to users with the admin role, such as
+ * provisioning many users at once.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class AdminController {
+
+    private final UserProvisioningService userProvisioningService;
+
+    /**
+     * Creates a batch of users.
+     *
+     * @param requests The registration requests, one per user.
+     * @return A {@link ResponseEntity} with the outcome of each registration.
+     * @throws Exception if an error occurs during provisioning.
+     */
+    @PostMapping("/users/bulk")
+    public ResponseEntity<?> provisionUsers(@RequestBody final List<RegisterRequest> requests) throws Exception {
+        return userProvisioningService.provision(requests);
+    }
+}
@@ -0,0 +1,61 @@
+package chernandez.blockedsupplybackend.controllers;
+
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Translates exceptions raised by the controllers into HTTP responses.
+ * <p>
+ * Requests rejected because a bounded resource is saturated are answered with the
+ * status carried by the exception and a {@code Retry-After} header. Requests whose deadline
+ * passed are answered with 504.
+ * </p>
+ */
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    /**
+     * Handles requests rejected for lack of capacity.
+     *
+     * @param e The exception describing the rejection.
+     * @return A {@link ResponseEntity} with the rejection status and a {@code Retry-After} header.
+     */
+    @ExceptionHandler(CapacityExceededException.class)
+    public ResponseEntity<String> handleCapacityExceeded(CapacityExceededException e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    /**
+     * Handles requests whose deadline passed before the work could complete.
+     *
+     * @param e The exception describing the expired deadline.
+     * @return A {@link ResponseEntity} with status 504.
+     */
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> handleDeadlineExceeded(DeadlineExceededException e) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(e.getMessage());
+    }
+
+    /**
+     * Unwraps capacity rejections raised inside the authentication manager.
+     *
+     * @param e The exception raised by the authentication manager.
+     * @return A {@link ResponseEntity} with the rejection status if the cause is a capacity rejection.
+     * @throws InternalAuthenticationServiceException if the cause is anything else.
+     */
+    @ExceptionHandler(InternalAuthenticationServiceException.class)
+    public ResponseEntity<String> handleInternalAuthentication(InternalAuthenticationServiceException e) {
+        if (e.getCause() instanceof CapacityExceededException capacityExceeded) {
+            return handleCapacityExceeded(capacityExceeded);
+        }
+        throw e;
+    }
+}
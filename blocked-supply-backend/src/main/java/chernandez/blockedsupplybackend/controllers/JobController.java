@@ -0,0 +1,33 @@
+package chernandez.blockedsupplybackend.controllers;
+
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller for handling asynchronous chain writes.
+ * <p>
+ * This class provides an endpoint for following the jobs submitted with {@code Prefer: respond-async}.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/jobs")
+public class JobController {
+
+    private final ChainJobService chainJobService;
+
+    public JobController(ChainJobService chainJobService) {
+        this.chainJobService = chainJobService;
+    }
+
+    /**
+     * Retrieves the status and, once completed, the result of a job of the authenticated user.
+     *
+     * @param jobId The ID of the job to retrieve.
+     * @return A {@link ResponseEntity} containing the job.
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable long jobId) {
+        return chainJobService.getJob(jobId);
+    }
+}
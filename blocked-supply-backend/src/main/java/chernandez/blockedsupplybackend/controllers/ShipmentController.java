@@ -1,10 +1,13 @@
 package chernandez.blockedsupplybackend.controllers;
 
 import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.services.ChainJobService;
 import chernandez.blockedsupplybackend.services.ShipmentService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 /**
  * Controller for handling shipment-related operations.
  * <p>
@@ -16,21 +19,42 @@ import org.springframework.web.bind.annotation.*;
 public class ShipmentController {
 
     private final ShipmentService shipmentService;
+    private final ChainJobService chainJobService;
 
-    public ShipmentController(ShipmentService shipmentService) {
+    public ShipmentController(ShipmentService shipmentService, ChainJobService chainJobService) {
         this.shipmentService = shipmentService;
+        this.chainJobService = chainJobService;
     }
 
     /**
      * Creates a new shipment.
      *
      * @param shipmentInput The input data for creating the shipment.
+     * @param prefer        The Prefer header; with {@code respond-async} the shipment is answered with 202 and a job.
      * @return A {@link ResponseEntity} with the result of the creation operation.
      * @throws Exception if an error occurs during shipment creation.
      */
     @PostMapping("/create")
-    public ResponseEntity<?> createShipment(@RequestBody ShipmentInput shipmentInput) throws Exception {
-        return shipmentService.createShipment(shipmentInput);
+    public ResponseEntity<?> createShipment(@RequestBody ShipmentInput shipmentInput,
+                                            @RequestHeader(value = "Prefer", required = false) String prefer) throws Exception {
+        if (ChainJobService.prefersAsync(prefer)) {
+            return chainJobService.submitShipment(shipmentInput);
+        }
+        return chainJobService.createShipment(shipmentInput);
+    }
+
+    /**
+     * Creates several shipments at once.
+     *
+     * @param shipmentInputs The input data for creating each shipment.
+     * @param prefer         The Prefer header; with {@code respond-async} the batch is answered with 202 and a job.
+     * @return A {@link ResponseEntity} with the outcome of each creation.
+     * @throws Exception if an error occurs during shipment creation.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> createShipments(@RequestBody List<ShipmentInput> shipmentInputs,
+                                             @RequestHeader(value = "Prefer", required = false) String prefer) throws Exception {
+        return chainJobService.createShipments(shipmentInputs, ChainJobService.prefersAsync(prefer));
     }
 
     /**
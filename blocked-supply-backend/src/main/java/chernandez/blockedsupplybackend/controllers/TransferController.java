@@ -1,6 +1,8 @@
 package chernandez.blockedsupplybackend.controllers;
 
+import chernandez.blockedsupplybackend.domain.dto.BatchTransferInput;
 import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.services.ChainJobService;
 import chernandez.blockedsupplybackend.services.TransferService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -16,21 +18,42 @@ import org.springframework.web.bind.annotation.*;
 public class TransferController {
 
     private final TransferService transferService;
+    private final ChainJobService chainJobService;
 
-    public TransferController(TransferService transferService) {
+    public TransferController(TransferService transferService, ChainJobService chainJobService) {
         this.transferService = transferService;
+        this.chainJobService = chainJobService;
     }
 
     /**
      * Creates a new shipment transfer.
      *
      * @param transferInput The input data for creating the transfer.
+     * @param prefer        The Prefer header; with {@code respond-async} the transfer is answered with 202 and a job.
      * @return A {@link ResponseEntity} with the result of the transfer operation.
      * @throws Exception if an error occurs during the transfer.
      */
     @PostMapping("/create")
-    public ResponseEntity<?> transferShipment(@RequestBody TransferInput transferInput) throws Exception {
-        return transferService.transferShipment(transferInput);
+    public ResponseEntity<?> transferShipment(@RequestBody TransferInput transferInput,
+                                              @RequestHeader(value = "Prefer", required = false) String prefer) throws Exception {
+        if (ChainJobService.prefersAsync(prefer)) {
+            return chainJobService.submitTransfer(transferInput);
+        }
+        return chainJobService.transferShipment(transferInput);
+    }
+
+    /**
+     * Transfers several shipments to the same new owner at once.
+     *
+     * @param batchTransferInput The shipments to transfer and the shared transfer data.
+     * @param prefer             The Prefer header; with {@code respond-async} the batch is answered with 202 and a job.
+     * @return A {@link ResponseEntity} with the outcome of each transfer.
+     * @throws Exception if an error occurs during the transfers.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> transferShipments(@RequestBody BatchTransferInput batchTransferInput,
+                                               @RequestHeader(value = "Prefer", required = false) String prefer) throws Exception {
+        return chainJobService.transferShipments(batchTransferInput, ChainJobService.prefersAsync(prefer));
     }
 
     /**
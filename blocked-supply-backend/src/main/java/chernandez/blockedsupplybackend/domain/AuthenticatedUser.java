@@ -0,0 +1,58 @@
+package chernandez.blockedsupplybackend.domain;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The authenticated principal stored in the security context.
+ * <p>
+ * This class wraps the {@link User} entity loaded once while authenticating the request,
+ * so that services can read the current user without querying the database again.
+ * </p>
+ */
+public final class AuthenticatedUser implements UserDetails {
+
+    private final User user;
+
+    /**
+     * Constructs a new AuthenticatedUser.
+     *
+     * @param user The user entity backing this principal.
+     */
+    public AuthenticatedUser(User user) {
+        this.user = user;
+    }
+
+    /**
+     * Returns the user entity backing this principal.
+     *
+     * @return The authenticated {@link User}.
+     */
+    public User getUser() {
+        return user;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        if (user.getRoles() == null) {
+            return List.of();
+        }
+        return user.getRoles().stream()
+                .map(role -> new SimpleGrantedAuthority("ROLE_" + role))
+                .toList();
+    }
+
+    @Override
+    public String getPassword() {
+        return user.getPassword();
+    }
+
+    @Override
+    public String getUsername() {
+        return user.getEmail();
+    }
+}
@@ -0,0 +1,41 @@
+package chernandez.blockedsupplybackend.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents a blockchain account available for assignment to users.
+ * <p>
+ * This class is an entity that maps to the "blockchain_accounts" table in the database.
+ * It mirrors the accounts exposed by the broker and records which user, if any,
+ * has claimed each address.
+ * </p>
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "blockchain_accounts", indexes = @Index(name = "idx_blockchain_accounts_claimed_by", columnList = "claimedBy"))
+public class BlockchainAccount {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(unique = true, nullable = false)
+    private String address;
+
+    private String claimedBy;
+    private LocalDateTime claimedAt;
+
+    /**
+     * Constructs a new unclaimed BlockchainAccount.
+     *
+     * @param address The blockchain address of the account.
+     */
+    public BlockchainAccount(String address) {
+        this.address = address;
+    }
+}
@@ -0,0 +1,65 @@
+package chernandez.blockedsupplybackend.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents a chain write waiting in the outbox.
+ * <p>
+ * This class is an entity that maps to the "chain_jobs" table in the database.
+ * It holds the validated request of a shipment creation or transfer, the broker's answer once
+ * the transaction is on chain, and once the write has been recorded locally, the HTTP status
+ * and body returned to the submitter. Failed attempts are retried at {@code nextAttemptAt}.
+ * While a worker runs the job, the job holds the worker's claim token and the worker refreshes
+ * {@code heartbeatAt}, so that a job whose worker stopped can be told from one still running.
+ * </p>
+ */
+@Data
+@Entity
+@Table(name = "chain_jobs", indexes = @Index(name = "idx_chain_jobs_status", columnList = "status, nextAttemptAt"))
+public class ChainJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private JobType type;
+
+    @Enumerated(EnumType.STRING)
+    private JobStatus status = JobStatus.PENDING;
+
+    private Long userId;
+    private boolean notifySubmitter = true;
+
+    // A full batch is larger than the 64 KB of a TEXT column
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String payload;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String chainResult;
+
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+
+    @Column(length = 1000)
+    private String error;
+
+    private Integer resultStatus;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String result;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+
+    // Only written by the claim, heartbeat and stale queries, so that saving the job never
+    // turns its heartbeat back
+    @Column(length = 36, updatable = false)
+    private String claimToken;
+    @Column(updatable = false)
+    private LocalDateTime heartbeatAt;
+}
@@ -0,0 +1,23 @@
+package chernandez.blockedsupplybackend.domain;
+
+/**
+ * Represents the status of a {@link ChainJob}.
+ */
+public enum JobStatus {
+    /**
+     * The job is waiting for a worker.
+     */
+    PENDING,
+    /**
+     * A worker is sending the job to the blockchain.
+     */
+    RUNNING,
+    /**
+     * The chain operation completed.
+     */
+    SUCCEEDED,
+    /**
+     * The chain operation was rejected or could not be completed.
+     */
+    FAILED
+}
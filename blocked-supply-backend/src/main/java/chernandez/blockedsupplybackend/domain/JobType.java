@@ -0,0 +1,23 @@
+package chernandez.blockedsupplybackend.domain;
+
+/**
+ * Represents the chain operation run by a {@link ChainJob}.
+ */
+public enum JobType {
+    /**
+     * Creates a shipment.
+     */
+    CREATE_SHIPMENT,
+    /**
+     * Transfers a shipment to a new owner.
+     */
+    TRANSFER_SHIPMENT,
+    /**
+     * Creates several shipments.
+     */
+    BATCH_CREATE,
+    /**
+     * Transfers several shipments to the same new owner.
+     */
+    BATCH_TRANSFER
+}
@@ -1,7 +1,9 @@
 package chernandez.blockedsupplybackend.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -15,11 +17,15 @@ import java.util.UUID;
  * It contains information about a shipment, such as its ID, SKU, owner, dates,
  * state, and participants.
  * </p>
+ * <p>
+ * The ID is assigned by the blockchain, so new records say so through {@link Persistable}
+ * and are inserted without being looked up first, which lets them be inserted in batches.
+ * </p>
  */
 @Data
 @Entity
 @Table(name = "shipment_records")
-public class ShipmentRecord {
+public class ShipmentRecord implements Persistable<Long> {
 
     @Id
     private Long shipmentId;
@@ -42,6 +48,10 @@ public class ShipmentRecord {
     @Column(name = "participant_id")
     private List<Long> participants = new ArrayList<>();
 
+    @Transient
+    @JsonIgnore
+    private boolean isNew;
+
     public ShipmentRecord() {
     }
 
@@ -61,10 +71,23 @@ public class ShipmentRecord {
         this.deliveryDate = deliveryDate;
         this.deliveredAt = null;
         this.state = state;
+        this.isNew = true;
         generateSku();
         addParticipant(owner);
     }
 
+    @Override
+    @JsonIgnore
+    public Long getId() {
+        return shipmentId;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
     private void generateSku() {
         this.sku = "SKU-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
     }
@@ -6,12 +6,15 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a JWT token entity.
  * <p>
  * This class is an entity that maps to the "tokens" table in the database.
- * It contains information about a JWT, such as the token string, its type,
- * whether it's revoked or expired, and the user it belongs to.
+ * It contains information about a JWT, such as the SHA-256 digest of the token string,
+ * its type, whether it's revoked or expired, and the user it belongs to. The modification
+ * timestamp lets other instances pick up revocations incrementally.
  * </p>
  */
 @Data
@@ -19,6 +22,10 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity(name = "tokens")
+@Table(indexes = {
+        @Index(name = "idx_tokens_modified_at", columnList = "modifiedAt"),
+        @Index(name = "idx_tokens_created_at", columnList = "createdAt")
+})
 public class Token {
 
     public boolean revoked;
@@ -26,14 +33,37 @@ public class Token {
     @Id
     @GeneratedValue
     private Long id;
-    @Column(unique = true)
-    private String token;
+    @Column(name = "token_digest", unique = true, columnDefinition = "binary(32)")
+    private byte[] tokenDigest;
     @Enumerated(EnumType.STRING)
     @Builder.Default
     private TokenType tokenType = TokenType.BEARER;
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     private User user;
+    private LocalDateTime createdAt;
+    private LocalDateTime expiresAt;
+    private LocalDateTime modifiedAt;
+
+    /**
+     * Checks whether the token is neither revoked nor expired.
+     *
+     * @return True if the token can still be used, false otherwise.
+     */
+    public boolean isLive() {
+        return !revoked && !expired;
+    }
+
+    @PrePersist
+    void onCreate() {
+        this.createdAt = LocalDateTime.now();
+        this.modifiedAt = this.createdAt;
+    }
+
+    @PreUpdate
+    void onUpdate() {
+        this.modifiedAt = LocalDateTime.now();
+    }
 
     /**
      * Represents the type of a token.
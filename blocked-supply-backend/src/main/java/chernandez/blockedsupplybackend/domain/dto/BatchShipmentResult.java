@@ -0,0 +1,27 @@
+package chernandez.blockedsupplybackend.domain.dto;
+
+/**
+ * A Data Transfer Object (DTO) for representing the outcome of creating one shipment of a batch.
+ *
+ * @param index      The position of the shipment in the request.
+ * @param success    Whether the shipment was created.
+ * @param message    The reason the shipment was not created, or null on success.
+ * @param shipmentId The ID of the shipment, or null on failure.
+ * @param sku        The SKU of the shipment, or null on failure.
+ */
+public record BatchShipmentResult(
+        int index,
+        boolean success,
+        String message,
+        Long shipmentId,
+        String sku
+) {
+
+    public static BatchShipmentResult created(int index, Long shipmentId, String sku) {
+        return new BatchShipmentResult(index, true, null, shipmentId, sku);
+    }
+
+    public static BatchShipmentResult failed(int index, String message) {
+        return new BatchShipmentResult(index, false, message, null, null);
+    }
+}
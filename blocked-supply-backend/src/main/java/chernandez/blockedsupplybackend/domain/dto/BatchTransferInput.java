@@ -0,0 +1,51 @@
+package chernandez.blockedsupplybackend.domain.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A Data Transfer Object (DTO) for representing the input of a batch transfer.
+ * <p>
+ * All the shipments are transferred to the same new owner, state and location, for example
+ * when a truck is unloaded at a warehouse.
+ * </p>
+ */
+@Data
+@NoArgsConstructor
+public class BatchTransferInput {
+    private List<Integer> shipmentIds;
+    private String newShipmentOwner;
+    private int newState;
+    private String location;
+    private String transferNotes;
+
+    /**
+     * Constructs a new BatchTransferInput.
+     *
+     * @param shipmentIds      The IDs of the shipments to transfer.
+     * @param newShipmentOwner The email of the new owner.
+     * @param newState         The new state of the shipments.
+     * @param location         The location of the transfer.
+     * @param transferNotes    The notes of the transfer.
+     */
+    public BatchTransferInput(List<Integer> shipmentIds, String newShipmentOwner, int newState, String location,
+                              String transferNotes) {
+        this.shipmentIds = shipmentIds;
+        this.newShipmentOwner = newShipmentOwner;
+        this.newState = newState;
+        this.location = location;
+        this.transferNotes = transferNotes;
+    }
+
+    /**
+     * Builds the transfer of one shipment of the batch.
+     *
+     * @param shipmentId The ID of the shipment.
+     * @return The transfer input.
+     */
+    public TransferInput toTransfer(int shipmentId) {
+        return new TransferInput(shipmentId, newShipmentOwner, newState, location, transferNotes);
+    }
+}
@@ -0,0 +1,23 @@
+package chernandez.blockedsupplybackend.domain.dto;
+
+/**
+ * A Data Transfer Object (DTO) for representing the outcome of transferring one shipment of a batch.
+ *
+ * @param shipmentId The ID of the shipment.
+ * @param success    Whether the shipment was transferred.
+ * @param message    The reason the shipment was not transferred, or null on success.
+ */
+public record BatchTransferResult(
+        Integer shipmentId,
+        boolean success,
+        String message
+) {
+
+    public static BatchTransferResult transferred(Integer shipmentId) {
+        return new BatchTransferResult(shipmentId, true, null);
+    }
+
+    public static BatchTransferResult failed(Integer shipmentId, String message) {
+        return new BatchTransferResult(shipmentId, false, message);
+    }
+}
@@ -0,0 +1,46 @@
+package chernandez.blockedsupplybackend.domain.dto;
+
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.JobType;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+import java.time.LocalDateTime;
+
+/**
+ * A Data Transfer Object (DTO) for representing an asynchronous chain write.
+ *
+ * @param id           The ID of the job.
+ * @param type         The chain operation of the job.
+ * @param status       The status of the job.
+ * @param attempts     The number of times a worker has run the job.
+ * @param error        The failure of the last attempt, if it is going to be retried.
+ * @param resultStatus The HTTP status of the operation, once it has completed.
+ * @param result       The JSON body of the operation, once it has completed.
+ * @param createdAt    The timestamp when the job was submitted.
+ * @param completedAt  The timestamp when the job completed.
+ */
+public record ChainJobOutput(
+        Long id,
+        JobType type,
+        JobStatus status,
+        int attempts,
+        String error,
+        Integer resultStatus,
+        @JsonRawValue String result,
+        LocalDateTime createdAt,
+        LocalDateTime completedAt
+) {
+
+    /**
+     * Creates the output of a job.
+     *
+     * @param job The job.
+     * @return The job output.
+     */
+    public static ChainJobOutput of(ChainJob job) {
+        return new ChainJobOutput(job.getId(), job.getType(), job.getStatus(), job.getAttempts(),
+                job.getError(), job.getResultStatus(), job.getResult(),
+                job.getCreatedAt(), job.getCompletedAt());
+    }
+}
@@ -0,0 +1,13 @@
+package chernandez.blockedsupplybackend.domain.dto;
+
+/**
+ * A Data Transfer Object (DTO) for representing the identity of the user behind a blockchain address.
+ *
+ * @param id    The ID of the user.
+ * @param email The email of the user.
+ */
+public record UserIdentity(
+        Long id,
+        String email
+) {
+}
@@ -0,0 +1,29 @@
+package chernandez.blockedsupplybackend.domain.dto.auth;
+
+/**
+ * A Data Transfer Object (DTO) for representing the outcome of provisioning one user.
+ *
+ * @param email   The email of the user.
+ * @param success Whether the user was created.
+ * @param message The reason the user was not created or got no tokens, or null on full success.
+ * @param tokens  The tokens issued to the user, or null if none could be issued.
+ */
+public record ProvisioningResult(
+        String email,
+        boolean success,
+        String message,
+        TokenResponse tokens
+) {
+
+    public static ProvisioningResult created(String email, TokenResponse tokens) {
+        return new ProvisioningResult(email, true, null, tokens);
+    }
+
+    public static ProvisioningResult createdWithoutTokens(String email, String message) {
+        return new ProvisioningResult(email, true, message, null);
+    }
+
+    public static ProvisioningResult failed(String email, String message) {
+        return new ProvisioningResult(email, false, message, null);
+    }
+}
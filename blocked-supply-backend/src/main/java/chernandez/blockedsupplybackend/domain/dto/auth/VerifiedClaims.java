@@ -0,0 +1,27 @@
+package chernandez.blockedsupplybackend.domain.dto.auth;
+
+import java.time.Instant;
+
+/**
+ * An immutable view of the claims of a JWT whose signature and expiry have been verified.
+ *
+ * @param subject    The subject of the token (the user's email).
+ * @param id         The token id (the {@code jti} claim).
+ * @param expiration The instant at which the token expires.
+ */
+public record VerifiedClaims(
+        String subject,
+        String id,
+        Instant expiration
+) {
+
+    /**
+     * Checks whether the token has expired at the given instant.
+     *
+     * @param now The instant to check against.
+     * @return True if the token is expired, false otherwise.
+     */
+    public boolean isExpiredAt(Instant now) {
+        return expiration == null || !expiration.isAfter(now);
+    }
+}
@@ -0,0 +1,13 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import java.util.List;
+
+/**
+ * A Data Transfer Object (DTO) for representing the accounts available on the blockchain node.
+ *
+ * @param accounts The account addresses.
+ */
+public record BrokerAccounts(
+        List<String> accounts
+) {
+}
@@ -0,0 +1,29 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+/**
+ * A Data Transfer Object (DTO) for representing a shipment as returned by the broker.
+ *
+ * @param id           The ID of the shipment.
+ * @param name         The product name.
+ * @param description  The product description.
+ * @param origin       The origin of the shipment.
+ * @param destination  The destination of the shipment.
+ * @param deliveryDate The delivery date, as yyyy-MM-dd.
+ * @param units        The number of units.
+ * @param weight       The weight of the shipment.
+ * @param currentState The index of the current {@link chernandez.blockedsupplybackend.domain.State}.
+ * @param currentOwner The blockchain address of the current owner.
+ */
+public record BrokerShipment(
+        long id,
+        String name,
+        String description,
+        String origin,
+        String destination,
+        String deliveryDate,
+        int units,
+        int weight,
+        int currentState,
+        String currentOwner
+) {
+}
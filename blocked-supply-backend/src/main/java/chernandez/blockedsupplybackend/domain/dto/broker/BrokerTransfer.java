@@ -0,0 +1,23 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+/**
+ * A Data Transfer Object (DTO) for representing a transfer as returned by the broker.
+ *
+ * @param id               The ID of the transfer.
+ * @param shipmentId       The ID of the shipment.
+ * @param timestamp        The block timestamp of the transfer, in seconds.
+ * @param newState         The index of the new {@link chernandez.blockedsupplybackend.domain.State}.
+ * @param location         The location of the transfer.
+ * @param newShipmentOwner The blockchain address of the new owner.
+ * @param transferNotes    The notes of the transfer.
+ */
+public record BrokerTransfer(
+        long id,
+        long shipmentId,
+        long timestamp,
+        int newState,
+        String location,
+        String newShipmentOwner,
+        String transferNotes
+) {
+}
@@ -0,0 +1,13 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * A Data Transfer Object (DTO) for representing the next shipment ID.
+ *
+ * @param nextShipmentId The ID the next created shipment will receive, written as a string.
+ */
+public record NextShipmentId(
+        @JsonFormat(shape = JsonFormat.Shape.STRING) long nextShipmentId
+) {
+}
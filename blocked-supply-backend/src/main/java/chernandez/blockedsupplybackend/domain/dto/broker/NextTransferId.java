@@ -0,0 +1,13 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * A Data Transfer Object (DTO) for representing the next transfer ID.
+ *
+ * @param nextTransferId The ID the next transfer will receive, written as a string.
+ */
+public record NextTransferId(
+        @JsonFormat(shape = JsonFormat.Shape.STRING) long nextTransferId
+) {
+}
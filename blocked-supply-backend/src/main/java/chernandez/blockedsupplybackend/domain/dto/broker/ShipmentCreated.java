@@ -0,0 +1,15 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+/**
+ * A Data Transfer Object (DTO) for representing the broker response to a shipment creation.
+ *
+ * @param id           The ID of the created shipment.
+ * @param currentOwner The blockchain address of the owner.
+ * @param deliveryDate The delivery date, as yyyy-MM-dd.
+ */
+public record ShipmentCreated(
+        long id,
+        String currentOwner,
+        String deliveryDate
+) {
+}
@@ -0,0 +1,17 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * A Data Transfer Object (DTO) for representing the broker request that creates a shipment
+ * together with its initial transfer.
+ *
+ * @param shipment      The shipment to create, including the sender address.
+ * @param transferNotes The notes of the initial transfer.
+ */
+public record ShipmentWithTransfer(
+        @JsonUnwrapped ShipmentInput shipment,
+        String transferNotes
+) {
+}
@@ -0,0 +1,18 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+
+import java.util.List;
+
+/**
+ * A Data Transfer Object (DTO) for representing the broker request that sends several transfers
+ * from the same owner in one transaction.
+ *
+ * @param from      The blockchain address of the sender of every transfer.
+ * @param transfers The transfers, in the order they are applied.
+ */
+public record TransferBatch(
+        String from,
+        List<TransferInput> transfers
+) {
+}
@@ -0,0 +1,25 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+/**
+ * A Data Transfer Object (DTO) for representing the outcome of one transfer of a batch sent
+ * through the broker.
+ *
+ * @param shipmentId The ID of the shipment.
+ * @param newOwner   The blockchain address of the new owner, or null if the transfer failed.
+ * @param newState   The index of the new state, or null if the transfer failed.
+ * @param error      The reason the transfer failed, or null if it was applied.
+ */
+public record TransferBatchItem(
+        long shipmentId,
+        String newOwner,
+        Integer newState,
+        String error
+) {
+
+    /**
+     * Converts an applied transfer into the response of a single transfer.
+     */
+    public TransferResult toResult() {
+        return new TransferResult(shipmentId, newOwner, newState);
+    }
+}
@@ -0,0 +1,21 @@
+package chernandez.blockedsupplybackend.domain.dto.broker;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * A Data Transfer Object (DTO) for representing the broker response to a transfer.
+ * <p>
+ * Numbers are written back as strings, as the broker sends them, since this payload is
+ * returned to API clients unchanged.
+ * </p>
+ *
+ * @param shipmentId The ID of the shipment.
+ * @param newOwner   The blockchain address of the new owner.
+ * @param newState   The index of the new {@link chernandez.blockedsupplybackend.domain.State}.
+ */
+public record TransferResult(
+        @JsonFormat(shape = JsonFormat.Shape.STRING) long shipmentId,
+        String newOwner,
+        @JsonFormat(shape = JsonFormat.Shape.STRING) int newState
+) {
+}
@@ -0,0 +1,41 @@
+package chernandez.blockedsupplybackend.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a request is rejected because a bounded resource is saturated.
+ * <p>
+ * The exception carries the HTTP status to answer with and the number of seconds
+ * after which the client may retry, which is sent in the {@code Retry-After} header.
+ * </p>
+ */
+@Getter
+public class CapacityExceededException extends RuntimeException {
+
+    private final HttpStatus status;
+    private final long retryAfterSeconds;
+
+    /**
+     * Constructs a new CapacityExceededException answered with 503 Service Unavailable.
+     *
+     * @param message           The detail message.
+     * @param retryAfterSeconds The number of seconds after which the client may retry.
+     */
+    public CapacityExceededException(String message, long retryAfterSeconds) {
+        this(message, HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+    }
+
+    /**
+     * Constructs a new CapacityExceededException.
+     *
+     * @param message           The detail message.
+     * @param status            The HTTP status to answer with.
+     * @param retryAfterSeconds The number of seconds after which the client may retry.
+     */
+    public CapacityExceededException(String message, HttpStatus status, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
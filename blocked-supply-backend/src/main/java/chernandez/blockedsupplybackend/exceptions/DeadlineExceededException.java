@@ -0,0 +1,14 @@
+package chernandez.blockedsupplybackend.exceptions;
+
+/**
+ * Thrown when the deadline of the current request has passed before the work could complete.
+ * <p>
+ * It is answered with 504, as the client has already given up waiting for the result.
+ * </p>
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,86 @@
+package chernandez.blockedsupplybackend.repositories;
+
+import chernandez.blockedsupplybackend.domain.BlockchainAccount;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository interface for {@link BlockchainAccount} entities.
+ * <p>
+ * This interface provides methods for querying and claiming pooled blockchain accounts.
+ * </p>
+ */
+public interface BlockchainAccountRepository extends JpaRepository<BlockchainAccount, Long> {
+
+    /**
+     * Finds the IDs of accounts that have not been claimed yet.
+     *
+     * @param pageable The maximum number of IDs to return.
+     * @return A list of account IDs, in ascending order.
+     */
+    @Query("select a.id from BlockchainAccount a where a.claimedBy is null order by a.id")
+    List<Long> findFreeIds(Pageable pageable);
+
+    /**
+     * Claims an account for a user if it is still free.
+     *
+     * @param id        The ID of the account.
+     * @param claimedBy The email of the user claiming the account.
+     * @param now       The time of the claim.
+     * @return 1 if the account was claimed, 0 if another user claimed it first.
+     */
+    @Modifying
+    @Transactional
+    @Query("update BlockchainAccount a set a.claimedBy = :claimedBy, a.claimedAt = :now " +
+            "where a.id = :id and a.claimedBy is null")
+    int claim(@Param("id") Long id, @Param("claimedBy") String claimedBy, @Param("now") LocalDateTime now);
+
+    /**
+     * Finds free accounts and locks them until the end of the current transaction, so that
+     * concurrent batch claims wait for each other instead of taking the same accounts.
+     *
+     * @param pageable The maximum number of accounts to return.
+     * @return A list of free accounts, in ascending ID order.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from BlockchainAccount a where a.claimedBy is null order by a.id")
+    List<BlockchainAccount> findFreeForUpdate(Pageable pageable);
+
+    /**
+     * Finds the accounts claimed by a user or reservation marker.
+     *
+     * @param claimedBy The claimant.
+     * @return A list of accounts.
+     */
+    List<BlockchainAccount> findAllByClaimedBy(String claimedBy);
+
+    /**
+     * Releases an account previously claimed by a user.
+     *
+     * @param address   The blockchain address of the account.
+     * @param claimedBy The email of the user that claimed the account.
+     * @return The number of released accounts.
+     */
+    @Modifying
+    @Transactional
+    @Query("update BlockchainAccount a set a.claimedBy = null, a.claimedAt = null " +
+            "where a.address = :address and a.claimedBy = :claimedBy")
+    int release(@Param("address") String address, @Param("claimedBy") String claimedBy);
+
+    /**
+     * Finds all pooled addresses.
+     *
+     * @return A list of all blockchain addresses in the pool.
+     */
+    @Query("select a.address from BlockchainAccount a")
+    List<String> findAllAddresses();
+}
@@ -0,0 +1,134 @@
+package chernandez.blockedsupplybackend.repositories;
+
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for {@link ChainJob} entities.
+ * <p>
+ * This interface provides methods for querying and claiming asynchronous chain writes.
+ * </p>
+ */
+public interface ChainJobRepository extends JpaRepository<ChainJob, Long> {
+
+    /**
+     * Finds a job submitted by a specific user.
+     *
+     * @param id     The ID of the job.
+     * @param userId The ID of the user.
+     * @return An optional containing the job if found.
+     */
+    Optional<ChainJob> findByIdAndUserId(Long id, Long userId);
+
+    /**
+     * Finds the IDs of jobs in a given status whose next attempt is due.
+     *
+     * @param status   The status to match.
+     * @param now      The current time.
+     * @param pageable The maximum number of IDs to return.
+     * @return A list of job IDs, oldest first.
+     */
+    @Query("select j.id from ChainJob j where j.status = :status " +
+            "and (j.nextAttemptAt is null or j.nextAttemptAt <= :now) order by j.id")
+    List<Long> findDueIds(@Param("status") JobStatus status, @Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Moves a job from one status to another if it is still in the expected status.
+     * <p>
+     * Used by workers to claim a pending job, so that it is run only once even when
+     * several instances sweep the same table. The claim token identifies the attempt in
+     * later heartbeats.
+     * </p>
+     *
+     * @param id    The ID of the job.
+     * @param from  The expected current status.
+     * @param to    The new status.
+     * @param now   The time of the change, recorded as the start time and first heartbeat.
+     * @param token The claim token of the attempt.
+     * @return 1 if the job was claimed, 0 if another worker claimed it first.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ChainJob j set j.status = :to, j.startedAt = :now, j.heartbeatAt = :now, j.claimToken = :token " +
+            "where j.id = :id and j.status = :from")
+    int claim(@Param("id") Long id, @Param("from") JobStatus from, @Param("to") JobStatus to,
+              @Param("now") LocalDateTime now, @Param("token") String token);
+
+    /**
+     * Records that the workers holding the given claim tokens are still running their jobs.
+     *
+     * @param running The running status.
+     * @param tokens  The claim tokens of the attempts in progress.
+     * @param now     The time of the heartbeat.
+     * @return The number of jobs updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ChainJob j set j.heartbeatAt = :now where j.status = :running and j.claimToken in :tokens")
+    int heartbeat(@Param("running") JobStatus running, @Param("tokens") Collection<String> tokens,
+                  @Param("now") LocalDateTime now);
+
+    /**
+     * Finds the running jobs whose worker has not sent a heartbeat since the cutoff.
+     *
+     * @param running The running status.
+     * @param cutoff  The time before which a running job is considered abandoned.
+     * @return A list of abandoned jobs.
+     */
+    @Query("select j from ChainJob j where j.status = :running " +
+            "and coalesce(j.heartbeatAt, j.startedAt) < :cutoff order by j.id")
+    List<ChainJob> findStale(@Param("running") JobStatus running, @Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * Puts an abandoned job back to pending with the given chain result, so that it is recorded
+     * without being sent again, unless its worker sent a heartbeat in the meantime.
+     *
+     * @param id          The ID of the job.
+     * @param running     The running status.
+     * @param pending     The pending status.
+     * @param heartbeatAt The last heartbeat seen when the job was found abandoned.
+     * @param chainResult The chain result to record.
+     * @return 1 if the job was released, 0 if it is no longer abandoned.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ChainJob j set j.status = :pending, j.chainResult = :chainResult, j.claimToken = null " +
+            "where j.id = :id and j.status = :running and coalesce(j.heartbeatAt, j.startedAt) = :heartbeatAt")
+    int releaseStale(@Param("id") Long id, @Param("running") JobStatus running, @Param("pending") JobStatus pending,
+                     @Param("heartbeatAt") LocalDateTime heartbeatAt, @Param("chainResult") String chainResult);
+
+    /**
+     * Fails an abandoned job whose chain outcome is unknown, unless its worker sent a heartbeat
+     * in the meantime.
+     *
+     * @param id           The ID of the job.
+     * @param running      The running status.
+     * @param failed       The failed status.
+     * @param heartbeatAt  The last heartbeat seen when the job was found abandoned.
+     * @param error        The reason of the failure.
+     * @param resultStatus The HTTP status of the result.
+     * @param result       The body of the result, as JSON.
+     * @param now          The completion time.
+     * @return 1 if the job was failed, 0 if it is no longer abandoned.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ChainJob j set j.status = :failed, j.claimToken = null, j.error = :error, " +
+            "j.resultStatus = :resultStatus, j.result = :result, j.nextAttemptAt = null, j.completedAt = :now " +
+            "where j.id = :id and j.status = :running and coalesce(j.heartbeatAt, j.startedAt) = :heartbeatAt")
+    int failStale(@Param("id") Long id, @Param("running") JobStatus running, @Param("failed") JobStatus failed,
+                  @Param("heartbeatAt") LocalDateTime heartbeatAt, @Param("error") String error,
+                  @Param("resultStatus") Integer resultStatus, @Param("result") String result,
+                  @Param("now") LocalDateTime now);
+}
@@ -1,8 +1,14 @@
 package chernandez.blockedsupplybackend.repositories;
 
 import chernandez.blockedsupplybackend.domain.Token;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,18 +20,50 @@ import java.util.Optional;
  */
 public interface TokenRepository extends JpaRepository<Token, Long> {
     /**
-     * Finds a token by its token string.
+     * Finds a token by the SHA-256 digest of its token string.
      *
-     * @param token The token string.
+     * @param tokenDigest The 32-byte digest of the token string.
      * @return An optional containing the token if found.
      */
-    Optional<Token> findByToken(String token);
+    Optional<Token> findByTokenDigest(byte[] tokenDigest);
 
     /**
-     * Finds all valid tokens for a specific user.
+     * Revokes all valid tokens of a specific user in a single update.
      *
-     * @param id The ID of the user.
-     * @return A list of valid tokens.
+     * @param userId The ID of the user.
+     * @param now    The modification time to record on the revoked tokens.
+     * @return The number of revoked tokens.
      */
-    List<Token> findAllValidIsFalseOrRevokedIsFalseByUserId(Long id);
+    @Modifying
+    @Transactional
+    @Query("update tokens t set t.expired = true, t.revoked = true, t.modifiedAt = :now " +
+            "where t.user.id = :userId and (t.expired = false or t.revoked = false)")
+    int revokeAllByUserId(@Param("userId") Long userId, @Param("now") LocalDateTime now);
+
+    /**
+     * Finds the IDs of expired or revoked tokens created before the given time.
+     *
+     * @param cutoff   The creation time before which tokens can be purged.
+     * @param pageable The maximum number of IDs to return.
+     * @return A list of token IDs, in ascending order.
+     */
+    @Query("select t.id from tokens t where (t.expired = true or t.revoked = true) " +
+            "and (t.createdAt is null or t.createdAt < :cutoff) order by t.id")
+    List<Long> findPurgeableIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    /**
+     * Finds all tokens that are neither revoked nor expired and expire after the given time.
+     *
+     * @param now The current time.
+     * @return A list of live tokens.
+     */
+    List<Token> findAllByRevokedFalseAndExpiredFalseAndExpiresAtAfter(LocalDateTime now);
+
+    /**
+     * Finds all tokens modified after the given time.
+     *
+     * @param since The lower bound (exclusive) of the modification time.
+     * @return A list of tokens modified since the given time.
+     */
+    List<Token> findAllByModifiedAtAfter(LocalDateTime since);
 }
@@ -2,8 +2,15 @@ package chernandez.blockedsupplybackend.repositories;
 
 import chernandez.blockedsupplybackend.domain.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Repository interface for {@link User} entities.
@@ -27,4 +34,59 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return An optional containing the user if found.
      */
     Optional<User> findByBlockchainAddress(String blockchainAddress);
+
+    /**
+     * Finds all users whose blockchain address is one of the given addresses.
+     *
+     * @param blockchainAddresses The blockchain addresses, as stored on the users.
+     * @return A list of matching users.
+     */
+    List<User> findAllByBlockchainAddressIn(Collection<String> blockchainAddresses);
+
+    /**
+     * Finds the ID, email and blockchain address of all users that have an address.
+     *
+     * @return A list of address projections.
+     */
+    List<AddressView> findAllByBlockchainAddressIsNotNull();
+
+    /**
+     * Finds the ID, email and blockchain address of the users with one of the given addresses.
+     *
+     * @param blockchainAddresses The blockchain addresses, as stored on the users.
+     * @return A list of address projections.
+     */
+    List<AddressView> findAddressViewsByBlockchainAddressIn(Collection<String> blockchainAddresses);
+
+    /**
+     * Finds which of the given emails are already registered.
+     *
+     * @param emails The email addresses to check.
+     * @return The subset of the emails that belong to existing users.
+     */
+    @Query("select u.email from User u where u.email in :emails")
+    Set<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+    /**
+     * Replaces the password hash of a user.
+     *
+     * @param email    The email address of the user.
+     * @param password The new password hash.
+     * @return The number of updated users.
+     */
+    @Modifying
+    @Transactional
+    @Query("update User u set u.password = :password where u.email = :email")
+    int updatePassword(@Param("email") String email, @Param("password") String password);
+
+    /**
+     * Projection of a user onto its identity and encrypted blockchain address.
+     */
+    interface AddressView {
+        Long getId();
+
+        String getEmail();
+
+        String getBlockchainAddress();
+    }
 }
@@ -0,0 +1,152 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.UserIdentity;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory, bidirectional index between plain blockchain addresses and users.
+ * <p>
+ * This class turns on-chain owner addresses into users without encrypting the address and
+ * querying the users table each time, and gives the plain address of a user without decrypting
+ * it. The index is loaded at startup and updated when users are registered on this instance.
+ * Addresses unknown to the index, such as those of users registered by another instance, are
+ * resolved with a single query per batch and remembered.
+ * </p>
+ */
+@Service
+public class AddressDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(AddressDirectory.class);
+
+    private final UserRepository userRepository;
+    private final EncryptionService encryptionService;
+
+    private final Map<String, UserIdentity> identityByAddress = new ConcurrentHashMap<>();
+    private final Map<Long, String> addressByUserId = new ConcurrentHashMap<>();
+
+    public AddressDirectory(UserRepository userRepository, EncryptionService encryptionService) {
+        this.userRepository = userRepository;
+        this.encryptionService = encryptionService;
+    }
+
+    /**
+     * Loads the address of every user once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        try {
+            List<UserRepository.AddressView> views = userRepository.findAllByBlockchainAddressIsNotNull();
+            List<String> addresses = encryptionService.decryptAll(views.stream().map(UserRepository.AddressView::getBlockchainAddress).toList());
+            for (int i = 0; i < views.size(); i++) {
+                put(addresses.get(i), views.get(i).getId(), views.get(i).getEmail());
+            }
+        } catch (Exception e) {
+            log.error("Address directory load failed", e);
+        }
+    }
+
+    /**
+     * Records the address assigned to a newly registered user.
+     *
+     * @param user    The saved user.
+     * @param address The blockchain address of the user, in plain text.
+     */
+    public void register(User user, String address) {
+        put(address, user.getId(), user.getEmail());
+    }
+
+    /**
+     * Returns the plain blockchain address of a user.
+     *
+     * @param user The user, with its encrypted blockchain address.
+     * @return The blockchain address in plain text, or null if the user has none.
+     * @throws Exception if the stored address cannot be decrypted.
+     */
+    public String addressOf(User user) throws Exception {
+        if (user.getBlockchainAddress() == null) {
+            return null;
+        }
+        String address = user.getId() != null ? addressByUserId.get(user.getId()) : null;
+        if (address == null) {
+            address = encryptionService.decrypt(user.getBlockchainAddress());
+            if (user.getId() != null) {
+                put(address, user.getId(), user.getEmail());
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Resolves the user behind a blockchain address.
+     *
+     * @param address The blockchain address, in plain text.
+     * @return An optional containing the user identity if the address belongs to a user.
+     * @throws Exception if the address cannot be encrypted for the database lookup.
+     */
+    public Optional<UserIdentity> resolve(String address) throws Exception {
+        return Optional.ofNullable(resolveAll(List.of(address)).get(address));
+    }
+
+    /**
+     * Resolves the users behind several blockchain addresses.
+     *
+     * @param addresses The blockchain addresses, in plain text.
+     * @return The identities of the addresses that belong to users, keyed by the given address.
+     * @throws Exception if the unknown addresses cannot be encrypted for the database lookup.
+     */
+    public Map<String, UserIdentity> resolveAll(Collection<String> addresses) throws Exception {
+        Map<String, UserIdentity> resolved = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String address : addresses) {
+            UserIdentity identity = identityByAddress.get(normalize(address));
+            if (identity != null) {
+                resolved.put(address, identity);
+            } else {
+                missing.add(address);
+            }
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        List<String> missingAddresses = new ArrayList<>(missing);
+        List<String> encrypted = encryptionService.encryptAll(missingAddresses);
+        Map<String, String> addressByEncrypted = new HashMap<>();
+        for (int i = 0; i < missingAddresses.size(); i++) {
+            addressByEncrypted.put(encrypted.get(i), missingAddresses.get(i));
+        }
+        for (UserRepository.AddressView view : userRepository.findAddressViewsByBlockchainAddressIn(addressByEncrypted.keySet())) {
+            String address = addressByEncrypted.get(view.getBlockchainAddress());
+            resolved.put(address, put(address, view.getId(), view.getEmail()));
+        }
+        return resolved;
+    }
+
+    private UserIdentity put(String address, Long userId, String email) {
+        UserIdentity identity = new UserIdentity(userId, email);
+        identityByAddress.put(normalize(address), identity);
+        addressByUserId.put(userId, address);
+        return identity;
+    }
+
+    private static String normalize(String address) {
+        return address.toLowerCase(Locale.ROOT);
+    }
+}
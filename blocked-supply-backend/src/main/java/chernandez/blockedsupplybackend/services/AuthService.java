@@ -1,18 +1,18 @@
 package chernandez.blockedsupplybackend.services;
 
+import chernandez.blockedsupplybackend.domain.AuthenticatedUser;
 import chernandez.blockedsupplybackend.domain.Token;
 import chernandez.blockedsupplybackend.domain.User;
 import chernandez.blockedsupplybackend.domain.dto.auth.LoginRequest;
 import chernandez.blockedsupplybackend.domain.dto.auth.RegisterRequest;
 import chernandez.blockedsupplybackend.domain.dto.auth.TokenResponse;
 import chernandez.blockedsupplybackend.domain.dto.auth.UserDetails;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
 import chernandez.blockedsupplybackend.repositories.TokenRepository;
 import chernandez.blockedsupplybackend.repositories.UserRepository;
-import chernandez.blockedsupplybackend.utils.EncryptionUtil;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -22,10 +22,12 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Service class for handling authentication-related business logic.
@@ -44,12 +46,10 @@ public class AuthService {
     private final PasswordEncoder passwordEncoder;
     private final JwtService jwtService;
     private final AuthenticationManager authenticationManager;
-    private final RestTemplate restTemplate = new RestTemplate();
-
-    @Value("${application.broker.address}")
-    private String brokerBaseUrl;
-    @Value("${application.security.encryption.secret-key}")
-    private String encryptionKey;
+    private final TokenRevocationIndex tokenRevocationIndex;
+    private final BlockchainAccountService blockchainAccountService;
+    private final EncryptionService encryptionService;
+    private final AddressDirectory addressDirectory;
 
     /**
      * Registers a new user.
@@ -64,16 +64,24 @@ public class AuthService {
             return validationResult;
         }
 
-        String encryptedAddress = getAvailableBlockchainAddressEncrypted();
+        String encodedPassword = passwordEncoder.encode(request.password());
+        String address = blockchainAccountService.claimAddress(request.email());
 
         var user = User.builder()
                 .name(request.name())
                 .email(request.email())
-                .password(passwordEncoder.encode(request.password()))
-                .blockchainAddress(encryptedAddress)
+                .password(encodedPassword)
+                .blockchainAddress(encryptionService.encrypt(address))
                 .build();
 
-        var savedUser = userRepository.save(user);
+        final User savedUser;
+        try {
+            savedUser = userRepository.save(user);
+        } catch (RuntimeException e) {
+            blockchainAccountService.releaseAddress(address, request.email());
+            throw e;
+        }
+        addressDirectory.register(savedUser, address);
         var jwtToken = jwtService.generateToken(user);
         var refreshToken = jwtService.generateRefreshToken(user);
         saveUserToken(savedUser, jwtToken);
@@ -128,36 +136,77 @@ public class AuthService {
 
     /**
      * Retrieves the authenticated user from the JWT in the security context.
+     * <p>
+     * The user loaded by the JWT filter is reused when present; the database is only
+     * queried for authentications that do not carry an {@link AuthenticatedUser}.
+     * </p>
      *
      * @return The authenticated {@link User}.
      */
     public User getUserFromJWT() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser principal) {
+            return principal.getUser();
+        }
         String email = authentication.getName();
 
         return userRepository.findByEmail(email).orElseThrow(() -> new RuntimeException("User not found"));
     }
 
+    /**
+     * Issues the first access and refresh tokens of newly created users.
+     * <p>
+     * The access tokens are stored with a single batched insert.
+     * </p>
+     *
+     * @param users The saved users.
+     * @return The issued tokens, in the same order as the users.
+     */
+    public List<TokenResponse> issueInitialTokens(List<User> users) {
+        List<TokenResponse> responses = new ArrayList<>(users.size());
+        List<Token> tokens = new ArrayList<>(users.size());
+        List<Instant> expirations = new ArrayList<>(users.size());
+        for (User user : users) {
+            var jwtToken = jwtService.generateToken(user);
+            var refreshToken = jwtService.generateRefreshToken(user);
+            Instant expiresAt = expirationOf(jwtToken);
+            tokens.add(buildToken(user, jwtToken, expiresAt));
+            expirations.add(expiresAt);
+            responses.add(new TokenResponse(jwtToken, refreshToken));
+        }
+        tokenRepository.saveAll(tokens);
+        for (int i = 0; i < users.size(); i++) {
+            tokenRevocationIndex.register(users.get(i).getId(), responses.get(i).accessToken(), expirations.get(i));
+        }
+        return responses;
+    }
+
     private void saveUserToken(User user, String jwtToken) {
-        var token = Token.builder()
+        Instant expiresAt = expirationOf(jwtToken);
+        tokenRepository.save(buildToken(user, jwtToken, expiresAt));
+        tokenRevocationIndex.register(user.getId(), jwtToken, expiresAt);
+    }
+
+    private Instant expirationOf(String jwtToken) {
+        return jwtService.verify(jwtToken)
+                .map(VerifiedClaims::expiration)
+                .orElseThrow(() -> new IllegalStateException("Issued token could not be verified"));
+    }
+
+    private static Token buildToken(User user, String jwtToken, Instant expiresAt) {
+        return Token.builder()
                 .user(user)
-                .token(jwtToken)
+                .tokenDigest(DigestUtil.sha256(jwtToken))
                 .tokenType(Token.TokenType.BEARER)
                 .expired(false)
                 .revoked(false)
+                .expiresAt(LocalDateTime.ofInstant(expiresAt, ZoneId.systemDefault()))
                 .build();
-        tokenRepository.save(token);
     }
 
     private void revokeAllUserTokens(User user) {
-        final List<Token> validUserTokens = tokenRepository.findAllValidIsFalseOrRevokedIsFalseByUserId(user.getId());
-        if (!validUserTokens.isEmpty()) {
-            for (final Token token : validUserTokens) {
-                token.setExpired(true);
-                token.setRevoked(true);
-            }
-            tokenRepository.saveAll(validUserTokens);
-        }
+        tokenRepository.revokeAllByUserId(user.getId(), LocalDateTime.now());
+        tokenRevocationIndex.revokeAll(user.getId());
     }
 
     /**
@@ -171,57 +220,40 @@ public class AuthService {
         if (user == null) {
             return new ResponseEntity<>("User not found", HttpStatus.NOT_FOUND);
         }
-        UserDetails details = new UserDetails(user.getName(), user.getEmail(), EncryptionUtil.decrypt(encryptionKey, user.getBlockchainAddress()));
+        UserDetails details = new UserDetails(user.getName(), user.getEmail(), addressDirectory.addressOf(user));
         return new ResponseEntity<>(details, HttpStatus.OK);
     }
 
     private ResponseEntity<?> checkRegisterInput(RegisterRequest request) {
-        if (request.email() == null || request.password() == null || request.name() == null) {
-            return ResponseEntity.badRequest().body("Email, password and name cannot be null");
+        String error = validateRegisterFields(request);
+        if (error == null && userRepository.findByEmail(request.email()).isPresent()) {
+            error = "Email already in use";
         }
-        if (userRepository.findByEmail(request.email()).isPresent()) {
-            return ResponseEntity.badRequest().body("Email already in use");
+        return error != null ? ResponseEntity.badRequest().body(error) : null;
+    }
+
+    /**
+     * Validates the fields of a registration request without querying the database.
+     *
+     * @param request The registration request.
+     * @return The validation error, or null if the request is valid.
+     */
+    public String validateRegisterFields(RegisterRequest request) {
+        if (request.email() == null || request.password() == null || request.name() == null) {
+            return "Email, password and name cannot be null";
         }
         if (request.password().length() < 8) {
-            return ResponseEntity.badRequest().body("Password has to be at least 8 characters long");
+            return "Password has to be at least 8 characters long";
         }
         if (!request.password().matches(".*[a-zA-Z].*") || !request.password().matches(".*[0-9].*")) {
-            return ResponseEntity.badRequest().body("Password has to contain at least one letter and one number");
+            return "Password has to contain at least one letter and one number";
         }
         if (request.name().length() < 3) {
-            return ResponseEntity.badRequest().body("Name has to be at least 3 characters long");
+            return "Name has to be at least 3 characters long";
         }
         if (request.email().length() < 5 || !request.email().contains("@")) {
-            return ResponseEntity.badRequest().body("Email has to be at least 5 characters long and contain @");
+            return "Email has to be at least 5 characters long and contain @";
         }
         return null;
     }
-
-    private String getAvailableBlockchainAddressEncrypted() throws Exception {
-        ResponseEntity<Map<String, List<String>>> response = restTemplate.exchange(
-                brokerBaseUrl + "/api/accounts",
-                HttpMethod.GET,
-                null,
-                new ParameterizedTypeReference<>() {
-                }
-        );
-
-        List<String> accounts = response.getBody().get("accounts");
-
-        List<String> usedAddresses = userRepository.findAll()
-                .stream()
-                .map(user -> {
-                    try {
-                        return EncryptionUtil.decrypt(encryptionKey, user.getBlockchainAddress());
-                    } catch (Exception e) {
-                        throw new RuntimeException("Failed to decrypt blockchain address", e);
-                    }
-                })
-                .toList();
-
-        return EncryptionUtil.encrypt(encryptionKey, accounts.stream()
-                .filter(addr -> !usedAddresses.contains(addr))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No available blockchain addresses.")));
-    }
 }
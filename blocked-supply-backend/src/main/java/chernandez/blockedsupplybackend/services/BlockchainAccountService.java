@@ -0,0 +1,213 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.domain.BlockchainAccount;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.repositories.BlockchainAccountRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Service for assigning blockchain accounts to users.
+ * <p>
+ * This class keeps the "blockchain_accounts" pool in sync with the accounts exposed by the
+ * broker and hands out free addresses with a single conditional update, so concurrent
+ * registrations can never receive the same address. The pool is synced at startup and
+ * again on demand when it runs out of free addresses.
+ * </p>
+ */
+@Service
+public class BlockchainAccountService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockchainAccountService.class);
+    private static final int CLAIM_CANDIDATES = 16;
+
+    private final BlockchainAccountRepository blockchainAccountRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final EncryptionService encryptionService;
+    private final BrokerClient brokerClient;
+
+    public BlockchainAccountService(BlockchainAccountRepository blockchainAccountRepository, UserRepository userRepository,
+                                    TransactionTemplate transactionTemplate, EncryptionService encryptionService,
+                                    BrokerClient brokerClient) {
+        this.blockchainAccountRepository = blockchainAccountRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.encryptionService = encryptionService;
+        this.brokerClient = brokerClient;
+    }
+
+    /**
+     * Syncs the pool with the broker once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void syncOnStartup() {
+        try {
+            sync();
+        } catch (Exception e) {
+            log.error("Blockchain account sync failed", e);
+        }
+    }
+
+    /**
+     * Adds the broker accounts missing from the pool.
+     * <p>
+     * New addresses already assigned to a user are recorded as claimed by that user. They are
+     * matched by encrypting the new addresses, so existing users never need to be decrypted.
+     * </p>
+     *
+     * @return The number of accounts added to the pool.
+     * @throws Exception if the broker cannot be reached or an address cannot be encrypted.
+     */
+    public int sync() throws Exception {
+        List<String> accounts = brokerClient.getAccounts();
+        if (accounts.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> pooled = new HashSet<>(blockchainAccountRepository.findAllAddresses());
+        List<String> missing = accounts.stream().filter(address -> !pooled.contains(address)).distinct().toList();
+        List<String> encrypted = encryptionService.encryptAll(missing);
+        Map<String, String> missingByEncrypted = new HashMap<>();
+        for (int i = 0; i < missing.size(); i++) {
+            missingByEncrypted.put(encrypted.get(i), missing.get(i));
+        }
+        if (missingByEncrypted.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, String> ownerByAddress = new HashMap<>();
+        for (User user : userRepository.findAllByBlockchainAddressIn(missingByEncrypted.keySet())) {
+            ownerByAddress.put(missingByEncrypted.get(user.getBlockchainAddress()), user.getEmail());
+        }
+
+        int added = 0;
+        for (String address : missingByEncrypted.values()) {
+            BlockchainAccount account = new BlockchainAccount(address);
+            String owner = ownerByAddress.get(address);
+            if (owner != null) {
+                account.setClaimedBy(owner);
+                account.setClaimedAt(LocalDateTime.now());
+            }
+            try {
+                blockchainAccountRepository.save(account);
+                added++;
+            } catch (DataIntegrityViolationException e) {
+                // Another instance added the same address concurrently.
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Claims a free blockchain address for a user.
+     * <p>
+     * If the pool has no free address, it is synced with the broker once before giving up.
+     * </p>
+     *
+     * @param email The email of the user claiming the address.
+     * @return The claimed blockchain address, in plain text.
+     * @throws Exception if no address is available or the broker cannot be reached.
+     */
+    public String claimAddress(String email) throws Exception {
+        String address = tryClaim(email);
+        if (address == null) {
+            sync();
+            address = tryClaim(email);
+        }
+        if (address == null) {
+            throw new RuntimeException("No available blockchain addresses.");
+        }
+        return address;
+    }
+
+    /**
+     * Claims free blockchain addresses for several users at once.
+     * <p>
+     * The free accounts are locked with a single query and assigned in the same transaction.
+     * If the pool runs short, it is synced with the broker once and the remaining users are
+     * served from the new accounts. Users left without an address are absent from the result.
+     * </p>
+     *
+     * @param emails The emails of the users claiming addresses.
+     * @return The claimed addresses, in plain text, keyed by email.
+     */
+    public Map<String, String> claimAddresses(List<String> emails) {
+        Map<String, String> claimed = reserve(emails);
+        if (claimed.size() < emails.size()) {
+            try {
+                sync();
+            } catch (Exception e) {
+                log.error("Blockchain account sync failed", e);
+                return claimed;
+            }
+            claimed.putAll(reserve(emails.stream().filter(email -> !claimed.containsKey(email)).toList()));
+        }
+        return claimed;
+    }
+
+    /**
+     * Returns an address claimed by a user to the pool, for example when registration fails.
+     *
+     * @param address The blockchain address, in plain text.
+     * @param email   The email of the user that claimed the address.
+     */
+    public void releaseAddress(String address, String email) {
+        blockchainAccountRepository.release(address, email);
+    }
+
+    private Map<String, String> reserve(List<String> emails) {
+        Map<String, String> claimed = new LinkedHashMap<>();
+        if (emails.isEmpty()) {
+            return claimed;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<BlockchainAccount> accounts = blockchainAccountRepository.findFreeForUpdate(PageRequest.ofSize(emails.size()));
+            for (int i = 0; i < accounts.size(); i++) {
+                BlockchainAccount account = accounts.get(i);
+                account.setClaimedBy(emails.get(i));
+                account.setClaimedAt(now);
+                claimed.put(emails.get(i), account.getAddress());
+            }
+            blockchainAccountRepository.saveAll(accounts);
+        });
+        return claimed;
+    }
+
+    private String tryClaim(String email) {
+        while (true) {
+            List<Long> candidates = new ArrayList<>(blockchainAccountRepository.findFreeIds(PageRequest.ofSize(CLAIM_CANDIDATES)));
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            // Spread concurrent registrations over several candidates to avoid contending on one row.
+            Collections.shuffle(candidates);
+            for (Long id : candidates) {
+                if (blockchainAccountRepository.claim(id, email, LocalDateTime.now()) == 1) {
+                    return blockchainAccountRepository.findById(id)
+                            .map(BlockchainAccount::getAddress)
+                            .orElseThrow();
+                }
+            }
+        }
+    }
+}
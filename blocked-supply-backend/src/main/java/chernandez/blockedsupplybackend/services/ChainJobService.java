@@ -0,0 +1,968 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.clients.TransferBatcher;
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.JobType;
+import chernandez.blockedsupplybackend.domain.Notification;
+import chernandez.blockedsupplybackend.domain.ShipmentRecord;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.BatchShipmentResult;
+import chernandez.blockedsupplybackend.domain.dto.BatchTransferInput;
+import chernandez.blockedsupplybackend.domain.dto.BatchTransferResult;
+import chernandez.blockedsupplybackend.domain.dto.ChainJobOutput;
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * Service for sending shipment creations and transfers to the blockchain through an outbox.
+ * <p>
+ * Every chain write is validated on the request thread and stored as a pending
+ * {@link ChainJob} before anything is sent. A pool of workers drains the outbox: a worker
+ * claims a job, sends its transaction, stores the broker's answer on the job, and then records
+ * the write locally in one database transaction that also completes the job. If recording
+ * fails, the job is retried from the stored answer without sending the transaction again.
+ * Failures that happened before the transaction could reach the broker (no connection, no
+ * capacity) are retried with exponential backoff; a broker error or a call that may have
+ * reached the chain fails the job. A new shipment is sent together with the transfer that opens
+ * its history, as a single chain transaction.
+ * </p>
+ * <p>
+ * A batch of shipments is one job: its shipments are sent on a shared pipeline pool that
+ * bounds the broker calls in flight, the outcome of each one is stored on the job, only the
+ * shipments that never reached the broker are sent again on a retry, and the created
+ * shipments are recorded together. A batch of transfers to the same new owner works the same
+ * way: the new owner is looked up once per attempt, the transferred shipments are updated in
+ * one transaction and the new owner gets a single notification for all of them.
+ * </p>
+ * <p>
+ * Transfers, single or batched, are handed to the {@link TransferBatcher} without holding a
+ * worker or pipeline thread while their window is open, so that the
+ * transfers of a sender share chain transactions up to the size of a window. A single transfer
+ * is recorded on a worker once its transaction returns.
+ * </p>
+ * <p>
+ * Synchronous requests wait for their job until the request deadline and then get the job
+ * with 202; requests sent with {@code Prefer: respond-async} get it right away and are
+ * notified when it completes. Jobs that could not be queued, are due for a retry, or survived
+ * a restart are picked up by a periodic sweep.
+ * </p>
+ * <p>
+ * The sweep also sends a heartbeat for the jobs running on this instance. A running job
+ * without a heartbeat for {@code application.jobs.stale-after} lost its worker: a job whose
+ * transaction is on chain goes back to pending to be recorded, the items of a batch whose
+ * outcome is unknown are failed so that they are never sent twice, and any other job is failed,
+ * since its transaction may or may not have reached the chain.
+ * </p>
+ */
+@Service
+public class ChainJobService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ChainJobService.class);
+
+    private static final String PREFERENCE = "respond-async";
+    private static final TypeReference<List<ShipmentInput>> SHIPMENT_INPUTS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<SentItem<ShipmentCreated>>> SENT_SHIPMENTS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<SentItem<TransferResult>>> SENT_TRANSFERS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<SentItem<Object>>> SENT_ITEMS = new TypeReference<>() {
+    };
+    private static final String UNKNOWN_OUTCOME = "The worker stopped before the outcome was known; check the chain before sending it again";
+
+    private final ChainJobRepository chainJobRepository;
+    private final UserRepository userRepository;
+    private final NotificationRepository notificationRepository;
+    private final ShipmentService shipmentService;
+    private final TransferService transferService;
+    private final AuthService authService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService pipelineExecutor;
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private final Map<Long, String> running = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<ResponseEntity<?>>> waiters = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+
+    @Value("${application.jobs.retry.max-attempts:5}")
+    private int maxAttempts = 5;
+    @Value("${application.jobs.retry.backoff:1000}")
+    private long backoff = 1000;
+    @Value("${application.jobs.retry.max-backoff:60000}")
+    private long maxBackoff = 60000;
+    @Value("${application.jobs.stale-after:300000}")
+    private long staleAfter = 300000;
+    @Value("${application.jobs.batch.max-size:500}")
+    private int maxBatchSize = 500;
+
+    public ChainJobService(ChainJobRepository chainJobRepository, UserRepository userRepository,
+                           NotificationRepository notificationRepository, ShipmentService shipmentService,
+                           TransferService transferService, AuthService authService, ObjectMapper objectMapper,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${application.jobs.workers:4}") int workers,
+                           @Value("${application.jobs.queue-capacity:1000}") int queueCapacity,
+                           @Value("${application.jobs.batch.pipeline:8}") int pipeline) {
+        this.chainJobRepository = chainJobRepository;
+        this.userRepository = userRepository;
+        this.notificationRepository = notificationRepository;
+        this.shipmentService = shipmentService;
+        this.transferService = transferService;
+        this.authService = authService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "chain-job-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        AtomicInteger pipelineThreadCount = new AtomicInteger();
+        this.pipelineExecutor = Executors.newFixedThreadPool(pipeline, runnable -> {
+            Thread thread = new Thread(runnable, "chain-batch-" + pipelineThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks whether the client asked for an asynchronous response with {@code Prefer: respond-async}.
+     *
+     * @param prefer The value of the Prefer header, or null.
+     * @return true if the request should be answered with a job.
+     */
+    public static boolean prefersAsync(String prefer) {
+        return prefer != null && prefer.toLowerCase(Locale.ROOT).contains(PREFERENCE);
+    }
+
+    /**
+     * Creates a new shipment for the authenticated user and waits for the result.
+     *
+     * @param shipmentInput The input data for creating the shipment.
+     * @return A {@link ResponseEntity} with the result of the creation operation, or the job and
+     * status 202 if it did not complete within the request deadline.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> createShipment(ShipmentInput shipmentInput) throws Exception {
+        User user = authService.getUserFromJWT();
+        ResponseEntity<?> validationResult = shipmentService.validateCreate(shipmentInput, user);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return submitAndWait(JobType.CREATE_SHIPMENT, user, shipmentInput);
+    }
+
+    /**
+     * Transfers a shipment of the authenticated user and waits for the result.
+     *
+     * @param transferInput The input data for the transfer.
+     * @return A {@link ResponseEntity} with the result of the transfer operation, or the job and
+     * status 202 if it did not complete within the request deadline.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> transferShipment(TransferInput transferInput) throws Exception {
+        User user = authService.getUserFromJWT();
+        ResponseEntity<?> validationResult = transferService.validateTransfer(transferInput, user);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return submitAndWait(JobType.TRANSFER_SHIPMENT, user, transferInput);
+    }
+
+    /**
+     * Validates a shipment creation for the authenticated user and submits it as a job.
+     *
+     * @param shipmentInput The input data for creating the shipment.
+     * @return A {@link ResponseEntity} with the submitted job and status 202, or the validation error.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> submitShipment(ShipmentInput shipmentInput) throws Exception {
+        User user = authService.getUserFromJWT();
+        ResponseEntity<?> validationResult = shipmentService.validateCreate(shipmentInput, user);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return submit(JobType.CREATE_SHIPMENT, user, shipmentInput);
+    }
+
+    /**
+     * Validates a transfer for the authenticated user and submits it as a job.
+     *
+     * @param transferInput The input data for the transfer.
+     * @return A {@link ResponseEntity} with the submitted job and status 202, or the validation error.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> submitTransfer(TransferInput transferInput) throws Exception {
+        User user = authService.getUserFromJWT();
+        ResponseEntity<?> validationResult = transferService.validateTransfer(transferInput, user);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return submit(JobType.TRANSFER_SHIPMENT, user, transferInput);
+    }
+
+    /**
+     * Creates several shipments for the authenticated user in one job.
+     * <p>
+     * Every shipment is validated up front; if none is valid the results are returned right away.
+     * Otherwise the job sends the valid shipments with a bounded number of broker calls in
+     * flight and records them together.
+     * </p>
+     *
+     * @param shipmentInputs The input data for creating each shipment.
+     * @param async          Whether to answer with the job right away instead of waiting for it.
+     * @return A {@link ResponseEntity} with one {@link BatchShipmentResult} per shipment, in request
+     * order, or the job and status 202.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> createShipments(List<ShipmentInput> shipmentInputs, boolean async) throws Exception {
+        if (shipmentInputs == null || shipmentInputs.isEmpty()) {
+            return ResponseEntity.badRequest().body("At least one shipment is required");
+        }
+        if (shipmentInputs.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body("At most " + maxBatchSize + " shipments can be created at once");
+        }
+        User user = authService.getUserFromJWT();
+        if (user.getBlockchainAddress() == null) {
+            return new ResponseEntity<>("User does not have a blockchain address", HttpStatus.FORBIDDEN);
+        }
+
+        List<BatchShipmentResult> rejected = new ArrayList<>();
+        for (int i = 0; i < shipmentInputs.size(); i++) {
+            ResponseEntity<?> validationResult = shipmentService.validateCreate(shipmentInputs.get(i), user);
+            if (validationResult != null) {
+                rejected.add(BatchShipmentResult.failed(i, String.valueOf(validationResult.getBody())));
+            }
+        }
+        if (rejected.size() == shipmentInputs.size()) {
+            return ResponseEntity.ok(rejected);
+        }
+        return async
+                ? submit(JobType.BATCH_CREATE, user, shipmentInputs)
+                : submitAndWait(JobType.BATCH_CREATE, user, shipmentInputs);
+    }
+
+    /**
+     * Transfers several shipments of the authenticated user to the same new owner in one job.
+     * <p>
+     * The fields and parties shared by the transfers are checked once; each shipment is then
+     * checked on its own, and if none can be transferred the results are returned right away.
+     * Otherwise the job sends the transfers with a bounded number of broker calls in flight and
+     * records them together.
+     * </p>
+     *
+     * @param batchTransferInput The shipments to transfer and the shared transfer data.
+     * @param async              Whether to answer with the job right away instead of waiting for it.
+     * @return A {@link ResponseEntity} with one {@link BatchTransferResult} per shipment, in request
+     * order, or the job and status 202.
+     * @throws Exception if the job cannot be stored.
+     */
+    public ResponseEntity<?> transferShipments(BatchTransferInput batchTransferInput, boolean async) throws Exception {
+        if (batchTransferInput != null && batchTransferInput.getShipmentIds() != null
+                && batchTransferInput.getShipmentIds().size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body("At most " + maxBatchSize + " shipments can be transferred at once");
+        }
+        User user = authService.getUserFromJWT();
+        ResponseEntity<?> validationResult = transferService.checkBatchTransfer(batchTransferInput, user);
+        if (!validationResult.getStatusCode().is2xxSuccessful()) {
+            return validationResult;
+        }
+
+        List<Integer> shipmentIds = batchTransferInput.getShipmentIds();
+        Map<Integer, String> rejected = transferService.rejectedShipments(shipmentIds);
+        if (rejected.size() == shipmentIds.size()) {
+            List<BatchTransferResult> results = new ArrayList<>(shipmentIds.size());
+            for (int i = 0; i < shipmentIds.size(); i++) {
+                results.add(BatchTransferResult.failed(shipmentIds.get(i), rejected.get(i)));
+            }
+            return ResponseEntity.ok(results);
+        }
+        return async
+                ? submit(JobType.BATCH_TRANSFER, user, batchTransferInput)
+                : submitAndWait(JobType.BATCH_TRANSFER, user, batchTransferInput);
+    }
+
+    /**
+     * Retrieves a job submitted by the authenticated user.
+     *
+     * @param id The ID of the job.
+     * @return A {@link ResponseEntity} containing the job.
+     */
+    public ResponseEntity<?> getJob(long id) {
+        User user = authService.getUserFromJWT();
+        ChainJob job = chainJobRepository.findByIdAndUserId(id, user.getId()).orElse(null);
+        if (job == null) {
+            return new ResponseEntity<>("Job not found", HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(ChainJobOutput.of(job), HttpStatus.OK);
+    }
+
+    /**
+     * Sends a heartbeat for the jobs running on this instance, recovers the running jobs whose
+     * worker stopped, and queues the due jobs that no worker of this instance knows about.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${application.jobs.sweep-interval:1000}",
+            initialDelayString = "${application.jobs.sweep-interval:1000}")
+    public void sweep() {
+        LocalDateTime now = LocalDateTime.now();
+        if (!running.isEmpty()) {
+            chainJobRepository.heartbeat(JobStatus.RUNNING, List.copyOf(running.values()), now);
+        }
+        for (ChainJob job : chainJobRepository.findStale(JobStatus.RUNNING, now.minusNanos(staleAfter * 1_000_000))) {
+            recoverStale(job, now);
+        }
+        List<Long> ids = chainJobRepository.findDueIds(JobStatus.PENDING, now, PageRequest.ofSize(queueCapacity));
+        for (Long id : ids) {
+            if (!enqueue(id)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs a pending job, unless another worker has already claimed it.
+     * <p>
+     * A single transfer is handed to the transfer batcher and recorded once its batch
+     * transaction returns, so that the worker takes the next job meanwhile and the concurrent
+     * transfers of a sender are not limited to the number of workers.
+     * </p>
+     *
+     * @param id The ID of the job.
+     */
+    public void run(Long id) {
+        try {
+            String token = UUID.randomUUID().toString();
+            if (chainJobRepository.claim(id, JobStatus.PENDING, JobStatus.RUNNING, LocalDateTime.now(), token) == 0) {
+                return;
+            }
+            running.put(id, token);
+            ChainJob job = chainJobRepository.findById(id).orElseThrow();
+            attempt(job).whenComplete((response, e) -> complete(job, response, e));
+        } catch (Exception e) {
+            log.error("Failed to run chain job {}", id, e);
+            running.remove(id);
+        } finally {
+            queued.remove(id);
+        }
+    }
+
+    /**
+     * Hands the final response of a job to its waiter, or moves the job out of the running
+     * status if its attempt failed unexpectedly.
+     */
+    private void complete(ChainJob job, ResponseEntity<?> response, Throwable e) {
+        try {
+            if (e != null) {
+                Exception cause = unwrap(e);
+                log.error("Failed to run chain job {}", job.getId(), cause);
+                response = abandon(job, cause);
+            }
+            if (response != null) {
+                CompletableFuture<ResponseEntity<?>> waiter = waiters.remove(job.getId());
+                if (waiter != null) {
+                    waiter.complete(response);
+                }
+            }
+        } finally {
+            running.remove(job.getId());
+        }
+    }
+
+    /**
+     * Moves a job whose attempt failed unexpectedly out of the running status: back to pending
+     * if its transaction is on chain and attempts are left, failed otherwise. If the job cannot
+     * be saved either, it is recovered once its heartbeat is stale.
+     *
+     * @return The final response of the job, or null if it will be retried.
+     */
+    private ResponseEntity<?> abandon(ChainJob job, Exception e) {
+        try {
+            if (job.getChainResult() != null && job.getAttempts() < maxAttempts) {
+                retryLater(job, e);
+                return null;
+            }
+            return finish(job, new ResponseEntity<>("Failed to run chain job: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR), null);
+        } catch (Exception inner) {
+            log.error("Failed to release chain job {}", job.getId(), inner);
+            return null;
+        }
+    }
+
+    /**
+     * Recovers a running job whose worker stopped sending heartbeats, unless the worker sends
+     * one in the meantime.
+     * <p>
+     * A single write whose transaction is on chain goes back to pending and is recorded without
+     * being sent again. A batch goes back to pending with every item whose outcome is unknown
+     * failed, so that the next attempt records the items that are on chain and sends nothing.
+     * Any other job is failed, since its transaction may or may not have reached the chain.
+     * </p>
+     */
+    private void recoverStale(ChainJob job, LocalDateTime now) {
+        LocalDateTime heartbeatAt = job.getHeartbeatAt() != null ? job.getHeartbeatAt() : job.getStartedAt();
+        try {
+            boolean batch = job.getType() == JobType.BATCH_CREATE || job.getType() == JobType.BATCH_TRANSFER;
+            if (batch || job.getChainResult() != null) {
+                String chainResult = batch ? settleUnknownItems(job) : job.getChainResult();
+                chainJobRepository.releaseStale(job.getId(), JobStatus.RUNNING, JobStatus.PENDING, heartbeatAt, chainResult);
+                return;
+            }
+            ResponseEntity<?> failure = new ResponseEntity<>(UNKNOWN_OUTCOME, HttpStatus.INTERNAL_SERVER_ERROR);
+            int failed = chainJobRepository.failStale(job.getId(), JobStatus.RUNNING, JobStatus.FAILED, heartbeatAt,
+                    UNKNOWN_OUTCOME, failure.getStatusCode().value(), json(failure.getBody()), now);
+            if (failed == 1 && job.isNotifySubmitter()) {
+                notifySubmitter(job, false);
+            }
+        } catch (Exception e) {
+            log.error("Failed to recover stale chain job {}", job.getId(), e);
+        }
+    }
+
+    /**
+     * Fails the items of a stale batch that were not sent yet or were retryable, since the
+     * stopped worker may have sent them on its attempt.
+     *
+     * @return The chain result of the batch with every item settled.
+     */
+    private String settleUnknownItems(ChainJob job) throws Exception {
+        int size = job.getType() == JobType.BATCH_CREATE
+                ? objectMapper.readValue(job.getPayload(), SHIPMENT_INPUTS).size()
+                : payload(job, BatchTransferInput.class).getShipmentIds().size();
+        List<SentItem<Object>> sent = job.getChainResult() == null
+                ? new ArrayList<>(Collections.nCopies(size, null))
+                : new ArrayList<>(objectMapper.readValue(job.getChainResult(), SENT_ITEMS));
+        for (int i = 0; i < sent.size(); i++) {
+            if (sent.get(i) == null || sent.get(i).retryable()) {
+                sent.set(i, new SentItem<>(null, UNKNOWN_OUTCOME, false));
+            }
+        }
+        return json(sent);
+    }
+
+    /**
+     * Runs one attempt of a claimed job.
+     *
+     * @return A future completed with the final response of the job, or with null if it will
+     * be retried.
+     */
+    private CompletableFuture<ResponseEntity<?>> attempt(ChainJob job) {
+        try {
+            job.setAttempts(job.getAttempts() + 1);
+            User user = userRepository.findById(job.getUserId()).orElse(null);
+            if (user == null) {
+                return CompletableFuture.completedFuture(
+                        finish(job, new ResponseEntity<>("User not found", HttpStatus.NOT_FOUND), null));
+            }
+            if (job.getType() == JobType.TRANSFER_SHIPMENT && job.getChainResult() == null) {
+                return handOff(job, user);
+            }
+            return CompletableFuture.completedFuture(attempt(job, user));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private ResponseEntity<?> attempt(ChainJob job, User user) {
+        try {
+            if (job.getType() == JobType.BATCH_CREATE || job.getType() == JobType.BATCH_TRANSFER) {
+                long unsent;
+                if (job.getType() == JobType.BATCH_CREATE) {
+                    unsent = sendShipments(job, user);
+                } else {
+                    BatchTransferInput input = payload(job, BatchTransferInput.class);
+                    User newOwner = userRepository.findByEmail(input.getNewShipmentOwner()).orElse(null);
+                    if (newOwner == null) {
+                        return finish(job, new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND), null);
+                    }
+                    unsent = sendTransfers(job, input, user, newOwner);
+                }
+                if (unsent > 0 && job.getAttempts() < maxAttempts) {
+                    retryLater(job, new IllegalStateException(unsent + " shipments could not be sent yet"));
+                    return null;
+                }
+            } else if (job.getChainResult() == null) {
+                return recordSent(job, shipmentService.sendCreate(payload(job, ShipmentInput.class), user), user);
+            }
+            return finish(job, null, user);
+        } catch (Exception e) {
+            return failAttempt(job, e);
+        }
+    }
+
+    /**
+     * Hands a single transfer to the transfer batcher and records it once its batch transaction
+     * returns, on a worker of this instance.
+     */
+    private CompletableFuture<ResponseEntity<?>> handOff(ChainJob job, User user) {
+        CompletableFuture<ResponseEntity<?>> sent;
+        try {
+            sent = transferService.submitTransfer(payload(job, TransferInput.class), user);
+        } catch (Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        BiFunction<ResponseEntity<?>, Throwable, ResponseEntity<?>> record = (response, e) -> transferred(job, user, response, e);
+        // An outcome that is already known, such as a validation error, is recorded right away
+        return sent.isDone() ? sent.handle(record) : sent.handleAsync(record, this::runOnWorker);
+    }
+
+    private ResponseEntity<?> transferred(ChainJob job, User user, ResponseEntity<?> sent, Throwable error) {
+        Exception failure = error != null ? unwrap(error) : null;
+        if (failure == null) {
+            try {
+                return recordSent(job, sent, user);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        return failAttempt(job, failure);
+    }
+
+    /**
+     * Stores the broker's answer to a single write on the job and records it, or fails the job
+     * with the broker's error response.
+     */
+    private ResponseEntity<?> recordSent(ChainJob job, ResponseEntity<?> sent, User user) throws Exception {
+        if (!sent.getStatusCode().is2xxSuccessful()) {
+            return finish(job, sent, null);
+        }
+        job.setChainResult(objectMapper.writeValueAsString(sent.getBody()));
+        chainJobRepository.save(job);
+        return finish(job, null, user);
+    }
+
+    /**
+     * Retries or fails a job whose attempt failed.
+     *
+     * @return The final response of the job, or null if it will be retried.
+     */
+    private ResponseEntity<?> failAttempt(ChainJob job, Exception e) {
+        boolean onChain = job.getChainResult() != null;
+        if ((onChain || nothingSent(e)) && job.getAttempts() < maxAttempts) {
+            retryLater(job, e);
+            return null;
+        }
+        if (onChain) {
+            return finish(job, new ResponseEntity<>("Failed to record chain write: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR), null);
+        }
+        return finish(job, failed(job, e), null);
+    }
+
+    /**
+     * Runs a task on the workers of this instance, or on the calling thread if their queue is full.
+     */
+    private void runOnWorker(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private static Exception unwrap(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof Exception exception ? exception : new IllegalStateException(cause);
+    }
+
+    /**
+     * Sends the shipments of a batch that have not been sent yet, or failed before reaching the
+     * broker, and stores the outcome of each one on the job.
+     *
+     * @return The number of shipments that can still be sent on a later attempt.
+     */
+    private long sendShipments(ChainJob job, User user) throws Exception {
+        List<ShipmentInput> inputs = objectMapper.readValue(job.getPayload(), SHIPMENT_INPUTS);
+        return sendBatch(job, inputs.size(), SENT_SHIPMENTS,
+                i -> CompletableFuture.supplyAsync(() -> sendShipment(inputs.get(i), user), pipelineExecutor));
+    }
+
+    private SentItem<ShipmentCreated> sendShipment(ShipmentInput input, User user) {
+        try {
+            ResponseEntity<?> sent = shipmentService.sendCreate(input, user);
+            if (sent.getBody() instanceof ShipmentCreated created) {
+                return new SentItem<>(created, null, false);
+            }
+            return new SentItem<>(null, String.valueOf(sent.getBody()), false);
+        } catch (Exception e) {
+            return new SentItem<>(null, String.valueOf(failed(JobType.BATCH_CREATE, e).getBody()), nothingSent(e));
+        }
+    }
+
+    /**
+     * Sends the transfers of a batch that have not been sent yet, or failed before reaching the
+     * broker, and stores the outcome of each one on the job.
+     * <p>
+     * The transfers are handed to the transfer batcher all at once, so that they share as few
+     * chain transactions as its windows allow.
+     * </p>
+     *
+     * @return The number of transfers that can still be sent on a later attempt.
+     */
+    private long sendTransfers(ChainJob job, BatchTransferInput input, User user, User newOwner) throws Exception {
+        List<Integer> shipmentIds = input.getShipmentIds();
+        Map<Integer, String> rejected = transferService.rejectedShipments(shipmentIds);
+        return sendBatch(job, shipmentIds.size(), SENT_TRANSFERS, i -> rejected.containsKey(i)
+                ? CompletableFuture.completedFuture(new SentItem<>(null, rejected.get(i), false))
+                : sendTransfer(input.toTransfer(shipmentIds.get(i)), user, newOwner));
+    }
+
+    private CompletableFuture<SentItem<TransferResult>> sendTransfer(TransferInput input, User user, User newOwner) {
+        CompletableFuture<TransferResult> sent;
+        try {
+            sent = transferService.submitValidatedTransfer(input, user, newOwner);
+        } catch (Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent.handle((result, error) -> {
+            if (error == null) {
+                return new SentItem<>(result, null, false);
+            }
+            Exception e = unwrap(error);
+            return new SentItem<>(null, String.valueOf(failed(JobType.BATCH_TRANSFER, e).getBody()), nothingSent(e));
+        });
+    }
+
+    /**
+     * Sends the items of a batch that have not been sent yet, or are retryable, and stores the
+     * outcome of every item on the job. Shipments are sent on the pipeline pool, whose size
+     * bounds the broker calls of all batches in flight.
+     *
+     * @param size The number of items in the batch.
+     * @param type The type of the stored outcomes.
+     * @param send Sends the item at an index and returns a future of its outcome.
+     * @return The number of items that can still be sent on a later attempt.
+     */
+    private <T> long sendBatch(ChainJob job, int size, TypeReference<List<SentItem<T>>> type,
+                               IntFunction<CompletableFuture<SentItem<T>>> send) throws Exception {
+        List<SentItem<T>> sent = job.getChainResult() == null
+                ? new ArrayList<>(Collections.nCopies(size, null))
+                : new ArrayList<>(objectMapper.readValue(job.getChainResult(), type));
+
+        List<Integer> unsent = new ArrayList<>();
+        List<CompletableFuture<SentItem<T>>> outcomes = new ArrayList<>();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (sent.get(i) == null || sent.get(i).retryable()) {
+                    unsent.add(i);
+                    outcomes.add(send.apply(i));
+                }
+            }
+            for (int j = 0; j < unsent.size(); j++) {
+                sent.set(unsent.get(j), outcomes.get(j).get());
+            }
+        } finally {
+            // Shipments still queued on the pipeline pool are not sent once the worker gives up
+            outcomes.forEach(outcome -> outcome.cancel(false));
+        }
+
+        job.setChainResult(json(sent));
+        chainJobRepository.save(job);
+        return sent.stream().filter(SentItem::retryable).count();
+    }
+
+    /**
+     * Records a job that is on chain, or stores the failure of a job, and completes it in one
+     * database transaction.
+     *
+     * @param response The failure, or null to record the chain result of the job.
+     * @param user     The submitter, when recording.
+     */
+    private ResponseEntity<?> finish(ChainJob job, ResponseEntity<?> response, User user) {
+        return transactionTemplate.execute(status -> {
+            ResponseEntity<?> outcome = response != null ? response : record(job, user);
+            boolean succeeded = outcome.getStatusCode().is2xxSuccessful();
+            job.setStatus(succeeded ? JobStatus.SUCCEEDED : JobStatus.FAILED);
+            job.setResultStatus(outcome.getStatusCode().value());
+            job.setResult(json(outcome.getBody()));
+            job.setError(null);
+            job.setNextAttemptAt(null);
+            job.setCompletedAt(LocalDateTime.now());
+            chainJobRepository.save(job);
+            if (job.isNotifySubmitter()) {
+                notifySubmitter(job, succeeded);
+            }
+            return outcome;
+        });
+    }
+
+    private ResponseEntity<?> record(ChainJob job, User user) {
+        try {
+            return switch (job.getType()) {
+                case CREATE_SHIPMENT -> {
+                    ShipmentCreated shipment = objectMapper.readValue(job.getChainResult(), ShipmentCreated.class);
+                    ShipmentRecord shipmentRecord = shipmentService.recordCreated(shipment, user);
+                    yield new ResponseEntity<>(shipmentRecord, HttpStatus.CREATED);
+                }
+                case TRANSFER_SHIPMENT -> {
+                    TransferResult transfer = objectMapper.readValue(job.getChainResult(), TransferResult.class);
+                    TransferInput input = payload(job, TransferInput.class);
+                    yield transferService.recordTransfer(transfer, user, input.getNewShipmentOwner(),
+                            input.getTransferNotes());
+                }
+                case BATCH_CREATE -> recordBatch(job, user);
+                case BATCH_TRANSFER -> recordBatchTransfer(job, user);
+            };
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read chain job " + job.getId(), e);
+        }
+    }
+
+    private ResponseEntity<?> recordBatch(ChainJob job, User user) throws Exception {
+        List<SentItem<ShipmentCreated>> sent = objectMapper.readValue(job.getChainResult(), SENT_SHIPMENTS);
+        List<ShipmentRecord> records = shipmentService.recordCreatedAll(
+                sent.stream().map(SentItem::result).filter(Objects::nonNull).toList(), user);
+
+        List<BatchShipmentResult> results = new ArrayList<>(sent.size());
+        int next = 0;
+        for (int i = 0; i < sent.size(); i++) {
+            SentItem<ShipmentCreated> shipment = sent.get(i);
+            if (shipment.result() == null) {
+                results.add(BatchShipmentResult.failed(i, shipment.error()));
+                continue;
+            }
+            ShipmentRecord shipmentRecord = records.get(next++);
+            results.add(BatchShipmentResult.created(i, shipmentRecord.getShipmentId(), shipmentRecord.getSku()));
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    private ResponseEntity<?> recordBatchTransfer(ChainJob job, User user) throws Exception {
+        BatchTransferInput input = payload(job, BatchTransferInput.class);
+        List<SentItem<TransferResult>> sent = objectMapper.readValue(job.getChainResult(), SENT_TRANSFERS);
+        User newOwner = userRepository.findByEmail(input.getNewShipmentOwner()).orElse(null);
+        if (newOwner == null) {
+            return new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND);
+        }
+        Set<Long> missing = transferService.recordTransfers(
+                sent.stream().map(SentItem::result).filter(Objects::nonNull).toList(), user, newOwner,
+                input.getTransferNotes());
+
+        List<BatchTransferResult> results = new ArrayList<>(sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            Integer shipmentId = input.getShipmentIds().get(i);
+            SentItem<TransferResult> transfer = sent.get(i);
+            if (transfer.result() == null) {
+                results.add(BatchTransferResult.failed(shipmentId, transfer.error()));
+            } else if (missing.contains(transfer.result().shipmentId())) {
+                results.add(BatchTransferResult.failed(shipmentId, "Shipment not found"));
+            } else {
+                results.add(BatchTransferResult.transferred(shipmentId));
+            }
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    private ResponseEntity<?> failed(ChainJob job, Exception e) {
+        return failed(job.getType(), e);
+    }
+
+    private ResponseEntity<?> failed(JobType type, Exception e) {
+        if (e instanceof CapacityExceededException) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return type == JobType.TRANSFER_SHIPMENT || type == JobType.BATCH_TRANSFER
+                ? transferService.transferFailed(e)
+                : shipmentService.createFailed(e);
+    }
+
+    private void retryLater(ChainJob job, Exception e) {
+        long delay = Math.min(maxBackoff, backoff << Math.min(job.getAttempts() - 1, 20));
+        job.setStatus(JobStatus.PENDING);
+        job.setResultStatus(null);
+        job.setResult(null);
+        job.setCompletedAt(null);
+        job.setNextAttemptAt(LocalDateTime.now().plusNanos(delay * 1_000_000));
+        String message = String.valueOf(e.getMessage());
+        job.setError(message.length() > 1000 ? message.substring(0, 1000) : message);
+        chainJobRepository.save(job);
+    }
+
+    /**
+     * Checks whether a failed broker call cannot have reached the chain, so that it can be
+     * sent again without risking a duplicate transaction.
+     */
+    private static boolean nothingSent(Throwable e) {
+        if (e instanceof CapacityExceededException) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                    || cause instanceof ConnectionRequestTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ResponseEntity<?> submitAndWait(JobType type, User user, Object input) throws Exception {
+        CompletableFuture<ResponseEntity<?>> waiter = new CompletableFuture<>();
+        ChainJob job;
+        try {
+            // The waiter is in place before the job commits, so a sweep that claims and finishes
+            // the job right after the commit still hands it the response
+            job = transactionTemplate.execute(status -> {
+                ChainJob saved = save(type, user, input, false);
+                waiters.put(saved.getId(), waiter);
+                return saved;
+            });
+        } catch (RuntimeException e) {
+            waiters.values().remove(waiter);
+            throw e;
+        }
+        try {
+            enqueue(job.getId());
+            return RequestDeadline.await(waiter, "the chain write");
+        } catch (DeadlineExceededException e) {
+            return accepted(job, false);
+        } finally {
+            waiters.remove(job.getId());
+        }
+    }
+
+    private ResponseEntity<?> submit(JobType type, User user, Object input) {
+        ChainJob job = save(type, user, input, true);
+        enqueue(job.getId());
+        return accepted(job, true);
+    }
+
+    private ChainJob save(JobType type, User user, Object input, boolean notifySubmitter) {
+        ChainJob job = new ChainJob();
+        job.setType(type);
+        job.setUserId(user.getId());
+        job.setNotifySubmitter(notifySubmitter);
+        job.setPayload(json(input));
+        return chainJobRepository.save(job);
+    }
+
+    private static ResponseEntity<?> accepted(ChainJob job, boolean preferenceApplied) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.getId()));
+        if (preferenceApplied) {
+            response.header("Preference-Applied", PREFERENCE);
+        }
+        return response.body(ChainJobOutput.of(job));
+    }
+
+    /**
+     * Queues a job for the workers of this instance.
+     *
+     * @return false if the queue is full; the job then waits for the next sweep.
+     */
+    private boolean enqueue(Long id) {
+        if (!queued.add(id)) {
+            return true;
+        }
+        try {
+            executor.execute(() -> run(id));
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.remove(id);
+            return false;
+        }
+    }
+
+    private void notifySubmitter(ChainJob job, boolean succeeded) {
+        Notification notification = new Notification();
+        notification.setToUserId(job.getUserId());
+        String operation = switch (job.getType()) {
+            case CREATE_SHIPMENT -> "shipment creation";
+            case TRANSFER_SHIPMENT -> "shipment transfer";
+            case BATCH_CREATE -> "batch shipment creation";
+            case BATCH_TRANSFER -> "batch shipment transfer";
+        };
+        notification.setMessage("Your " + operation + " job #" + job.getId() + (succeeded ? " succeeded." : " failed."));
+        notificationRepository.save(notification);
+    }
+
+    private <T> T payload(ChainJob job, Class<T> type) throws Exception {
+        return objectMapper.readValue(job.getPayload(), type);
+    }
+
+    private String json(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize chain job data", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        // Queued jobs stay pending in the database and are swept after the next start
+        executor.getQueue().clear();
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        pipelineExecutor.shutdownNow();
+    }
+
+    /**
+     * The outcome of sending one item of a batch.
+     *
+     * @param result    The chain write returned by the broker, or null if it failed.
+     * @param error     The reason the item failed.
+     * @param retryable Whether the item never reached the broker and can be sent again.
+     */
+    record SentItem<T>(T result, String error, boolean retryable) {
+    }
+}
@@ -0,0 +1,114 @@
+package chernandez.blockedsupplybackend.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Service for encrypting and decrypting values with the application secret key.
+ * <p>
+ * This class produces the same ciphertext as {@link chernandez.blockedsupplybackend.utils.EncryptionUtil},
+ * so stored blockchain addresses remain readable and can still be looked up by their encrypted value.
+ * The key is built once, and initialized {@link Cipher} instances are kept in a pool and reused
+ * instead of looking up the provider on every call. The pool is shared by all threads rather
+ * than held per thread, so it also pays off when each request runs on a new virtual thread.
+ * </p>
+ */
+@Service
+public class EncryptionService {
+
+    private static final String ALGORITHM = "AES";
+
+    private final SecretKeySpec secretKey;
+    private final Queue<Cipher> encryptCiphers = new ConcurrentLinkedQueue<>();
+    private final Queue<Cipher> decryptCiphers = new ConcurrentLinkedQueue<>();
+
+    public EncryptionService(@Value("${application.security.encryption.secret-key}") String key) {
+        this.secretKey = new SecretKeySpec(key.getBytes(), ALGORITHM);
+    }
+
+    /**
+     * Encrypts a string using AES.
+     *
+     * @param data The data to encrypt.
+     * @return The encrypted data as a Base64 encoded string.
+     * @throws Exception if an error occurs during encryption.
+     */
+    public String encrypt(String data) throws Exception {
+        byte[] encryptedData = doFinal(encryptCiphers, Cipher.ENCRYPT_MODE, data.getBytes());
+        return Base64.getEncoder().encodeToString(encryptedData);
+    }
+
+    /**
+     * Decrypts a string using AES.
+     *
+     * @param encryptedData The encrypted data as a Base64 encoded string.
+     * @return The decrypted data.
+     * @throws Exception if an error occurs during decryption.
+     */
+    public String decrypt(String encryptedData) throws Exception {
+        byte[] decodedData = Base64.getDecoder().decode(encryptedData);
+        return new String(doFinal(decryptCiphers, Cipher.DECRYPT_MODE, decodedData));
+    }
+
+    /**
+     * Encrypts several strings.
+     *
+     * @param data The data to encrypt.
+     * @return The encrypted values, in iteration order of the input.
+     * @throws Exception if an error occurs during encryption.
+     */
+    public List<String> encryptAll(Collection<String> data) throws Exception {
+        List<String> encrypted = new ArrayList<>(data.size());
+        for (String value : data) {
+            encrypted.add(encrypt(value));
+        }
+        return encrypted;
+    }
+
+    /**
+     * Decrypts several strings.
+     *
+     * @param encryptedData The encrypted values as Base64 encoded strings.
+     * @return The decrypted values, in iteration order of the input.
+     * @throws Exception if an error occurs during decryption.
+     */
+    public List<String> decryptAll(Collection<String> encryptedData) throws Exception {
+        List<String> decrypted = new ArrayList<>(encryptedData.size());
+        for (String value : encryptedData) {
+            decrypted.add(decrypt(value));
+        }
+        return decrypted;
+    }
+
+    private byte[] doFinal(Queue<Cipher> pool, int mode, byte[] input) throws GeneralSecurityException {
+        Cipher cipher = pool.poll();
+        if (cipher == null) {
+            cipher = newCipher(mode);
+        }
+        // doFinal leaves the cipher initialized with the same key, ready for the next call.
+        // The cipher state is unspecified after a failure, so it is only returned on success.
+        byte[] output = cipher.doFinal(input);
+        pool.offer(cipher);
+        return output;
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(mode, secretKey);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + ALGORITHM + " cipher", e);
+        }
+    }
+}
@@ -1,21 +1,33 @@
 package chernandez.blockedsupplybackend.services;
 
 import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service for handling JSON Web Tokens (JWTs).
  * <p>
  * This class provides methods for generating, validating, and extracting information from JWTs.
+ * The signing key and the parser are built once at startup, and recently verified tokens are
+ * kept in a small bounded cache keyed by their SHA-256 digest until they expire.
  * </p>
  */
 @Service
@@ -27,20 +39,89 @@ public class JwtService {
     private long expiration;
     @Value("${application.security.jwt.refresh-token.expiration}")
     private long refreshExpiration;
+    @Value("${application.security.jwt.cache.size:1024}")
+    private int cacheSize;
+
+    private SecretKey signInKey;
+    private JwtParser parser;
+    private Map<ByteBuffer, VerifiedClaims> verifiedTokens;
+    private final ReentrantLock cacheLock = new ReentrantLock();
+
+    /**
+     * Decodes the secret and builds the signing key, the parser and the verified-token cache.
+     */
+    @PostConstruct
+    void init() {
+        signInKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretKey));
+        parser = Jwts.parser()
+                .verifyWith(signInKey)
+                .build();
+        if (cacheSize > 0) {
+            verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, VerifiedClaims> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * Verifies the signature and expiry of a JWT and returns its claims.
+     *
+     * @param token The JWT to verify.
+     * @return An optional containing the verified claims, or empty if the token is invalid or expired.
+     */
+    public Optional<VerifiedClaims> verify(final String token) {
+        if (token == null || token.isBlank()) {
+            return Optional.empty();
+        }
+
+        final Instant now = Instant.now();
+        final ByteBuffer cacheKey = verifiedTokens != null ? ByteBuffer.wrap(DigestUtil.sha256(token)) : null;
+        if (cacheKey != null) {
+            final VerifiedClaims cached = getCached(cacheKey);
+            if (cached != null) {
+                if (!cached.isExpiredAt(now)) {
+                    return Optional.of(cached);
+                }
+                evict(cacheKey);
+                return Optional.empty();
+            }
+        }
+
+        final Claims payload;
+        try {
+            payload = parser.parseSignedClaims(token).getPayload();
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        final Date expiresAt = payload.getExpiration();
+        final VerifiedClaims claims = new VerifiedClaims(
+                payload.getSubject(),
+                payload.getId(),
+                expiresAt != null ? expiresAt.toInstant() : null
+        );
+        if (claims.isExpiredAt(now)) {
+            return Optional.empty();
+        }
+        if (cacheKey != null) {
+            putCached(cacheKey, claims);
+        }
+        return Optional.of(claims);
+    }
 
     /**
      * Extracts the username (subject) from a JWT.
      *
      * @param token The JWT from which to extract the username.
-     * @return The username contained in the token.
+     * @return The username contained in the token, or null if the token is invalid.
      */
     public String extractUsername(final String token) {
-        final Claims jwtToken = Jwts.parser()
-                .verifyWith(getSignInKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        return jwtToken.getSubject();
+        return verify(token)
+                .map(VerifiedClaims::subject)
+                .orElse(null);
     }
 
     /**
@@ -70,15 +151,10 @@ public class JwtService {
                 .subject(user.getEmail())
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSignInKey())
+                .signWith(signInKey)
                 .compact();
     }
 
-    private SecretKey getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-        return Keys.hmacShaKeyFor(keyBytes);
-    }
-
     /**
      * Validates a JWT.
      *
@@ -87,20 +163,48 @@ public class JwtService {
      * @return True if the token is valid, false otherwise.
      */
     public boolean isTokenValid(final String token, User user) {
-        final String username = extractUsername(token);
-        return username.equals(user.getEmail()) && !isTokenExpired(token);
+        return verify(token)
+                .map(claims -> isTokenValid(claims, user))
+                .orElse(false);
+    }
+
+    /**
+     * Validates already verified claims against a user.
+     *
+     * @param claims The verified claims of the token.
+     * @param user   The user to validate the token against.
+     * @return True if the token belongs to the user and has not expired, false otherwise.
+     */
+    public boolean isTokenValid(final VerifiedClaims claims, User user) {
+        return claims.subject() != null
+                && claims.subject().equals(user.getEmail())
+                && !claims.isExpiredAt(Instant.now());
+    }
+
+    private VerifiedClaims getCached(ByteBuffer key) {
+        cacheLock.lock();
+        try {
+            return verifiedTokens.get(key);
+        } finally {
+            cacheLock.unlock();
+        }
     }
 
-    private boolean isTokenExpired(final String token) {
-        return extractExpiration(token).before(new Date());
+    private void putCached(ByteBuffer key, VerifiedClaims claims) {
+        cacheLock.lock();
+        try {
+            verifiedTokens.put(key, claims);
+        } finally {
+            cacheLock.unlock();
+        }
     }
 
-    private Date extractExpiration(final String token) {
-        final Claims jwtToken = Jwts.parser()
-                .verifyWith(getSignInKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        return jwtToken.getExpiration();
+    private void evict(ByteBuffer key) {
+        cacheLock.lock();
+        try {
+            verifiedTokens.remove(key);
+        } finally {
+            cacheLock.unlock();
+        }
     }
 }
@@ -1,24 +1,29 @@
 package chernandez.blockedsupplybackend.services;
 
+import chernandez.blockedsupplybackend.clients.BrokerClient;
 import chernandez.blockedsupplybackend.domain.ShipmentRecord;
 import chernandez.blockedsupplybackend.domain.State;
 import chernandez.blockedsupplybackend.domain.User;
 import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
 import chernandez.blockedsupplybackend.domain.dto.ShipmentOutput;
-import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.UserIdentity;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerShipment;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
 import chernandez.blockedsupplybackend.repositories.ShipmentRecordRepository;
-import chernandez.blockedsupplybackend.repositories.UserRepository;
-import chernandez.blockedsupplybackend.utils.EncryptionUtil;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.RestClientResponseException;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Service for handling shipment-related operations.
@@ -30,83 +35,100 @@ import java.time.format.DateTimeFormatter;
 @Service
 public class ShipmentService {
 
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final ShipmentRecordRepository shipmentRecordRepository;
-    private final AuthService authService;
-    private final UserRepository userRepository;
-    private final TransferService transferService;
+    private static final String GENESIS_NOTES = "Shipment created";
 
-    @Value("${application.broker.address}")
-    private String brokerBaseUrl;
-    @Value("${application.security.encryption.secret-key}")
-    private String encryptionKey;
+    private final BrokerClient brokerClient;
+    private final ShipmentRecordRepository shipmentRecordRepository;
+    private final AddressDirectory addressDirectory;
 
-    public ShipmentService(ShipmentRecordRepository shipmentRecordRepository, AuthService authService, UserRepository userRepository, TransferService transferService) {
+    public ShipmentService(ShipmentRecordRepository shipmentRecordRepository, AddressDirectory addressDirectory, BrokerClient brokerClient) {
         this.shipmentRecordRepository = shipmentRecordRepository;
-        this.authService = authService;
-        this.userRepository = userRepository;
-        this.transferService = transferService;
+        this.addressDirectory = addressDirectory;
+        this.brokerClient = brokerClient;
     }
 
     /**
-     * Creates a new shipment.
+     * Sends a shipment creation to the blockchain on behalf of a user.
+     * <p>
+     * The input is validated again, since the creation may have been submitted a while ago.
+     * The shipment is created together with the transfer that opens its history at the origin,
+     * in a single chain transaction. Broker failures are thrown, so that the caller can tell
+     * whether the transaction may have been sent.
+     * </p>
      *
      * @param shipmentInput The input data for creating the shipment.
-     * @return A {@link ResponseEntity} with the result of the creation operation.
-     * @throws Exception if an error occurs during shipment creation.
+     * @param user          The user creating the shipment.
+     * @return A {@link ResponseEntity} with the {@link ShipmentCreated} and status 200, or the validation error.
+     * @throws Exception if the broker call fails.
      */
-    public ResponseEntity<?> createShipment(ShipmentInput shipmentInput) throws Exception {
-        ResponseEntity<?> validationResult = checkCreateInputs(shipmentInput);
+    public ResponseEntity<?> sendCreate(ShipmentInput shipmentInput, User user) throws Exception {
+        ResponseEntity<?> validationResult = validateCreate(shipmentInput, user);
         if (validationResult != null) {
             return validationResult;
         }
+        shipmentInput.setFrom(addressDirectory.addressOf(user));
+        return new ResponseEntity<>(brokerClient.createShipmentWithTransfer(shipmentInput, GENESIS_NOTES), HttpStatus.OK);
+    }
 
-        User user = authService.getUserFromJWT();
-        if (user.getBlockchainAddress() == null) {
-            return new ResponseEntity<>("User does not have a blockchain address", HttpStatus.FORBIDDEN);
-        }
-        shipmentInput.setFrom(EncryptionUtil.decrypt(encryptionKey, user.getBlockchainAddress()));
-
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            HttpEntity<ShipmentInput> request = new HttpEntity<>(shipmentInput, headers);
-
-            ResponseEntity<String> response = restTemplate.postForEntity(
-                    brokerBaseUrl + "/api/shipments", request, String.class
-            );
-
-            if (response.getStatusCode() == HttpStatus.OK) {
-                JsonNode responseBody = objectMapper.readTree(response.getBody());
-
-                int shipmentId = responseBody.get("id").asInt();
-                String currentOwner = responseBody.get("currentOwner").asText();
-                String deliveryDateStr = responseBody.get("deliveryDate").asText();
-
-                LocalDateTime deliveryDate = parseDateToLocalDateTime(deliveryDateStr);
+    /**
+     * Records a shipment created on the blockchain, unless it has already been recorded.
+     *
+     * @param created The shipment returned by the broker.
+     * @param user    The user that created the shipment.
+     * @return The shipment record.
+     */
+    public ShipmentRecord recordCreated(ShipmentCreated created, User user) {
+        return recordCreatedAll(List.of(created), user).get(0);
+    }
 
-                ShipmentRecord shipmentRecord = new ShipmentRecord(
-                        (long) shipmentId,
-                        currentOwner,
-                        deliveryDate,
+    /**
+     * Records several shipments created on the blockchain, skipping those already recorded.
+     * <p>
+     * The new records are inserted together, in JDBC batches.
+     * </p>
+     *
+     * @param created The shipments returned by the broker.
+     * @param user    The user that created the shipments.
+     * @return The shipment records, in the same order as the shipments.
+     */
+    public List<ShipmentRecord> recordCreatedAll(List<ShipmentCreated> created, User user) {
+        Map<Long, ShipmentRecord> existing = shipmentRecordRepository.findAllById(
+                        created.stream().map(ShipmentCreated::id).toList())
+                .stream()
+                .collect(Collectors.toMap(ShipmentRecord::getShipmentId, Function.identity()));
+
+        List<ShipmentRecord> records = new ArrayList<>(created.size());
+        List<ShipmentRecord> inserted = new ArrayList<>(created.size());
+        for (ShipmentCreated shipment : created) {
+            ShipmentRecord shipmentRecord = existing.get(shipment.id());
+            if (shipmentRecord == null) {
+                shipmentRecord = new ShipmentRecord(
+                        shipment.id(),
+                        shipment.currentOwner(),
+                        parseDateToLocalDateTime(shipment.deliveryDate()),
                         State.CREATED,
                         user.getId()
                 );
-
-                shipmentRecordRepository.save(shipmentRecord);
-
-                createFirstTransaction(shipmentId, user.getId(), shipmentInput.getOrigin(), shipmentInput.getFrom());
-
-                return new ResponseEntity<>(shipmentRecord, HttpStatus.CREATED);
-            } else {
-                return new ResponseEntity<>("Broker responded with error: " + response.getBody(), response.getStatusCode());
+                inserted.add(shipmentRecord);
             }
+            records.add(shipmentRecord);
+        }
+        shipmentRecordRepository.saveAll(inserted);
+        return records;
+    }
 
-        } catch (Exception e) {
-            return new ResponseEntity<>("Failed to call broker: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Converts a failed shipment creation into the response of the create endpoint.
+     *
+     * @param e The failure.
+     * @return A {@link ResponseEntity} with the error.
+     */
+    public ResponseEntity<?> createFailed(Exception e) {
+        if (e instanceof RestClientResponseException responseException) {
+            return new ResponseEntity<>("Broker responded with error: " + responseException.getResponseBodyAsString(),
+                    responseException.getStatusCode());
         }
+        return new ResponseEntity<>("Failed to call broker: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     /**
@@ -122,38 +144,33 @@ public class ShipmentService {
         }
 
         try {
-            String url = brokerBaseUrl + "/api/shipments/" + shipmentId;
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-
-            if (response.getStatusCode() != HttpStatus.OK) {
-                return new ResponseEntity<>("Broker error: " + response.getBody(), response.getStatusCode());
-            }
-
-            JsonNode body = objectMapper.readTree(response.getBody());
+            BrokerShipment body = brokerClient.getShipment(shipmentId);
 
             ShipmentOutput output = new ShipmentOutput(
-                    body.get("id").asInt(),
+                    (int) body.id(),
                     record.getSku(),
-                    body.get("name").asText(),
-                    body.get("description").asText(),
-                    body.get("origin").asText(),
-                    body.get("destination").asText(),
-                    body.get("deliveryDate").asText(),
-                    body.get("units").asInt(),
-                    body.get("weight").asInt(),
-                    chernandez.blockedsupplybackend.domain.State.values()[body.get("currentState").asInt()],
-                    body.get("currentOwner").asText()
+                    body.name(),
+                    body.description(),
+                    body.origin(),
+                    body.destination(),
+                    body.deliveryDate(),
+                    body.units(),
+                    body.weight(),
+                    State.values()[body.currentState()],
+                    body.currentOwner()
             );
 
-            String currentOwner = body.get("currentOwner").asText();
-            User newOwner = userRepository.findByBlockchainAddress(EncryptionUtil.encrypt(encryptionKey, currentOwner)).orElse(null);
-            if (newOwner == null) {
-                throw new RuntimeException("New owner not found");
-            }
-            output.setCurrentOwner(newOwner.getEmail());
+            String currentOwner = body.currentOwner();
+            UserIdentity newOwner = addressDirectory.resolve(currentOwner)
+                    .orElseThrow(() -> new RuntimeException("New owner not found"));
+            output.setCurrentOwner(newOwner.email());
 
             return new ResponseEntity<>(output, HttpStatus.OK);
 
+        } catch (RestClientResponseException e) {
+            return new ResponseEntity<>("Broker error: " + e.getResponseBodyAsString(), e.getStatusCode());
+        } catch (CapacityExceededException | DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return new ResponseEntity<>("Failed to retrieve shipment: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -167,15 +184,32 @@ public class ShipmentService {
      */
     public ResponseEntity<?> getNextShipmentId() {
         try {
-            String url = brokerBaseUrl + "/api/shipments/next-id";
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-            return new ResponseEntity<>(jsonResponse, response.getStatusCode());
+            return new ResponseEntity<>(brokerClient.getNextShipmentId(), HttpStatus.OK);
+        } catch (CapacityExceededException | DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return new ResponseEntity<>("Failed to retrieve next shipment ID: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Checks whether a user can create a shipment, without contacting the blockchain.
+     *
+     * @param shipmentInput The input data for creating the shipment.
+     * @param user          The user creating the shipment.
+     * @return A {@link ResponseEntity} with the error, or null if the shipment can be created.
+     */
+    public ResponseEntity<?> validateCreate(ShipmentInput shipmentInput, User user) {
+        ResponseEntity<?> validationResult = checkCreateInputs(shipmentInput);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        if (user.getBlockchainAddress() == null) {
+            return new ResponseEntity<>("User does not have a blockchain address", HttpStatus.FORBIDDEN);
+        }
+        return null;
+    }
+
     private ResponseEntity<?> checkCreateInputs(ShipmentInput shipmentInput) {
         if (shipmentInput == null) {
             return new ResponseEntity<>("Invalid shipment input", HttpStatus.BAD_REQUEST);
@@ -202,6 +236,9 @@ public class ShipmentService {
                 shipmentInput.getDestination() == null || shipmentInput.getDestination().trim().isEmpty()) {
             return new ResponseEntity<>("Origin and destination cannot be empty", HttpStatus.BAD_REQUEST);
         }
+        if (shipmentInput.getOrigin().length() > 100 || shipmentInput.getDestination().length() > 100) {
+            return new ResponseEntity<>("Origin and destination cannot exceed 100 characters long", HttpStatus.BAD_REQUEST);
+        }
         if (shipmentInput.getOrigin().equals(shipmentInput.getDestination())) {
             return new ResponseEntity<>("Origin must be different to destination", HttpStatus.BAD_REQUEST);
         }
@@ -231,23 +268,6 @@ public class ShipmentService {
         return null;
     }
 
-    private void createFirstTransaction(int shipmentId, long currentOwnerId, String origin, String from) throws Exception {
-        TransferInput transferInput = new TransferInput();
-        transferInput.setShipmentId(shipmentId);
-
-        User newOwner = userRepository.findById(currentOwnerId).orElse(null);
-        if (newOwner == null) {
-            throw new RuntimeException("New owner not found");
-        }
-        transferInput.setNewShipmentOwner(newOwner.getEmail());
-
-        transferInput.setNewState(0); //CREATED
-        transferInput.setLocation(origin);
-        transferInput.setTransferNotes("Shipment created");
-        transferInput.setFrom(from);
-        transferService.transferShipment(transferInput);
-    }
-
     private LocalDateTime parseDateToLocalDateTime(String dateStr) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         LocalDate date = LocalDate.parse(dateStr, formatter);
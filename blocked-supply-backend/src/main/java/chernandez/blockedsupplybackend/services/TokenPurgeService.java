@@ -0,0 +1,60 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Service for purging tokens that can no longer be used.
+ * <p>
+ * This class periodically deletes tokens that are expired or revoked and were created
+ * longer ago than the refresh-token lifetime. Rows are deleted in bounded chunks, each in
+ * its own short transaction, so the purge never holds long locks on the tokens table.
+ * </p>
+ */
+@Service
+public class TokenPurgeService {
+
+    private final TokenRepository tokenRepository;
+
+    @Value("${application.security.jwt.refresh-token.expiration}")
+    private long refreshExpiration;
+    @Value("${application.security.token-purge.batch-size:500}")
+    private int batchSize;
+    @Value("${application.security.token-purge.max-batches:100}")
+    private int maxBatches;
+
+    public TokenPurgeService(TokenRepository tokenRepository) {
+        this.tokenRepository = tokenRepository;
+    }
+
+    /**
+     * Deletes purgeable tokens in chunks of at most {@code batchSize} rows.
+     *
+     * @return The number of deleted tokens.
+     */
+    @Scheduled(fixedDelayString = "${application.security.token-purge.interval:3600000}",
+            initialDelayString = "${application.security.token-purge.initial-delay:60000}")
+    public int purge() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(refreshExpiration));
+        int deleted = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            List<Long> ids = tokenRepository.findPurgeableIds(cutoff, PageRequest.ofSize(batchSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            tokenRepository.deleteAllByIdInBatch(ids);
+            deleted += ids.size();
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,196 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.domain.Token;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of issued access tokens and their revocation state.
+ * <p>
+ * This class lets the JWT filter authorize requests without querying the tokens table.
+ * Tokens are keyed by the SHA-256 digest of the JWT, as stored in the tokens table. The
+ * index is loaded at startup, updated when tokens are issued or revoked on this instance,
+ * and refreshed periodically from the rows modified since the last refresh so that changes
+ * made by other instances are picked up. Tokens unknown to the index fall back to a single
+ * database lookup.
+ * </p>
+ */
+@Service
+public class TokenRevocationIndex {
+
+    private final TokenRepository tokenRepository;
+
+    private final Map<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Set<ByteBuffer>> liveTokensByUser = new ConcurrentHashMap<>();
+    private volatile LocalDateTime lastRefresh;
+
+    @Value("${application.security.token-index.refresh-interval:5000}")
+    private long refreshInterval;
+
+    public TokenRevocationIndex(TokenRepository tokenRepository) {
+        this.tokenRepository = tokenRepository;
+    }
+
+    /**
+     * Loads all live tokens from the database once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        LocalDateTime now = LocalDateTime.now();
+        tokenRepository.findAllByRevokedFalseAndExpiredFalseAndExpiresAtAfter(now)
+                .forEach(this::apply);
+        lastRefresh = now;
+    }
+
+    /**
+     * Applies the tokens modified since the last refresh and drops expired entries.
+     * <p>
+     * The query window overlaps the previous one to tolerate clock skew between instances;
+     * applying the same row twice is harmless.
+     * </p>
+     */
+    @Scheduled(fixedDelayString = "${application.security.token-index.refresh-interval:5000}")
+    public void refresh() {
+        if (lastRefresh == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Token> changed = tokenRepository.findAllByModifiedAtAfter(lastRefresh.minus(Duration.ofMillis(refreshInterval * 2)));
+        changed.forEach(this::apply);
+        lastRefresh = now;
+
+        Instant cutoff = Instant.now();
+        entries.entrySet().removeIf(e -> e.getValue().isExpiredAt(cutoff));
+        liveTokensByUser.values().forEach(digests -> digests.removeIf(d -> !entries.containsKey(d)));
+        liveTokensByUser.values().removeIf(Set::isEmpty);
+    }
+
+    /**
+     * Checks whether a verified access token has been issued and is still live.
+     * <p>
+     * Known tokens are answered from memory. Unknown tokens, such as those issued by
+     * another instance since the last refresh, are looked up once and remembered.
+     * </p>
+     *
+     * @param jwtToken The JWT.
+     * @param claims   The verified claims of the JWT.
+     * @return True if the token is neither revoked nor expired, false otherwise.
+     */
+    public boolean isLive(String jwtToken, VerifiedClaims claims) {
+        ByteBuffer digest = digest(jwtToken);
+        Entry entry = entries.get(digest);
+        if (entry != null) {
+            return entry.live();
+        }
+
+        Optional<Token> token = tokenRepository.findByTokenDigest(digest.array());
+        if (token.isPresent()) {
+            apply(token.get(), digest, claims.expiration());
+            return token.get().isLive();
+        }
+        entries.put(digest, new Entry(null, claims.expiration(), false));
+        return false;
+    }
+
+    /**
+     * Records a newly issued token as live.
+     *
+     * @param userId    The ID of the token owner.
+     * @param jwtToken  The JWT.
+     * @param expiresAt The expiry of the JWT.
+     */
+    public void register(Long userId, String jwtToken, Instant expiresAt) {
+        markLive(digest(jwtToken), userId, expiresAt);
+    }
+
+    /**
+     * Records a single token as revoked.
+     *
+     * @param jwtToken The JWT.
+     */
+    public void revoke(String jwtToken) {
+        markRevoked(digest(jwtToken), null);
+    }
+
+    /**
+     * Records every live token of a user as revoked.
+     *
+     * @param userId The ID of the user.
+     */
+    public void revokeAll(Long userId) {
+        Set<ByteBuffer> digests = liveTokensByUser.remove(userId);
+        if (digests != null) {
+            digests.forEach(digest -> markRevoked(digest, null));
+        }
+    }
+
+    private void apply(Token token) {
+        if (token.getTokenDigest() == null) {
+            return;
+        }
+        apply(token, ByteBuffer.wrap(token.getTokenDigest()), null);
+    }
+
+    private void apply(Token token, ByteBuffer digest, Instant fallbackExpiry) {
+        Instant expiresAt = token.getExpiresAt() != null
+                ? token.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant()
+                : fallbackExpiry;
+        if (expiresAt == null) {
+            entries.remove(digest);
+            return;
+        }
+        if (token.isLive()) {
+            markLive(digest, token.getUser().getId(), expiresAt);
+        } else {
+            markRevoked(digest, expiresAt);
+        }
+    }
+
+    private void markLive(ByteBuffer digest, Long userId, Instant expiresAt) {
+        entries.put(digest, new Entry(userId, expiresAt, true));
+        liveTokensByUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(digest);
+    }
+
+    private void markRevoked(ByteBuffer digest, Instant expiresAt) {
+        Entry previous = entries.get(digest);
+        Instant expiry = expiresAt != null ? expiresAt : previous != null ? previous.expiresAt() : null;
+        if (expiry == null) {
+            entries.remove(digest);
+        } else {
+            entries.put(digest, new Entry(previous != null ? previous.userId() : null, expiry, false));
+        }
+        if (previous != null && previous.userId() != null) {
+            Set<ByteBuffer> digests = liveTokensByUser.get(previous.userId());
+            if (digests != null) {
+                digests.remove(digest);
+            }
+        }
+    }
+
+    private static ByteBuffer digest(String jwtToken) {
+        return ByteBuffer.wrap(DigestUtil.sha256(jwtToken));
+    }
+
+    private record Entry(Long userId, Instant expiresAt, boolean live) {
+        boolean isExpiredAt(Instant now) {
+            return expiresAt == null || !expiresAt.isAfter(now);
+        }
+    }
+}
@@ -1,28 +1,38 @@
 package chernandez.blockedsupplybackend.services;
 
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.clients.TransferBatcher;
 import chernandez.blockedsupplybackend.domain.Notification;
 import chernandez.blockedsupplybackend.domain.ShipmentRecord;
 import chernandez.blockedsupplybackend.domain.State;
 import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.BatchTransferInput;
 import chernandez.blockedsupplybackend.domain.dto.TransferInput;
 import chernandez.blockedsupplybackend.domain.dto.TransferOutput;
+import chernandez.blockedsupplybackend.domain.dto.UserIdentity;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerTransfer;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
 import chernandez.blockedsupplybackend.repositories.NotificationRepository;
 import chernandez.blockedsupplybackend.repositories.ShipmentRecordRepository;
 import chernandez.blockedsupplybackend.repositories.UserRepository;
-import chernandez.blockedsupplybackend.utils.EncryptionUtil;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.RestClientResponseException;
 
-import java.math.BigInteger;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Service for handling shipment transfer operations.
@@ -34,96 +44,164 @@ import java.util.Map;
 @Service
 public class TransferService {
 
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BrokerClient brokerClient;
+    private final TransferBatcher transferBatcher;
     private final ShipmentRecordRepository shipmentRecordRepository;
     private final UserRepository userRepository;
     private final NotificationRepository notificationRepository;
     private final AuthService authService;
+    private final AddressDirectory addressDirectory;
 
-    @Value("${application.broker.address}")
-    private String brokerBaseUrl;
-    @Value("${application.security.encryption.secret-key}")
-    private String encryptionKey;
-
-    public TransferService(ShipmentRecordRepository shipmentRecordRepository, UserRepository userRepository, NotificationRepository notificationRepository, AuthService authService) {
+    public TransferService(ShipmentRecordRepository shipmentRecordRepository, UserRepository userRepository, NotificationRepository notificationRepository, AuthService authService, AddressDirectory addressDirectory, BrokerClient brokerClient, TransferBatcher transferBatcher) {
         this.shipmentRecordRepository = shipmentRecordRepository;
         this.userRepository = userRepository;
         this.notificationRepository = notificationRepository;
         this.authService = authService;
+        this.addressDirectory = addressDirectory;
+        this.brokerClient = brokerClient;
+        this.transferBatcher = transferBatcher;
     }
 
     /**
-     * Transfers a shipment to a new owner.
+     * Sends a shipment transfer to the blockchain on behalf of a user, without waiting for it.
+     * <p>
+     * The input is validated again, since the transfer may have been submitted a while ago.
+     * Broker failures complete the returned future exceptionally, so that the caller can tell
+     * whether the transaction may have been sent.
+     * </p>
      *
-     * @param transferInput The input data for the transfer.
-     * @return A {@link ResponseEntity} with the result of the transfer operation.
-     * @throws Exception if an error occurs during the transfer.
+     * @param transferInput The input data for the transfer, with the new owner's email.
+     * @param user          The user sending the transfer.
+     * @return A future completed with a {@link ResponseEntity} holding the {@link TransferResult}
+     * and status 200, or the validation error.
+     * @throws Exception if the addresses of the parties cannot be read.
      */
-    public ResponseEntity<?> transferShipment(TransferInput transferInput) throws Exception {
-        ResponseEntity<?> validationResult = checkTransferInputs(transferInput);
-        if (validationResult != null) {
-            return validationResult;
-        }
-
-        User user = authService.getUserFromJWT();
-        if (user.getBlockchainAddress() == null) {
-            return new ResponseEntity<>("User does not have a blockchain address", HttpStatus.FORBIDDEN);
-        }
-        transferInput.setFrom(EncryptionUtil.decrypt(encryptionKey, user.getBlockchainAddress()));
-
-        ResponseEntity<?> validationResponse = validateAndSetNewOwner(transferInput);
+    public CompletableFuture<ResponseEntity<?>> submitTransfer(TransferInput transferInput, User user) throws Exception {
+        ResponseEntity<?> validationResponse = checkTransfer(transferInput, user);
         if (validationResponse.getStatusCode() != HttpStatus.OK) {
-            return validationResponse;
+            return CompletableFuture.completedFuture(validationResponse);
         }
 
-        User newOwner = (User) validationResponse.getBody();
-
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            HttpEntity<TransferInput> request = new HttpEntity<>(transferInput, headers);
-
-            String url = brokerBaseUrl + "/api/shipments/" + transferInput.getShipmentId() + "/transfer";
-            ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-
-            if (response.getStatusCode() == HttpStatus.OK) {
+        return submitValidatedTransfer(transferInput, user, (User) validationResponse.getBody())
+                .thenApply(result -> new ResponseEntity<>(result, HttpStatus.OK));
+    }
 
-                JsonNode responseBody = objectMapper.readTree(response.getBody());
-                int shipmentId = responseBody.get("shipmentId").asInt();
-                int newState = responseBody.get("newState").asInt();
+    /**
+     * Sends a transfer whose sender and new owner have already been checked to the blockchain,
+     * without waiting for it.
+     * <p>
+     * Concurrent transfers of the same sender are grouped into batch transactions by the
+     * {@link TransferBatcher}.
+     * </p>
+     *
+     * @param transferInput The input data for the transfer.
+     * @param user          The user sending the transfer.
+     * @param newOwner      The new owner of the shipment.
+     * @return A future completed with the transfer returned by the broker, or with the broker error.
+     * @throws Exception if the addresses of the parties cannot be read.
+     */
+    public CompletableFuture<TransferResult> submitValidatedTransfer(TransferInput transferInput, User user,
+                                                                    User newOwner) throws Exception {
+        transferInput.setFrom(addressDirectory.addressOf(user));
+        transferInput.setNewShipmentOwner(addressDirectory.addressOf(newOwner));
+        return transferBatcher.submit(transferInput.getShipmentId(), transferInput);
+    }
 
-                ShipmentRecord shipmentRecord = shipmentRecordRepository.findById((long) shipmentId).orElse(null);
-                if (shipmentRecord == null) {
-                    return new ResponseEntity<>("Shipment record not found", HttpStatus.NOT_FOUND);
-                }
+    /**
+     * Records a transfer that is already on the blockchain and notifies the new owner.
+     * <p>
+     * Recording the same transfer again leaves the shipment record unchanged, so the caller
+     * only has to make sure the notification is not sent twice.
+     * </p>
+     *
+     * @param result        The transfer returned by the broker.
+     * @param user          The user that sent the transfer.
+     * @param newOwnerEmail The email of the new owner.
+     * @param transferNotes The notes of the transfer.
+     * @return A {@link ResponseEntity} with the result of the transfer operation.
+     */
+    public ResponseEntity<?> recordTransfer(TransferResult result, User user, String newOwnerEmail, String transferNotes) {
+        User newOwner = userRepository.findByEmail(newOwnerEmail).orElse(null);
+        if (newOwner == null) {
+            return new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND);
+        }
+        int shipmentId = (int) result.shipmentId();
+        int newState = result.newState();
 
-                State newStateEnum = State.fromInt(newState);
-                shipmentRecord.setState(newStateEnum);
-                if (newStateEnum == State.DELIVERED) {
-                    shipmentRecord.setDeliveredAt(LocalDateTime.now());
-                }
+        ShipmentRecord shipmentRecord = shipmentRecordRepository.findById((long) shipmentId).orElse(null);
+        if (shipmentRecord == null) {
+            return new ResponseEntity<>("Shipment record not found", HttpStatus.NOT_FOUND);
+        }
 
-                shipmentRecord.setOwnerId(newOwner.getId());
-                shipmentRecord.setOwnerAddress(newOwner.getBlockchainAddress());
-                shipmentRecord.addParticipant(newOwner.getId());
-                shipmentRecordRepository.save(shipmentRecord);
+        applyTransfer(shipmentRecord, newOwner, State.fromInt(newState));
+        shipmentRecordRepository.save(shipmentRecord);
 
-                //if the new owner is different from the current owner, send a notification
-                if (!user.getId().equals(newOwner.getId())) {
-                    sendNotification(user.getEmail(), newOwner.getId(), newState, transferInput.getTransferNotes());
-                }
+        //if the new owner is different from the current owner, send a notification
+        if (!user.getId().equals(newOwner.getId())) {
+            sendNotification(user.getEmail(), newOwner.getId(), newState, transferNotes);
+        }
 
-                return new ResponseEntity<>(responseBody, response.getStatusCode());
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
 
+    /**
+     * Records several transfers of a batch, all to the same new owner, and sends the new owner
+     * a single notification for all of them, with the number of shipments in each new state.
+     *
+     * @param results       The transfers returned by the broker.
+     * @param user          The user that sent the transfers.
+     * @param newOwner      The new owner of the shipments.
+     * @param transferNotes The notes of the transfers.
+     * @return The IDs of the shipments that have no record.
+     */
+    public Set<Long> recordTransfers(List<TransferResult> results, User user, User newOwner, String transferNotes) {
+        Map<Long, ShipmentRecord> records = shipmentRecordRepository.findAllById(
+                        results.stream().map(TransferResult::shipmentId).toList())
+                .stream()
+                .collect(Collectors.toMap(ShipmentRecord::getShipmentId, Function.identity()));
+
+        Set<Long> missing = new HashSet<>();
+        Map<State, Integer> states = new EnumMap<>(State.class);
+        for (TransferResult result : results) {
+            ShipmentRecord shipmentRecord = records.get(result.shipmentId());
+            if (shipmentRecord == null) {
+                missing.add(result.shipmentId());
             } else {
-                return new ResponseEntity<>("Failed to transfer shipment: " + response.getBody(), response.getStatusCode());
+                State state = State.fromInt(result.newState());
+                applyTransfer(shipmentRecord, newOwner, state);
+                states.merge(state, 1, Integer::sum);
             }
+        }
+        shipmentRecordRepository.saveAll(records.values());
+
+        int transferred = results.size() - missing.size();
+        if (transferred > 0 && !user.getId().equals(newOwner.getId())) {
+            Notification notification = new Notification();
+            notification.setToUserId(newOwner.getId());
+            String stateString = states.size() == 1
+                    ? "State: " + states.keySet().iterator().next()
+                    : states.entrySet().stream()
+                    .map(state -> state.getKey() + " (" + state.getValue() + ")")
+                    .collect(Collectors.joining(", ", "States: ", ""));
+            notification.setMessage("A user with email " + user.getEmail() + " transferred " + transferred +
+                    " shipments to you. " + stateString + ". Notes: " + transferNotes);
+            notificationRepository.save(notification);
+        }
+        return missing;
+    }
 
-        } catch (Exception e) {
-            return new ResponseEntity<>("Failed to transfer shipment: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Converts a failed transfer into the response of the transfer endpoint.
+     *
+     * @param e The failure.
+     * @return A {@link ResponseEntity} with the error.
+     */
+    public ResponseEntity<?> transferFailed(Exception e) {
+        if (e instanceof RestClientResponseException responseException) {
+            return new ResponseEntity<>("Failed to transfer shipment: " + responseException.getResponseBodyAsString(),
+                    responseException.getStatusCode());
         }
+        return new ResponseEntity<>("Failed to transfer shipment: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     /**
@@ -144,37 +222,34 @@ public class TransferService {
         }
 
         try {
-            String url = brokerBaseUrl + "/api/shipments/" + record.getShipmentId() + "/transfers";
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                ObjectMapper mapper = new ObjectMapper();
-                List<Map<String, Object>> transferList = mapper.readValue(response.getBody(), new TypeReference<>() {
-                });
-                List<TransferOutput> transfers = new ArrayList<>();
-
-                for (Map<String, Object> transfer : transferList) {
-                    String blockchainAddress = EncryptionUtil.encrypt(encryptionKey, transfer.get("newShipmentOwner").toString());
-                    User newShipmentOwner = userRepository.findByBlockchainAddress(blockchainAddress).orElse(null);
-                    String email = (newShipmentOwner != null) ? newShipmentOwner.getEmail() : "Unknown";
-
-                    TransferOutput t = new TransferOutput(
-                            Integer.parseInt(transfer.get("id").toString()),
-                            Integer.parseInt(transfer.get("shipmentId").toString()),
-                            Integer.parseInt(transfer.get("timestamp").toString()),
-                            State.fromBigInt(new BigInteger(transfer.get("newState").toString())),
-                            transfer.get("location").toString(),
-                            email,
-                            transfer.get("transferNotes").toString()
-                    );
-                    transfers.add(t);
-                }
-
-                return new ResponseEntity<>(transfers, HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>("Failed to retrieve transfer history", response.getStatusCode());
+            List<BrokerTransfer> transferList = brokerClient.getTransfers(record.getShipmentId());
+            List<TransferOutput> transfers = new ArrayList<>(transferList.size());
+
+            Map<String, UserIdentity> owners = addressDirectory.resolveAll(
+                    transferList.stream().map(BrokerTransfer::newShipmentOwner).toList());
+
+            for (BrokerTransfer transfer : transferList) {
+                UserIdentity newShipmentOwner = owners.get(transfer.newShipmentOwner());
+                String email = (newShipmentOwner != null) ? newShipmentOwner.email() : "Unknown";
+
+                TransferOutput t = new TransferOutput(
+                        (int) transfer.id(),
+                        (int) transfer.shipmentId(),
+                        (int) transfer.timestamp(),
+                        State.fromInt(transfer.newState()),
+                        transfer.location(),
+                        email,
+                        transfer.transferNotes()
+                );
+                transfers.add(t);
             }
 
+            return new ResponseEntity<>(transfers, HttpStatus.OK);
+
+        } catch (RestClientResponseException e) {
+            return new ResponseEntity<>("Failed to retrieve transfer history", e.getStatusCode());
+        } catch (CapacityExceededException | DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return new ResponseEntity<>("Error while retrieving transfer history: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -187,10 +262,9 @@ public class TransferService {
      */
     public ResponseEntity<?> getNextTransferId() {
         try {
-            String url = brokerBaseUrl + "/api/transfers/next-id";
-            ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
-            JsonNode jsonResponse = objectMapper.readTree(response.getBody());
-            return new ResponseEntity<>(jsonResponse, response.getStatusCode());
+            return new ResponseEntity<>(brokerClient.getNextTransferId(), HttpStatus.OK);
+        } catch (CapacityExceededException | DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             return new ResponseEntity<>("Failed to retrieve next transfer ID: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -207,6 +281,10 @@ public class TransferService {
         if (transferInput.getShipmentId() <= 0) {
             return new ResponseEntity<>("Invalid shipment ID", HttpStatus.BAD_REQUEST);
         }
+        return checkTransferFields(transferInput);
+    }
+
+    private ResponseEntity<?> checkTransferFields(TransferInput transferInput) {
         if (transferInput.getNewShipmentOwner() == null || transferInput.getNewShipmentOwner().trim().isEmpty()) {
             return new ResponseEntity<>("New shipment owner cannot be empty", HttpStatus.BAD_REQUEST);
         }
@@ -226,23 +304,102 @@ public class TransferService {
         return null;
     }
 
-    private ResponseEntity<?> validateAndSetNewOwner(TransferInput transferInput) throws Exception {
-        try {
-            String newOwnerMail = transferInput.getNewShipmentOwner();
-            User newOwner = userRepository.findByEmail(newOwnerMail).orElse(null);
+    /**
+     * Checks whether a user can send a transfer, without contacting the blockchain.
+     *
+     * @param transferInput The input data for the transfer, with the new owner's email.
+     * @param user          The user sending the transfer.
+     * @return A {@link ResponseEntity} with the error, or null if the transfer can be sent.
+     */
+    public ResponseEntity<?> validateTransfer(TransferInput transferInput, User user) {
+        ResponseEntity<?> validationResponse = checkTransfer(transferInput, user);
+        return validationResponse.getStatusCode() == HttpStatus.OK ? null : validationResponse;
+    }
 
-            if (newOwner == null) {
-                return new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND);
-            } else if (newOwner.getBlockchainAddress() == null) {
-                return new ResponseEntity<>("New owner does not have a blockchain address", HttpStatus.FORBIDDEN);
+    /**
+     * Checks the fields and parties shared by the transfers of a batch, without contacting the
+     * blockchain, and finds the new owner.
+     *
+     * @param batchTransferInput The input data for the transfers, with the new owner's email.
+     * @param user               The user sending the transfers.
+     * @return The new owner with status 200, or the error.
+     */
+    public ResponseEntity<?> checkBatchTransfer(BatchTransferInput batchTransferInput, User user) {
+        if (batchTransferInput == null || batchTransferInput.getShipmentIds() == null
+                || batchTransferInput.getShipmentIds().isEmpty()) {
+            return new ResponseEntity<>("At least one shipment is required", HttpStatus.BAD_REQUEST);
+        }
+        ResponseEntity<?> validationResult = checkTransferFields(batchTransferInput.toTransfer(0));
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return checkParties(batchTransferInput.getNewShipmentOwner(), user);
+    }
+
+    /**
+     * Finds the shipments of a batch transfer that cannot be transferred.
+     *
+     * @param shipmentIds The IDs of the shipments, in request order.
+     * @return The reason each rejected shipment cannot be transferred, by position in the request.
+     */
+    public Map<Integer, String> rejectedShipments(List<Integer> shipmentIds) {
+        Set<Long> existing = shipmentRecordRepository.findAllById(
+                        shipmentIds.stream().filter(Objects::nonNull).map(Integer::longValue).toList())
+                .stream()
+                .map(ShipmentRecord::getShipmentId)
+                .collect(Collectors.toSet());
+
+        Map<Integer, String> rejected = new HashMap<>();
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < shipmentIds.size(); i++) {
+            Integer shipmentId = shipmentIds.get(i);
+            if (shipmentId == null || shipmentId <= 0) {
+                rejected.put(i, "Invalid shipment ID");
+            } else if (!existing.contains(shipmentId.longValue())) {
+                rejected.put(i, "Shipment not found");
+            } else if (!seen.add(shipmentId)) {
+                rejected.put(i, "Duplicate shipment in request");
             }
+        }
+        return rejected;
+    }
+
+    /**
+     * Runs every check on a transfer and finds the new owner.
+     *
+     * @return The new owner with status 200, or the error.
+     */
+    private ResponseEntity<?> checkTransfer(TransferInput transferInput, User user) {
+        ResponseEntity<?> validationResult = checkTransferInputs(transferInput);
+        if (validationResult != null) {
+            return validationResult;
+        }
+        return checkParties(transferInput.getNewShipmentOwner(), user);
+    }
+
+    private ResponseEntity<?> checkParties(String newOwnerEmail, User user) {
+        if (user.getBlockchainAddress() == null) {
+            return new ResponseEntity<>("User does not have a blockchain address", HttpStatus.FORBIDDEN);
+        }
 
-            transferInput.setNewShipmentOwner(EncryptionUtil.decrypt(encryptionKey, newOwner.getBlockchainAddress()));
-            return new ResponseEntity<>(newOwner, HttpStatus.OK);
+        User newOwner = userRepository.findByEmail(newOwnerEmail).orElse(null);
+        if (newOwner == null) {
+            return new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND);
+        } else if (newOwner.getBlockchainAddress() == null) {
+            return new ResponseEntity<>("New owner does not have a blockchain address", HttpStatus.FORBIDDEN);
+        }
+        return new ResponseEntity<>(newOwner, HttpStatus.OK);
+    }
 
-        } catch (NumberFormatException e) {
-            return new ResponseEntity<>("Invalid new shipment owner", HttpStatus.BAD_REQUEST);
+    private static void applyTransfer(ShipmentRecord shipmentRecord, User newOwner, State newState) {
+        shipmentRecord.setState(newState);
+        if (newState == State.DELIVERED && shipmentRecord.getDeliveredAt() == null) {
+            shipmentRecord.setDeliveredAt(LocalDateTime.now());
         }
+
+        shipmentRecord.setOwnerId(newOwner.getId());
+        shipmentRecord.setOwnerAddress(newOwner.getBlockchainAddress());
+        shipmentRecord.addParticipant(newOwner.getId());
     }
 
     private void sendNotification(String from, Long toUserId, int state, String notes) {
@@ -0,0 +1,225 @@
+package chernandez.blockedsupplybackend.services;
+
+import chernandez.blockedsupplybackend.config.BoundedPasswordEncoder;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.auth.ProvisioningResult;
+import chernandez.blockedsupplybackend.domain.dto.auth.RegisterRequest;
+import chernandez.blockedsupplybackend.domain.dto.auth.TokenResponse;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Service for creating many users in a single request.
+ * <p>
+ * This class validates the whole batch up front, checks email uniqueness with one query,
+ * hashes the passwords in parallel on the password hashing pool, claims blockchain addresses
+ * in one pass and stores users and tokens with batched inserts, retried one user at a time
+ * if a batch fails. Each user is reported as created or failed; a failed user never prevents
+ * the others from being created. A user whose tokens cannot be issued is still reported as
+ * created, with a message and no tokens.
+ * </p>
+ */
+@Service
+public class UserProvisioningService {
+
+    private static final Logger log = LoggerFactory.getLogger(UserProvisioningService.class);
+
+    private final AuthService authService;
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final BlockchainAccountService blockchainAccountService;
+    private final EncryptionService encryptionService;
+    private final AddressDirectory addressDirectory;
+
+    @Value("${application.admin.provisioning.max-batch-size:1000}")
+    private int maxBatchSize;
+
+    public UserProvisioningService(AuthService authService, UserRepository userRepository,
+                                   PasswordEncoder passwordEncoder, BlockchainAccountService blockchainAccountService,
+                                   EncryptionService encryptionService, AddressDirectory addressDirectory) {
+        this.authService = authService;
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.blockchainAccountService = blockchainAccountService;
+        this.encryptionService = encryptionService;
+        this.addressDirectory = addressDirectory;
+    }
+
+    /**
+     * Creates a batch of users.
+     *
+     * @param requests The registration requests, one per user.
+     * @return A {@link ResponseEntity} with one {@link ProvisioningResult} per request, in request order.
+     * @throws Exception If an address cannot be encrypted.
+     */
+    public ResponseEntity<?> provision(List<RegisterRequest> requests) throws Exception {
+        if (requests == null || requests.isEmpty()) {
+            return ResponseEntity.badRequest().body("At least one user is required");
+        }
+        if (requests.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body("At most " + maxBatchSize + " users can be provisioned at once");
+        }
+
+        ProvisioningResult[] results = new ProvisioningResult[requests.size()];
+        List<Integer> accepted = new ArrayList<>(requests.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            RegisterRequest request = requests.get(i);
+            String error = request == null ? "Email, password and name cannot be null" : authService.validateRegisterFields(request);
+            if (error == null && !seen.add(normalize(request.email()))) {
+                error = "Duplicate email in request";
+            }
+            if (error != null) {
+                results[i] = ProvisioningResult.failed(request != null ? request.email() : null, error);
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            Set<String> existing = userRepository.findExistingEmails(accepted.stream().map(i -> requests.get(i).email()).toList())
+                    .stream()
+                    .map(UserProvisioningService::normalize)
+                    .collect(Collectors.toSet());
+            accepted.removeIf(i -> {
+                if (existing.contains(normalize(requests.get(i).email()))) {
+                    results[i] = ProvisioningResult.failed(requests.get(i).email(), "Email already in use");
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        if (!accepted.isEmpty()) {
+            create(requests, accepted, results);
+        }
+        return ResponseEntity.ok(Arrays.asList(results));
+    }
+
+    private void create(List<RegisterRequest> requests, List<Integer> accepted, ProvisioningResult[] results) throws Exception {
+        List<String> passwords = accepted.stream().map(i -> requests.get(i).password()).toList();
+        List<String> hashes = passwordEncoder instanceof BoundedPasswordEncoder bounded
+                ? bounded.encodeAll(passwords)
+                : passwords.stream().map(passwordEncoder::encode).toList();
+
+        Map<String, String> addresses = blockchainAccountService.claimAddresses(
+                accepted.stream().map(i -> requests.get(i).email()).toList());
+
+        List<Integer> created = new ArrayList<>(accepted.size());
+        List<User> users = new ArrayList<>(accepted.size());
+        for (int j = 0; j < accepted.size(); j++) {
+            int i = accepted.get(j);
+            RegisterRequest request = requests.get(i);
+            String address = addresses.get(request.email());
+            if (address == null) {
+                results[i] = ProvisioningResult.failed(request.email(), "No available blockchain addresses.");
+                continue;
+            }
+            users.add(User.builder()
+                    .name(request.name())
+                    .email(request.email())
+                    .password(hashes.get(j))
+                    .blockchainAddress(encryptionService.encrypt(address))
+                    .build());
+            created.add(i);
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        List<User> savedUsers = saveUsers(users);
+        List<User> saved = new ArrayList<>(savedUsers.size());
+        List<Integer> savedIndexes = new ArrayList<>(savedUsers.size());
+        for (int j = 0; j < created.size(); j++) {
+            int i = created.get(j);
+            String email = requests.get(i).email();
+            if (savedUsers.get(j) == null) {
+                blockchainAccountService.releaseAddress(addresses.get(email), email);
+                results[i] = ProvisioningResult.failed(email, "User could not be saved");
+            } else {
+                saved.add(savedUsers.get(j));
+                savedIndexes.add(i);
+            }
+        }
+        if (saved.isEmpty()) {
+            return;
+        }
+
+        List<TokenResponse> tokens = issueTokens(saved);
+        for (int j = 0; j < savedIndexes.size(); j++) {
+            int i = savedIndexes.get(j);
+            String email = requests.get(i).email();
+            addressDirectory.register(saved.get(j), addresses.get(email));
+            results[i] = tokens.get(j) != null
+                    ? ProvisioningResult.created(email, tokens.get(j))
+                    : ProvisioningResult.createdWithoutTokens(email, "User created, but tokens could not be issued; log in to obtain them");
+        }
+    }
+
+    /**
+     * Saves the users in one batch, falling back to one user at a time if the batch fails, so
+     * that only the users that cannot be stored are left out.
+     *
+     * @return The saved users, in order, with null for each user that could not be saved.
+     */
+    private List<User> saveUsers(List<User> users) {
+        try {
+            return userRepository.saveAll(users);
+        } catch (RuntimeException e) {
+            log.warn("Saving {} users failed, retrying one by one", users.size(), e);
+        }
+        List<User> saved = new ArrayList<>(users.size());
+        for (int j = 0; j < users.size(); j++) {
+            User user = users.get(j);
+            // The rolled back batch may have assigned an ID that no row holds
+            user.setId(null);
+            try {
+                saved.add(userRepository.save(user));
+            } catch (RuntimeException e) {
+                log.error("Saving user {} of {} failed", j + 1, users.size(), e);
+                saved.add(null);
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Issues the initial tokens of the saved users, falling back to one user at a time if the
+     * batch fails, so that only the users whose tokens cannot be stored are left without them.
+     */
+    private List<TokenResponse> issueTokens(List<User> users) {
+        try {
+            return authService.issueInitialTokens(users);
+        } catch (RuntimeException e) {
+            log.warn("Issuing initial tokens for {} users failed, retrying one by one", users.size(), e);
+        }
+        List<TokenResponse> tokens = new ArrayList<>(users.size());
+        for (User user : users) {
+            try {
+                tokens.add(authService.issueInitialTokens(List.of(user)).get(0));
+            } catch (RuntimeException e) {
+                log.error("Issuing initial tokens for user {} failed", user.getId(), e);
+                tokens.add(null);
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
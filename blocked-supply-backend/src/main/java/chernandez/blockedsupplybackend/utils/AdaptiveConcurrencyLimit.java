@@ -0,0 +1,118 @@
+package chernandez.blockedsupplybackend.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A concurrency limit that adapts to the observed latency, in the style of a gradient limiter.
+ * <p>
+ * The limit tracks a long-term average of the request latency as the "no queueing" baseline.
+ * When recent requests are slower than the baseline, requests are queueing somewhere
+ * downstream and the limit shrinks in proportion; when they are as fast as the baseline, the
+ * limit grows by roughly its square root, probing for more capacity. Requests that fail with
+ * an overload or server error shrink the limit multiplicatively. Requests beyond the limit are
+ * not admitted, so excess load is shed instead of queued.
+ * </p>
+ * <p>
+ * Admission is lock-free; only the limit update, which does no I/O, is synchronized.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private double longRtt;
+
+    /**
+     * Constructs a new AdaptiveConcurrencyLimit.
+     *
+     * @param initialLimit The limit before any latency has been observed.
+     * @param minLimit     The lowest the limit can shrink to.
+     * @param maxLimit     The highest the limit can grow to.
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Admits a request if the number of requests in flight is below the limit.
+     *
+     * @return The number of requests in flight including this one, or -1 if the request is rejected.
+     */
+    public int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request and feeds its outcome into the limit.
+     *
+     * @param rttNanos The latency of the request, in nanoseconds.
+     * @param inFlightAtStart The value returned by {@link #tryAcquire()} for the request.
+     * @param overloaded Whether the request failed because a downstream resource was overloaded.
+     */
+    public void release(long rttNanos, int inFlightAtStart, boolean overloaded) {
+        inFlight.decrementAndGet();
+        update(rttNanos, inFlightAtStart, overloaded);
+    }
+
+    private synchronized void update(long rttNanos, int inFlightAtStart, boolean overloaded) {
+        double current = limit;
+        double next;
+        if (overloaded) {
+            next = current * BACKOFF_RATIO;
+        } else {
+            if (longRtt == 0) {
+                longRtt = rttNanos;
+            } else {
+                longRtt += (rttNanos - longRtt) / LONG_WINDOW;
+                // Let the baseline follow a lasting drop in latency quickly.
+                if (longRtt > rttNanos * 2) {
+                    longRtt = longRtt * 0.95;
+                }
+            }
+            // Growing while the limit is not even half used would only let a later burst through unchecked.
+            if (inFlightAtStart < current / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / Math.max(1, rttNanos)));
+            next = current * gradient + Math.sqrt(current);
+            next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return The maximum number of requests admitted concurrently.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of admitted requests that have not been released.
+     *
+     * @return The number of requests in flight.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
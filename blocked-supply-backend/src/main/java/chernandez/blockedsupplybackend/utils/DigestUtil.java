@@ -0,0 +1,31 @@
+package chernandez.blockedsupplybackend.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A utility class for computing message digests.
+ * <p>
+ * This class provides static methods for hashing tokens into fixed-width digests
+ * that can be used as lookup keys.
+ * </p>
+ */
+public class DigestUtil {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Computes the SHA-256 digest of a string.
+     *
+     * @param value The string to hash.
+     * @return The 32-byte digest of the UTF-8 encoded value.
+     */
+    public static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance(ALGORITHM).digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
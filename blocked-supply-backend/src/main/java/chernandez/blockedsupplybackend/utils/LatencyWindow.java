@@ -0,0 +1,61 @@
+package chernandez.blockedsupplybackend.utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and reports a percentile over them.
+ * <p>
+ * Samples are stored in a fixed-size ring. The percentile is recomputed every eighth of the
+ * window rather than on every read, so asking for it is cheap enough to do on every call.
+ * </p>
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private final int refreshInterval;
+    private final double percentile;
+
+    private int next;
+    private int count;
+    private int sinceRefresh;
+    private volatile long cached = -1;
+
+    /**
+     * Constructs a new LatencyWindow.
+     *
+     * @param size       The number of recent samples to keep.
+     * @param percentile The percentile to report, between 0 and 100.
+     */
+    public LatencyWindow(int size, double percentile) {
+        this.samples = new long[size];
+        this.refreshInterval = Math.max(1, size / 8);
+        this.percentile = percentile;
+    }
+
+    /**
+     * Records a latency sample.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        if (++sinceRefresh >= refreshInterval && count >= refreshInterval) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            cached = sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    /**
+     * Returns the configured percentile of the recent samples.
+     *
+     * @return The latency, in nanoseconds, or -1 if too few samples have been recorded yet.
+     */
+    public long percentile() {
+        return cached;
+    }
+}
@@ -0,0 +1,138 @@
+package chernandez.blockedsupplybackend.utils;
+
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Holds the deadline of the request being processed by the current thread.
+ * <p>
+ * The deadline is set when the request enters the application and read by the broker client
+ * and the transaction manager, which use the remaining time as their timeout. Threads
+ * without a deadline run without a time budget.
+ * </p>
+ */
+public final class RequestDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Sets the deadline of the current thread.
+     *
+     * @param timeoutMillis The time budget from now, in milliseconds.
+     */
+    public static void start(long timeoutMillis) {
+        DEADLINE.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * Removes the deadline of the current thread.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Returns the time left before the deadline.
+     *
+     * @return The remaining milliseconds, possibly zero or negative, or empty if there is no deadline.
+     */
+    public static OptionalLong remainingMillis() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Checks whether the deadline of the current thread has passed.
+     *
+     * @return True if there is a deadline and it has passed, false otherwise.
+     */
+    public static boolean isExpired() {
+        OptionalLong remaining = remainingMillis();
+        return remaining.isPresent() && remaining.getAsLong() <= 0;
+    }
+
+    /**
+     * Fails if the deadline of the current thread has passed.
+     *
+     * @param operation A description of the work that was about to start.
+     * @throws DeadlineExceededException if the deadline has passed.
+     */
+    public static void check(String operation) {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Request deadline exceeded before " + operation);
+        }
+    }
+
+    /**
+     * Wraps work so that it runs under the deadline of the current thread, for handing it to
+     * another thread.
+     *
+     * @param work The work to run.
+     * @param <T>  The result type.
+     * @return The work bound to the current deadline.
+     */
+    public static <T> Supplier<T> bind(Supplier<T> work) {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return work;
+        }
+        return () -> {
+            Long previous = DEADLINE.get();
+            DEADLINE.set(deadline);
+            try {
+                return work.get();
+            } finally {
+                if (previous != null) {
+                    DEADLINE.set(previous);
+                } else {
+                    DEADLINE.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits for a result computed by another thread, no longer than the deadline of the
+     * current thread. Exceptions of the computation are rethrown as they are.
+     *
+     * @param future    The pending result.
+     * @param operation A description of what is being waited for.
+     * @param <T>       The result type.
+     * @return The result.
+     * @throws DeadlineExceededException if the deadline passes first.
+     */
+    public static <T> T await(Future<T> future, String operation) {
+        try {
+            OptionalLong remaining = remainingMillis();
+            if (remaining.isEmpty()) {
+                return future.get();
+            }
+            return future.get(Math.max(0, remaining.getAsLong()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Request deadline exceeded while waiting for " + operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + operation, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package chernandez.blockedsupplybackend.utils;
+
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls into a single one.
+ * <p>
+ * The first caller for a key runs the call; callers arriving while it is in flight wait for
+ * it and receive the same result or exception. Nothing is cached: once the call completes, the
+ * next caller for the key starts a new one, so results are never older than the call itself.
+ * </p>
+ * <p>
+ * Waiters give up when their own {@link RequestDeadline} passes. If the shared call failed only
+ * because the deadline of the caller that ran it passed, waiters with time left try again.
+ * </p>
+ *
+ * @param <K> The key type.
+ * @param <V> The result type.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the call for the key, or joins the one already in flight.
+     *
+     * @param key  The key identifying the call.
+     * @param call The call to run if none is in flight.
+     * @return The result of the call.
+     */
+    public V execute(K key, Supplier<V> call) {
+        while (true) {
+            CompletableFuture<V> own = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, own);
+            if (running == null) {
+                return run(key, own, call);
+            }
+            try {
+                return RequestDeadline.await(running, "a shared broker call");
+            } catch (DeadlineExceededException e) {
+                if (RequestDeadline.isExpired()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of calls currently in flight.
+     *
+     * @return The number of distinct keys being called.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    private V run(K key, CompletableFuture<V> own, Supplier<V> call) {
+        try {
+            V result = call.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.utils.AdaptiveConcurrencyLimit;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the adaptive concurrency limit.
+ */
+public class AdaptiveConcurrencyLimitTests {
+
+    /**
+     * Tests that requests beyond the limit are rejected until one is released.
+     */
+    @Test
+    void rejectsBeyondLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+
+        int first = limit.tryAcquire();
+        assertEquals(1, first);
+        assertEquals(2, limit.tryAcquire());
+        assertEquals(-1, limit.tryAcquire());
+
+        limit.release(millis(50), first, false);
+        assertEquals(2, limit.tryAcquire());
+    }
+
+    /**
+     * Tests that the limit grows while latency stays at its baseline and the limit is in use.
+     */
+    @Test
+    void growsAtSteadyLatency() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 100);
+
+        for (int i = 0; i < 50; i++) {
+            saturate(limit, millis(50));
+        }
+
+        assertTrue(limit.getLimit() > 10, "limit was " + limit.getLimit());
+    }
+
+    /**
+     * Tests that the limit shrinks when latency rises well above its baseline.
+     */
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(40, 2, 100);
+        for (int i = 0; i < 20; i++) {
+            saturate(limit, millis(50));
+        }
+        int before = limit.getLimit();
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limit, millis(1000));
+        }
+
+        assertTrue(limit.getLimit() < before / 2, "limit went from " + before + " to " + limit.getLimit());
+    }
+
+    /**
+     * Tests that overload failures back off multiplicatively down to the minimum.
+     */
+    @Test
+    void backsOffOnOverload() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 3, 100);
+
+        for (int i = 0; i < 100; i++) {
+            limit.release(millis(10), limit.tryAcquire(), true);
+        }
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    private static void saturate(AdaptiveConcurrencyLimit limit, long rtt) {
+        int admitted = limit.getLimit();
+        int[] inFlight = new int[admitted];
+        for (int i = 0; i < admitted; i++) {
+            inFlight[i] = limit.tryAcquire();
+        }
+        for (int i = 0; i < admitted; i++) {
+            limit.release(rtt, inFlight[i], false);
+        }
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,99 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.UserIdentity;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AddressDirectory;
+import chernandez.blockedsupplybackend.services.EncryptionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the address directory.
+ */
+public class AddressDirectoryTests {
+
+    private static final String ALICE = "0x90F8bf6A479f320ead074411a4B0e7944Ea8c9C1";
+    private static final String BOB = "0xFFcf8FDEE72ac11b5c542428B35EEF5769C409f0";
+
+    private final EncryptionService encryptionService = new EncryptionService("0123456789abcdef");
+    private UserRepository userRepository;
+    private AddressDirectory addressDirectory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userRepository = mock(UserRepository.class);
+        addressDirectory = new AddressDirectory(userRepository, encryptionService);
+        when(userRepository.findAllByBlockchainAddressIsNotNull())
+                .thenReturn(List.of(view(1L, "alice@example.com", ALICE)));
+        addressDirectory.load();
+    }
+
+    /**
+     * Tests that loaded and registered addresses resolve without querying the database.
+     */
+    @Test
+    void resolvesKnownAddressesFromMemory() throws Exception {
+        addressDirectory.register(User.builder().id(2L).email("bob@example.com").build(), BOB);
+
+        Map<String, UserIdentity> owners = addressDirectory.resolveAll(List.of(ALICE, BOB, ALICE.toLowerCase()));
+
+        assertEquals(new UserIdentity(1L, "alice@example.com"), owners.get(ALICE));
+        assertEquals(new UserIdentity(2L, "bob@example.com"), owners.get(BOB));
+        assertEquals(owners.get(ALICE), owners.get(ALICE.toLowerCase()));
+        verify(userRepository, never()).findAddressViewsByBlockchainAddressIn(any());
+    }
+
+    /**
+     * Tests that unknown addresses are looked up once and then remembered.
+     */
+    @Test
+    void looksUpUnknownAddressesOnce() throws Exception {
+        String encryptedBob = encryptionService.encrypt(BOB);
+        when(userRepository.findAddressViewsByBlockchainAddressIn(any()))
+                .thenReturn(List.of(view(2L, "bob@example.com", BOB)));
+
+        assertEquals("bob@example.com", addressDirectory.resolve(BOB).orElseThrow().email());
+        assertEquals("bob@example.com", addressDirectory.resolve(BOB).orElseThrow().email());
+
+        verify(userRepository, times(1)).findAddressViewsByBlockchainAddressIn(Set.of(encryptedBob));
+    }
+
+    /**
+     * Tests that the plain address of a user is served from memory.
+     */
+    @Test
+    void returnsAddressOfUser() throws Exception {
+        User alice = User.builder().id(1L).email("alice@example.com").blockchainAddress("not-decryptable").build();
+
+        assertEquals(ALICE, addressDirectory.addressOf(alice));
+    }
+
+    private UserRepository.AddressView view(Long id, String email, String address) throws Exception {
+        String encrypted = encryptionService.encrypt(address);
+        return new UserRepository.AddressView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getEmail() {
+                return email;
+            }
+
+            @Override
+            public String getBlockchainAddress() {
+                return encrypted;
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.config.AdminRoleSeeder;
+import chernandez.blockedsupplybackend.controllers.AdminController;
+import chernandez.blockedsupplybackend.domain.AuthenticatedUser;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.auth.ProvisioningResult;
+import chernandez.blockedsupplybackend.domain.dto.auth.RegisterRequest;
+import chernandez.blockedsupplybackend.domain.dto.auth.TokenResponse;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AddressDirectory;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.BlockchainAccountService;
+import chernandez.blockedsupplybackend.services.EncryptionService;
+import chernandez.blockedsupplybackend.services.UserProvisioningService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the admin role grant, the authorization of the admin endpoints and bulk provisioning.
+ */
+public class AdminProvisioningTests {
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    /**
+     * Tests that the listed registered users are granted the admin role once, and that
+     * unregistered emails are skipped.
+     */
+    @Test
+    void grantsAdminRoleToListedUsers() {
+        UserRepository userRepository = mock(UserRepository.class);
+        User admin = User.builder().id(7L).email("admin@example.com").roles(List.of("CUSTOMER")).build();
+        when(userRepository.findByEmail("admin@example.com")).thenReturn(Optional.of(admin));
+        when(userRepository.findByEmail("missing@example.com")).thenReturn(Optional.empty());
+        AdminRoleSeeder seeder = new AdminRoleSeeder(userRepository);
+        ReflectionTestUtils.setField(seeder, "adminEmails", List.of("admin@example.com", " missing@example.com", ""));
+
+        seeder.run(new DefaultApplicationArguments());
+        seeder.run(new DefaultApplicationArguments());
+
+        assertEquals(List.of("CUSTOMER", "ADMIN"), admin.getRoles());
+        verify(userRepository, times(1)).save(admin);
+    }
+
+    /**
+     * Tests that the bulk provisioning endpoint is only reachable with the admin role.
+     */
+    @Test
+    void adminEndpointRequiresAdminRole() throws Exception {
+        UserProvisioningService provisioningService = mock(UserProvisioningService.class);
+        doReturn(ResponseEntity.ok(List.of())).when(provisioningService).provision(anyList());
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(UserProvisioningService.class, () -> provisioningService);
+            context.register(MethodSecurityConfig.class);
+            context.refresh();
+            AdminController controller = context.getBean(AdminController.class);
+            List<RegisterRequest> requests = List.of(new RegisterRequest("jane@example.com", "A12345678", "Jane"));
+
+            assertThrows(AuthenticationCredentialsNotFoundException.class, () -> controller.provisionUsers(requests));
+
+            authenticate(User.builder().email("john@example.com").roles(List.of("CUSTOMER")).build());
+            assertThrows(AccessDeniedException.class, () -> controller.provisionUsers(requests));
+            verify(provisioningService, never()).provision(anyList());
+
+            authenticate(User.builder().email("admin@example.com").roles(List.of("ADMIN")).build());
+            assertEquals(200, controller.provisionUsers(requests).getStatusCode().value());
+            verify(provisioningService).provision(requests);
+        }
+    }
+
+    /**
+     * Tests that users whose tokens cannot be issued after they were saved are reported as
+     * created without tokens, while the other users of the batch get theirs.
+     */
+    @Test
+    void reportsTokenFailuresPerUser() throws Exception {
+        AuthService authService = mock(AuthService.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        BlockchainAccountService blockchainAccountService = mock(BlockchainAccountService.class);
+        EncryptionService encryptionService = mock(EncryptionService.class);
+        AddressDirectory addressDirectory = mock(AddressDirectory.class);
+        UserProvisioningService provisioningService = new UserProvisioningService(authService, userRepository,
+                passwordEncoder, blockchainAccountService, encryptionService, addressDirectory);
+        ReflectionTestUtils.setField(provisioningService, "maxBatchSize", 10);
+
+        when(passwordEncoder.encode(any())).thenReturn("hash");
+        when(userRepository.findExistingEmails(anyList())).thenReturn(Set.of());
+        when(blockchainAccountService.claimAddresses(anyList()))
+                .thenReturn(Map.of("a@example.com", "0xa", "b@example.com", "0xb"));
+        when(encryptionService.encrypt(any())).thenAnswer(invocation -> "enc:" + invocation.getArgument(0));
+        when(userRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<User> saved = new ArrayList<>(invocation.<List<User>>getArgument(0));
+            for (int i = 0; i < saved.size(); i++) {
+                saved.get(i).setId(10L + i);
+            }
+            return saved;
+        });
+        TokenResponse tokens = new TokenResponse("access", "refresh");
+        when(authService.issueInitialTokens(anyList())).thenAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            if (users.size() > 1 || users.get(0).getEmail().equals("b@example.com")) {
+                throw new IllegalStateException("token insert failed");
+            }
+            return List.of(tokens);
+        });
+
+        ResponseEntity<?> response = provisioningService.provision(List.of(
+                new RegisterRequest("a@example.com", "A12345678", "A"),
+                new RegisterRequest("b@example.com", "A12345678", "B")));
+
+        assertEquals(200, response.getStatusCode().value());
+        @SuppressWarnings("unchecked")
+        List<ProvisioningResult> results = (List<ProvisioningResult>) response.getBody();
+        assertEquals(ProvisioningResult.created("a@example.com", tokens), results.get(0));
+        assertTrue(results.get(1).success());
+        assertNull(results.get(1).tokens());
+        assertNotNull(results.get(1).message());
+        verify(addressDirectory, times(2)).register(any(), any());
+        verify(blockchainAccountService, never()).releaseAddress(any(), any());
+    }
+
+    /**
+     * Tests that when the batch insert fails, the users are saved one by one and only the user
+     * that cannot be stored is reported as failed, with its address returned to the pool.
+     */
+    @Test
+    void savesUsersOneByOneWhenBatchFails() throws Exception {
+        AuthService authService = mock(AuthService.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        BlockchainAccountService blockchainAccountService = mock(BlockchainAccountService.class);
+        EncryptionService encryptionService = mock(EncryptionService.class);
+        AddressDirectory addressDirectory = mock(AddressDirectory.class);
+        UserProvisioningService provisioningService = new UserProvisioningService(authService, userRepository,
+                passwordEncoder, blockchainAccountService, encryptionService, addressDirectory);
+        ReflectionTestUtils.setField(provisioningService, "maxBatchSize", 10);
+
+        when(passwordEncoder.encode(any())).thenReturn("hash");
+        when(userRepository.findExistingEmails(anyList())).thenReturn(Set.of());
+        when(blockchainAccountService.claimAddresses(anyList()))
+                .thenReturn(Map.of("a@example.com", "0xa", "b@example.com", "0xb", "c@example.com", "0xc"));
+        when(encryptionService.encrypt(any())).thenAnswer(invocation -> "enc:" + invocation.getArgument(0));
+        when(userRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            invocation.<List<User>>getArgument(0).get(0).setId(99L);
+            throw new IllegalStateException("duplicate address");
+        });
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            assertNull(user.getId());
+            if (user.getEmail().equals("b@example.com")) {
+                throw new IllegalStateException("duplicate address");
+            }
+            user.setId(user.getEmail().equals("a@example.com") ? 10L : 12L);
+            return user;
+        });
+        TokenResponse tokens = new TokenResponse("access", "refresh");
+        when(authService.issueInitialTokens(anyList()))
+                .thenAnswer(invocation -> Collections.nCopies(invocation.<List<User>>getArgument(0).size(), tokens));
+
+        ResponseEntity<?> response = provisioningService.provision(List.of(
+                new RegisterRequest("a@example.com", "A12345678", "A"),
+                new RegisterRequest("b@example.com", "A12345678", "B"),
+                new RegisterRequest("c@example.com", "A12345678", "C")));
+
+        assertEquals(200, response.getStatusCode().value());
+        @SuppressWarnings("unchecked")
+        List<ProvisioningResult> results = (List<ProvisioningResult>) response.getBody();
+        assertEquals(ProvisioningResult.created("a@example.com", tokens), results.get(0));
+        assertFalse(results.get(1).success());
+        assertEquals(ProvisioningResult.created("c@example.com", tokens), results.get(2));
+        verify(blockchainAccountService).releaseAddress("0xb", "b@example.com");
+        verify(blockchainAccountService, times(1)).releaseAddress(any(), any());
+        verify(addressDirectory, times(2)).register(any(), any());
+    }
+
+    private static void authenticate(User user) {
+        AuthenticatedUser principal = new AuthenticatedUser(user);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    @Configuration
+    @EnableMethodSecurity
+    static class MethodSecurityConfig {
+
+        @Bean
+        AdminController adminController(UserProvisioningService userProvisioningService) {
+            return new AdminController(userProvisioningService);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.domain.BlockchainAccount;
+import chernandez.blockedsupplybackend.repositories.BlockchainAccountRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.BlockchainAccountService;
+import chernandez.blockedsupplybackend.services.EncryptionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that concurrent claims of pooled blockchain accounts never hand out the same address.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:accounts;MODE=MySQL;LOCK_TIMEOUT=10000",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BlockchainAccountClaimTests {
+
+    private static final int ACCOUNTS = 20;
+    private static final int THREADS = 8;
+
+    @Autowired
+    private BlockchainAccountRepository blockchainAccountRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private BlockchainAccountService blockchainAccountService;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        BrokerClient brokerClient = mock(BrokerClient.class);
+        when(brokerClient.getAccounts()).thenReturn(List.of());
+        blockchainAccountService = new BlockchainAccountService(blockchainAccountRepository, mock(UserRepository.class),
+                new TransactionTemplate(transactionManager), mock(EncryptionService.class), brokerClient);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            blockchainAccountRepository.save(new BlockchainAccount("0xaccount" + i));
+        }
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        blockchainAccountRepository.deleteAll();
+    }
+
+    /**
+     * Tests that single and batch claims racing for more accounts than the pool holds receive
+     * distinct addresses, and that every address is claimed by exactly the user it was given to.
+     */
+    @Test
+    void concurrentClaimsNeverShareAnAccount() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<String, String>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            Callable<Map<String, String>> claim = thread % 2 == 0
+                    ? () -> {
+                        start.await();
+                        Map<String, String> claimed = new HashMap<>();
+                        for (int i = 0; i < 3; i++) {
+                            String email = "single-" + thread + "-" + i + "@example.com";
+                            try {
+                                claimed.put(email, blockchainAccountService.claimAddress(email));
+                            } catch (RuntimeException e) {
+                                assertEquals("No available blockchain addresses.", e.getMessage());
+                            }
+                        }
+                        return claimed;
+                    }
+                    : () -> {
+                        start.await();
+                        return blockchainAccountService.claimAddresses(List.of(
+                                "batch-" + thread + "-0@example.com",
+                                "batch-" + thread + "-1@example.com",
+                                "batch-" + thread + "-2@example.com"));
+                    };
+            results.add(executor.submit(claim));
+        }
+        start.countDown();
+
+        Set<String> addresses = new HashSet<>();
+        int claims = 0;
+        for (Future<Map<String, String>> result : results) {
+            for (Map.Entry<String, String> claimed : result.get(30, TimeUnit.SECONDS).entrySet()) {
+                claims++;
+                assertTrue(addresses.add(claimed.getValue()), "address handed out twice: " + claimed.getValue());
+                assertEquals(List.of(claimed.getValue()), blockchainAccountRepository.findAllByClaimedBy(claimed.getKey())
+                        .stream().map(BlockchainAccount::getAddress).toList());
+            }
+        }
+        assertEquals(ACCOUNTS, claims);
+        assertTrue(blockchainAccountRepository.findFreeIds(PageRequest.ofSize(1)).isEmpty());
+    }
+}
@@ -0,0 +1,204 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.config.AppConfig;
+import chernandez.blockedsupplybackend.config.BoundedPasswordEncoder;
+import chernandez.blockedsupplybackend.controllers.ApiExceptionHandler;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the BCrypt password encoder running on a bounded hashing pool.
+ */
+public class BoundedPasswordEncoderTests {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BoundedPasswordEncoder encoder;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (encoder != null) {
+            encoder.destroy();
+        }
+    }
+
+    /**
+     * Tests that a hashing request is rejected once every thread is busy and the queue is full,
+     * and that the rejection is answered with 503 and a {@code Retry-After} header, also when
+     * it is raised inside the authentication manager.
+     */
+    @Test
+    void rejectsWhenPoolIsSaturated() throws Exception {
+        encoder = new BoundedPasswordEncoder(4, 1, 1);
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> encoder.encode(new Password("a", true)));
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> encoder.encode(new Password("b", true)));
+        awaitInFlight(1);
+        Thread.sleep(100);
+
+        CapacityExceededException e = assertThrows(CapacityExceededException.class,
+                () -> encoder.encode("c"));
+
+        ApiExceptionHandler handler = new ApiExceptionHandler();
+        assertRetryAfter(handler.handleCapacityExceeded(e));
+        assertRetryAfter(handler.handleInternalAuthentication(
+                new InternalAuthenticationServiceException(e.getMessage(), e)));
+
+        release.countDown();
+        String first = running.get(5, TimeUnit.SECONDS);
+        String second = queued.get(5, TimeUnit.SECONDS);
+        assertTrue(encoder.matches("a", first));
+        assertTrue(encoder.matches("b", second));
+    }
+
+    /**
+     * Tests that the calibrated strength grows with the target latency and stays within
+     * 10 and 16 rounds.
+     */
+    @Test
+    void calibratesWithinBounds() {
+        assertEquals(10, BoundedPasswordEncoder.calibrate(0, strength -> 1000));
+        assertEquals(16, BoundedPasswordEncoder.calibrate(Long.MAX_VALUE, strength -> 0));
+        // hashing time doubles with every round: 10 rounds take 50ms, 13 rounds take 400ms
+        assertEquals(13, BoundedPasswordEncoder.calibrate(400, strength -> 50L << (strength - 10)));
+        int calibrated = BoundedPasswordEncoder.calibrate(1);
+        assertTrue(calibrated >= 10 && calibrated <= 16);
+    }
+
+    /**
+     * Tests that a batch much larger than the queue is hashed in order without ever having
+     * more tasks in flight than hashing threads.
+     */
+    @Test
+    void encodesBatchWithinWindow() {
+        encoder = new BoundedPasswordEncoder(4, 2, 2);
+        List<Password> passwords = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            passwords.add(new Password("password-" + i, false));
+        }
+
+        List<String> hashes = encoder.encodeAll(passwords);
+
+        assertEquals(20, hashes.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(encoder.matches("password-" + i, hashes.get(i)));
+        }
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    /**
+     * Tests that a successful login with a hash weaker than the configured strength stores
+     * a rehashed password.
+     */
+    @Test
+    void rehashesWeakPasswordOnLogin() {
+        UserRepository userRepository = mock(UserRepository.class);
+        User user = User.builder()
+                .email("john@example.com")
+                .password(new BCryptPasswordEncoder(4).encode("secret"))
+                .roles(List.of("USER"))
+                .build();
+        when(userRepository.findByEmail("john@example.com")).thenReturn(Optional.of(user));
+        AppConfig appConfig = new AppConfig(userRepository);
+        ReflectionTestUtils.setField(appConfig, "bcryptStrength", 5);
+        ReflectionTestUtils.setField(appConfig, "hashingThreads", 1);
+        ReflectionTestUtils.setField(appConfig, "hashingQueueCapacity", 4);
+        AuthenticationProvider provider = appConfig.authenticationProvider();
+
+        provider.authenticate(new UsernamePasswordAuthenticationToken("john@example.com", "secret"));
+
+        verify(userRepository).updatePassword(eq("john@example.com"), anyString());
+        assertTrue(user.getPassword().startsWith("$2a$05$"));
+        assertTrue(new BCryptPasswordEncoder().matches("secret", user.getPassword()));
+
+        provider.authenticate(new UsernamePasswordAuthenticationToken("john@example.com", "secret"));
+
+        verify(userRepository, times(1)).updatePassword(anyString(), anyString());
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, inFlight.get());
+    }
+
+    private static void assertRetryAfter(ResponseEntity<String> response) {
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    /**
+     * A password that records how many hashing tasks read it at once and can hold the
+     * hashing thread until released.
+     */
+    private final class Password implements CharSequence {
+
+        private final String value;
+        private final boolean blocking;
+
+        private Password(String value, boolean blocking) {
+            this.value = value;
+            this.blocking = blocking;
+        }
+
+        @Override
+        public String toString() {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                if (blocking) {
+                    release.await(5, TimeUnit.SECONDS);
+                } else {
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return value;
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return value.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return value.subSequence(start, end);
+        }
+    }
+}
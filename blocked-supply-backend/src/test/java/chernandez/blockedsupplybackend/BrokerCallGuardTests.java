@@ -0,0 +1,121 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the circuit breaker and bulkheads around broker calls.
+ */
+public class BrokerCallGuardTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BrokerCallGuard guard = new BrokerCallGuard(meterRegistry, brokerProperties(
+            "circuit-breaker.window-size=4", "circuit-breaker.minimum-calls=4", "circuit-breaker.open-duration=60000",
+            "bulkhead.read.max-concurrent=2", "bulkhead.write.max-concurrent=1"));
+
+    /**
+     * Tests that a full write bulkhead rejects calls immediately while reads still pass.
+     */
+    @Test
+    void rejectsWhenBulkheadIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> guard.write(() -> {
+                started.countDown();
+                await(release);
+                return "sent";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            CapacityExceededException e = assertThrows(CapacityExceededException.class, () -> guard.write(() -> "sent"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+            assertEquals("read", guard.read(() -> "read"));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that repeated broker failures open the breaker and later calls fail fast.
+     */
+    @Test
+    void opensAfterFailures() {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(ResourceAccessException.class, () -> guard.read(() -> {
+                throw new ResourceAccessException("Connection refused");
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+        CapacityExceededException e = assertThrows(CapacityExceededException.class, () -> guard.read(() -> "read"));
+        assertEquals(60, e.getRetryAfterSeconds());
+        assertFalse(meterRegistry.find("resilience4j.circuitbreaker.state").meters().isEmpty());
+    }
+
+    /**
+     * Tests that errors caused by the request do not count against the broker.
+     */
+    @Test
+    void ignoresCallerErrors() {
+        for (int i = 0; i < 8; i++) {
+            assertThrows(HttpClientErrorException.class, () -> guard.read(() -> {
+                throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", null, null, null);
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+    }
+
+    /**
+     * Tests that reverts are recognised by their 422 status rather than by their message, so
+     * that a broker failure mentioning a revert still counts against the broker.
+     */
+    @Test
+    void classifiesRevertsByStatus() {
+        byte[] revert = ("{\"error\":\"VM Exception while processing transaction: revert\",\"code\":\""
+                + BrokerCallGuard.REVERT_CODE + "\"}").getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 8; i++) {
+            assertThrows(HttpClientErrorException.class, () -> guard.write(() -> {
+                throw HttpClientErrorException.create(HttpStatus.UNPROCESSABLE_ENTITY, "Unprocessable Entity",
+                        null, revert, StandardCharsets.UTF_8);
+            }));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+
+        byte[] failure = "{\"error\":\"revert handler crashed\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(HttpServerErrorException.class, () -> guard.write(() -> {
+                throw HttpServerErrorException.create(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error",
+                        null, failure, StandardCharsets.UTF_8);
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
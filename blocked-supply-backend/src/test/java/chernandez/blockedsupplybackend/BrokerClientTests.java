@@ -0,0 +1,143 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerShipment;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerTransfer;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the broker client against a stub broker.
+ */
+public class BrokerClientTests {
+
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    private volatile long delayMillis;
+    private HttpServer server;
+    private BrokerClient brokerClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String body = responses.get(exchange.getRequestURI().getPath());
+            byte[] bytes = (body != null ? body : "{\"error\":\"not found\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(body != null ? 200 : 500, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        BrokerProperties properties = brokerProperties("address=http://127.0.0.1:" + server.getAddress().getPort(),
+                "connect-timeout=1000", "read-timeout=2000", "pool.acquire-timeout=1000", "pool.max-total=4",
+                "pool.max-per-route=4", "circuit-breaker.window-size=10", "circuit-breaker.minimum-calls=4",
+                "bulkhead.read.max-concurrent=2", "bulkhead.write.max-concurrent=1");
+        BrokerCallGuard guard = new BrokerCallGuard(new SimpleMeterRegistry(), properties);
+        brokerClient = new BrokerClient(RestClient.builder(), new ObjectMapper(), guard, Optional.empty(),
+                properties, false);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        RequestDeadline.clear();
+        brokerClient.destroy();
+        server.stop(0);
+    }
+
+    /**
+     * Tests that the numeric strings sent by the broker are bound to typed fields.
+     */
+    @Test
+    void bindsTypedPayloads() {
+        responses.put("/api/shipments/3", "{\"id\":\"3\",\"name\":\"Vaccine\",\"description\":\"pfizer\",\"origin\":\"A\"," +
+                "\"destination\":\"B\",\"deliveryDate\":\"2025-05-05\",\"units\":\"2\",\"weight\":\"7\",\"currentState\":\"1\"," +
+                "\"currentOwner\":\"0xabc\"}");
+        responses.put("/api/shipments/3/transfers", "[{\"id\":\"1\",\"shipmentId\":\"3\",\"timestamp\":\"1745524055\"," +
+                "\"newState\":\"0\",\"location\":\"A\",\"newShipmentOwner\":\"0xabc\",\"transferNotes\":\"Shipment created\"}]");
+        responses.put("/api/accounts", "{\"accounts\":[\"0xabc\",\"0xdef\"]}");
+
+        BrokerShipment shipment = brokerClient.getShipment(3);
+        List<BrokerTransfer> transfers = brokerClient.getTransfers(3);
+
+        assertEquals(3, shipment.id());
+        assertEquals(7, shipment.weight());
+        assertEquals(1, shipment.currentState());
+        assertEquals(1745524055L, transfers.get(0).timestamp());
+        assertEquals("0xabc", transfers.get(0).newShipmentOwner());
+        assertEquals(List.of("0xabc", "0xdef"), brokerClient.getAccounts());
+    }
+
+    /**
+     * Tests that a payload missing a field is rejected instead of defaulting it.
+     */
+    @Test
+    void rejectsMissingFields() {
+        responses.put("/api/transfers/next-id", "{\"unexpected\":\"1\"}");
+
+        assertThrows(RestClientException.class, () -> brokerClient.getNextTransferId());
+    }
+
+    /**
+     * Tests that payloads returned to API clients keep the string numbers of the broker.
+     */
+    @Test
+    void writesNumbersAsStrings() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(new TransferResult(3, "0xabc", 1));
+
+        assertEquals("{\"shipmentId\":\"3\",\"newOwner\":\"0xabc\",\"newState\":\"1\"}", json);
+    }
+
+    /**
+     * Tests that a broker call waits no longer than the remaining request deadline.
+     */
+    @Test
+    void stopsWaitingAtTheDeadline() {
+        responses.put("/api/shipments/next-id", "{\"nextShipmentId\":\"1\"}");
+        delayMillis = 1500;
+        RequestDeadline.start(200);
+
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> brokerClient.getNextShipmentId());
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    /**
+     * Tests that no broker call is started once the deadline has passed.
+     */
+    @Test
+    void skipsCallsAfterTheDeadline() {
+        RequestDeadline.start(-1);
+
+        assertThrows(DeadlineExceededException.class, () -> brokerClient.getAccounts());
+    }
+}
@@ -0,0 +1,34 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Broker settings shared by the tests of the broker client.
+ */
+public final class BrokerFixtures {
+
+    private BrokerFixtures() {
+    }
+
+    /**
+     * Binds broker settings the way the application does, so tests name only the settings they
+     * change and every other one keeps its default.
+     *
+     * @param settings Settings as {@code name=value}, named relative to {@code application.broker}.
+     * @return The bound settings.
+     */
+    public static BrokerProperties brokerProperties(String... settings) {
+        Map<String, String> values = new HashMap<>();
+        for (String setting : settings) {
+            String[] parts = setting.split("=", 2);
+            values.put("application.broker." + parts[0], parts[1]);
+        }
+        return new Binder(new MapConfigurationPropertySource(values))
+                .bindOrCreate("application.broker", BrokerProperties.class);
+    }
+}
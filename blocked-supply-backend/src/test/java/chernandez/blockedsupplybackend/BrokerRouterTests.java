@@ -0,0 +1,210 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.clients.BrokerRouter;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the routing of broker calls across several stub brokers.
+ */
+public class BrokerRouterTests {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<AtomicLong> delays = new ArrayList<>();
+    private final List<AtomicInteger> hits = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+    private BrokerRouter router;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            String name = "broker-" + i;
+            AtomicLong delay = new AtomicLong();
+            AtomicInteger count = new AtomicInteger();
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", exchange -> {
+                count.incrementAndGet();
+                try {
+                    Thread.sleep(delay.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            });
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+            servers.add(server);
+            delays.add(delay);
+            hits.add(count);
+            urls.add("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+        BrokerCallGuard guard = new BrokerCallGuard(new SimpleMeterRegistry(), brokerProperties(
+                "circuit-breaker.window-size=4", "circuit-breaker.minimum-calls=4", "circuit-breaker.open-duration=60000",
+                "bulkhead.read.max-concurrent=16", "bulkhead.write.max-concurrent=16"));
+        router = new BrokerRouter(urls, url -> RestClient.builder().baseUrl(url).build(), guard, true, 95, 20, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.close();
+        servers.forEach(server -> server.stop(0));
+    }
+
+    /**
+     * Tests that all writes of a sender go to the same broker while senders are spread out.
+     */
+    @Test
+    void keepsWritesOfASenderOnOneBroker() {
+        Set<String> used = new HashSet<>();
+        for (int sender = 0; sender < 30; sender++) {
+            String address = "0x" + Integer.toHexString(sender * 7919);
+            String first = write(address);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(first, write(address.toUpperCase()));
+            }
+            used.add(first);
+        }
+
+        assertTrue(used.size() > 1);
+    }
+
+    /**
+     * Tests that reads are spread across brokers.
+     */
+    @Test
+    void spreadsReads() {
+        for (int i = 0; i < 30; i++) {
+            read();
+        }
+
+        hits.forEach(count -> assertTrue(count.get() > 0));
+    }
+
+    /**
+     * Tests that a read stuck on a slow broker is answered by a hedged read to another one.
+     */
+    @Test
+    void hedgesSlowReads() {
+        for (int i = 0; i < 64; i++) {
+            read();
+        }
+        delays.get(0).set(2000);
+
+        for (int i = 0; i < 6; i++) {
+            long start = System.nanoTime();
+            assertNotEquals("broker-0", read());
+            assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        }
+    }
+
+    /**
+     * Tests that a read failing on an unreachable broker is retried on another one.
+     */
+    @Test
+    void failsOverFromUnreachableBroker() {
+        servers.get(1).stop(0);
+
+        for (int i = 0; i < 6; i++) {
+            assertNotEquals("broker-1", read());
+        }
+    }
+
+    /**
+     * Tests that a read losing to its hedge is interrupted instead of holding its thread and
+     * bulkhead permit until the broker answers.
+     */
+    @Test
+    void cancelsLosingHedge() throws Exception {
+        for (int i = 0; i < 64; i++) {
+            read();
+        }
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        String result = router.read(client -> {
+            if (calls.incrementAndGet() > 1) {
+                return "hedge";
+            }
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            throw new IllegalStateException("Not interrupted");
+        });
+
+        assertEquals("hedge", result);
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a read rejected because the shared read bulkhead is full is not retried on
+     * another broker, which would take from the same bulkhead.
+     */
+    @Test
+    void doesNotRetryReadRejectedByFullBulkhead() throws Exception {
+        router.close();
+        BrokerCallGuard guard = new BrokerCallGuard(new SimpleMeterRegistry(), brokerProperties(
+                "bulkhead.read.max-concurrent=1", "bulkhead.write.max-concurrent=1"));
+        BrokerCallGuard routed = spy(guard);
+        router = new BrokerRouter(urls, url -> RestClient.builder().baseUrl(url).build(), routed, true, 95, 20, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> occupying = CompletableFuture.supplyAsync(() -> guard.read("broker-0", () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        try {
+            assertThrows(CapacityExceededException.class, this::read);
+            verify(routed, times(1)).read(anyString(), any());
+            hits.forEach(count -> assertEquals(0, count.get()));
+        } finally {
+            release.countDown();
+            occupying.join();
+        }
+    }
+
+    private String read() {
+        return router.read(client -> client.get().uri("/api/accounts").retrieve().body(String.class));
+    }
+
+    private String write(String sender) {
+        return router.write(sender, client -> client.post().uri("/api/shipments").retrieve().body(String.class));
+    }
+}
@@ -0,0 +1,72 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+
+/**
+ * Users, shipments and transfers shared by the tests of chain writes.
+ */
+public final class ChainFixtures {
+
+    /**
+     * The broker's answer to {@link #transfer()}.
+     */
+    public static final TransferResult TRANSFERRED = new TransferResult(1, "0xbob", 1);
+
+    private ChainFixtures() {
+    }
+
+    /**
+     * @return The user submitting the chain writes, with ID 3.
+     */
+    public static User alice() {
+        return User.builder().id(3L).email("alice@example.com").blockchainAddress("encrypted").build();
+    }
+
+    /**
+     * @return The user receiving the transfers, with ID 4.
+     */
+    public static User bob() {
+        return User.builder().id(4L).email("bob@example.com").blockchainAddress("encrypted").build();
+    }
+
+    /**
+     * @param productName The product of the shipment.
+     * @return A valid shipment from A to B, without a sender address.
+     */
+    public static ShipmentInput shipment(String productName) {
+        return new ShipmentInput(productName, "pfizer", "A", "B", "2030-01-01", 2, 7);
+    }
+
+    /**
+     * @param from The sender address.
+     * @return A valid shipment from A to B sent from the given address.
+     */
+    public static ShipmentInput shipmentFrom(String from) {
+        ShipmentInput input = shipment("Vaccine");
+        input.setFrom(from);
+        return input;
+    }
+
+    /**
+     * @return A transfer of shipment 1 to bob, without a sender address.
+     */
+    public static TransferInput transfer() {
+        return new TransferInput(1, "bob@example.com", 1, "Warehouse", "Picked up");
+    }
+
+    /**
+     * @param shipmentId The ID of the shipment.
+     * @param from       The sender address.
+     * @param newOwner   The address of the new owner.
+     * @param newState   The state of the shipment after the transfer.
+     * @return A transfer sent from the given address.
+     */
+    public static TransferInput transfer(int shipmentId, String from, String newOwner, int newState) {
+        TransferInput input = new TransferInput(shipmentId, newOwner, newState, "Warehouse", "Picked up");
+        input.setFrom(from);
+        return input;
+    }
+}
@@ -0,0 +1,189 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.JobType;
+import chernandez.blockedsupplybackend.domain.Notification;
+import chernandez.blockedsupplybackend.domain.ShipmentRecord;
+import chernandez.blockedsupplybackend.domain.State;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import chernandez.blockedsupplybackend.services.ShipmentService;
+import chernandez.blockedsupplybackend.services.TransferService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that running jobs whose worker stopped are recovered without sending anything twice.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:jobs;MODE=MySQL;LOCK_TIMEOUT=10000",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ChainJobRecoveryTests {
+
+    @Autowired
+    private ChainJobRepository chainJobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final User user = alice();
+    private NotificationRepository notificationRepository;
+    private ShipmentService shipmentService;
+    private TransferService transferService;
+    private ChainJobService chainJobService;
+
+    @BeforeEach
+    void setUp() {
+        UserRepository userRepository = mock(UserRepository.class);
+        notificationRepository = mock(NotificationRepository.class);
+        shipmentService = mock(ShipmentService.class);
+        transferService = mock(TransferService.class);
+        chainJobService = new ChainJobService(chainJobRepository, userRepository, notificationRepository,
+                shipmentService, transferService, mock(AuthService.class), objectMapper,
+                new TransactionTemplate(transactionManager), 2, 10, 2);
+        when(userRepository.findById(3L)).thenReturn(Optional.of(user));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        chainJobService.destroy();
+        chainJobRepository.deleteAll();
+    }
+
+    /**
+     * Tests that a stale single write on chain is recorded, that a stale single write with an
+     * unknown outcome is failed, that the unknown items of a stale batch are failed while the
+     * created ones are recorded, that nothing is sent again, and that a job whose worker still
+     * sends heartbeats is left running.
+     */
+    @Test
+    void recoversStaleJobsWithoutResending() throws Exception {
+        LocalDateTime claimedAt = LocalDateTime.now().minusMinutes(10);
+        ChainJob onChain = running(JobType.TRANSFER_SHIPMENT, transfer(), objectMapper.writeValueAsString(TRANSFERRED),
+                claimedAt, "on-chain");
+        ChainJob unknown = running(JobType.TRANSFER_SHIPMENT, transfer(), null, claimedAt, "unknown");
+        ShipmentCreated vaccine = new ShipmentCreated(1, "0xalice", "2030-01-01");
+        ChainJob batch = running(JobType.BATCH_CREATE, List.of(shipment("Vaccine"), shipment("Insulin"), shipment("Serum")),
+                objectMapper.writeValueAsString(Arrays.asList(
+                        Map.of("result", vaccine, "retryable", false),
+                        Map.of("error", "busy", "retryable", true),
+                        null)),
+                claimedAt, "batch");
+        ChainJob alive = running(JobType.TRANSFER_SHIPMENT, transfer(), null, claimedAt, "alive");
+        chainJobRepository.heartbeat(JobStatus.RUNNING, List.of("alive"), LocalDateTime.now());
+        doReturn(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK))
+                .when(transferService).recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up");
+        when(shipmentService.recordCreatedAll(List.of(vaccine), user)).thenReturn(List.of(
+                new ShipmentRecord(1L, "0xalice", LocalDateTime.now(), State.CREATED, 3L)));
+
+        chainJobService.sweep();
+
+        assertEquals(JobStatus.SUCCEEDED, await(onChain.getId()).getStatus());
+        verify(transferService).recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up");
+
+        ChainJob failed = await(unknown.getId());
+        assertEquals(JobStatus.FAILED, failed.getStatus());
+        assertEquals(500, failed.getResultStatus());
+        assertNotNull(failed.getError());
+        assertNotNull(failed.getCompletedAt());
+
+        ChainJob recorded = await(batch.getId());
+        assertEquals(JobStatus.SUCCEEDED, recorded.getStatus());
+        List<Map<String, Object>> results = objectMapper.readValue(recorded.getResult(), new TypeReference<>() {
+        });
+        assertEquals(true, results.get(0).get("success"));
+        assertEquals(false, results.get(1).get("success"));
+        assertEquals(failed.getError(), results.get(1).get("message"));
+        assertEquals(false, results.get(2).get("success"));
+
+        assertEquals(JobStatus.RUNNING, chainJobRepository.findById(alive.getId()).orElseThrow().getStatus());
+        ArgumentCaptor<Notification> notifications = ArgumentCaptor.forClass(Notification.class);
+        verify(notificationRepository, times(3)).save(notifications.capture());
+        assertTrue(notifications.getAllValues().stream()
+                .anyMatch(notification -> notification.getMessage().contains("#" + unknown.getId() + " failed")));
+        verify(transferService, never()).submitTransfer(any(), any());
+        verify(shipmentService, never()).sendCreate(any(), any());
+    }
+
+    /**
+     * Tests that saving a running job does not turn its heartbeat back.
+     */
+    @Test
+    void savingJobKeepsHeartbeat() throws Exception {
+        ChainJob job = running(JobType.TRANSFER_SHIPMENT, transfer(), null, LocalDateTime.now().minusMinutes(10), "worker");
+        ChainJob loaded = chainJobRepository.findById(job.getId()).orElseThrow();
+        LocalDateTime now = LocalDateTime.now();
+        chainJobRepository.heartbeat(JobStatus.RUNNING, List.of("worker"), now);
+
+        loaded.setChainResult(objectMapper.writeValueAsString(TRANSFERRED));
+        chainJobRepository.save(loaded);
+
+        ChainJob saved = chainJobRepository.findById(job.getId()).orElseThrow();
+        assertNotNull(saved.getChainResult());
+        assertEquals("worker", saved.getClaimToken());
+        assertTrue(chainJobRepository.findStale(JobStatus.RUNNING, now.minusMinutes(5)).isEmpty());
+    }
+
+    private ChainJob running(JobType type, Object payload, String chainResult, LocalDateTime claimedAt, String token)
+            throws Exception {
+        ChainJob job = new ChainJob();
+        job.setType(type);
+        job.setUserId(3L);
+        job.setNotifySubmitter(true);
+        job.setAttempts(1);
+        job.setPayload(objectMapper.writeValueAsString(payload));
+        job.setChainResult(chainResult);
+        job = chainJobRepository.save(job);
+        chainJobRepository.claim(job.getId(), JobStatus.PENDING, JobStatus.RUNNING, claimedAt, token);
+        return job;
+    }
+
+    private ChainJob await(Long id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        ChainJob job = chainJobRepository.findById(id).orElseThrow();
+        while ((job.getStatus() == JobStatus.PENDING || job.getStatus() == JobStatus.RUNNING)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            job = chainJobRepository.findById(id).orElseThrow();
+        }
+        return job;
+    }
+}
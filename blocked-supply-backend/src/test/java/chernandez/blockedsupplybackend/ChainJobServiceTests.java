@@ -0,0 +1,449 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.JobType;
+import chernandez.blockedsupplybackend.domain.Notification;
+import chernandez.blockedsupplybackend.domain.ShipmentRecord;
+import chernandez.blockedsupplybackend.domain.State;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.BatchTransferInput;
+import chernandez.blockedsupplybackend.domain.dto.ChainJobOutput;
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.exceptions.CapacityExceededException;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import chernandez.blockedsupplybackend.services.ShipmentService;
+import chernandez.blockedsupplybackend.services.TransferService;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the outbox of chain writes.
+ */
+public class ChainJobServiceTests {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final User user = alice();
+    private final User bob = bob();
+    private final Map<Long, ChainJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(6);
+    private ChainJobRepository chainJobRepository;
+    private NotificationRepository notificationRepository;
+    private TransferService transferService;
+    private ShipmentService shipmentService;
+    private TransactionTemplate transactionTemplate;
+    private ChainJobService chainJobService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        chainJobRepository = mock(ChainJobRepository.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        notificationRepository = mock(NotificationRepository.class);
+        transferService = mock(TransferService.class);
+        shipmentService = mock(ShipmentService.class);
+        AuthService authService = mock(AuthService.class);
+        transactionTemplate = mock(TransactionTemplate.class);
+        chainJobService = new ChainJobService(chainJobRepository, userRepository, notificationRepository,
+                shipmentService, transferService, authService, objectMapper, transactionTemplate, 1, 10, 2);
+
+        when(authService.getUserFromJWT()).thenReturn(user);
+        when(userRepository.findById(3L)).thenReturn(Optional.of(user));
+        when(userRepository.findByEmail("bob@example.com")).thenReturn(Optional.of(bob));
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        when(chainJobRepository.save(any())).thenAnswer(invocation -> {
+            ChainJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(ids.incrementAndGet());
+            }
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(chainJobRepository.findById(anyLong())).thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<Long>getArgument(0))));
+        when(chainJobRepository.claim(anyLong(), eq(JobStatus.PENDING), eq(JobStatus.RUNNING), any(), any())).thenAnswer(invocation -> {
+            ChainJob job = jobs.get(invocation.<Long>getArgument(0));
+            if (job == null || job.getStatus() != JobStatus.PENDING) {
+                return 0;
+            }
+            job.setStatus(JobStatus.RUNNING);
+            return 1;
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        chainJobService.destroy();
+    }
+
+    /**
+     * Tests that an asynchronous request is stored as a pending job and answered with 202.
+     */
+    @Test
+    void submitsValidRequestAsPendingJob() throws Exception {
+        when(chainJobRepository.claim(anyLong(), any(), any(), any(), any())).thenReturn(0);
+
+        ResponseEntity<?> response = chainJobService.submitTransfer(transfer());
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/jobs/7", response.getHeaders().getLocation().toString());
+        assertEquals("respond-async", response.getHeaders().getFirst("Preference-Applied"));
+        ChainJobOutput output = (ChainJobOutput) response.getBody();
+        assertEquals(JobStatus.PENDING, output.status());
+        assertEquals(JobType.TRANSFER_SHIPMENT, output.type());
+    }
+
+    /**
+     * Tests that an invalid request is rejected without creating a job.
+     */
+    @Test
+    void rejectsInvalidRequestWithoutJob() throws Exception {
+        TransferInput input = transfer();
+        doReturn(new ResponseEntity<>("New owner not found", HttpStatus.NOT_FOUND))
+                .when(transferService).validateTransfer(input, user);
+
+        ResponseEntity<?> response = chainJobService.transferShipment(input);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        verify(chainJobRepository, never()).save(any());
+    }
+
+    /**
+     * Tests that a synchronous request waits for its job and returns the recorded result.
+     */
+    @Test
+    void waitsForJobOfSynchronousRequest() throws Exception {
+        doReturn(CompletableFuture.completedFuture(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK)))
+                .when(transferService).submitTransfer(any(), eq(user));
+        doReturn(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK))
+                .when(transferService).recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up");
+
+        ResponseEntity<?> response = chainJobService.transferShipment(transfer());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(TRANSFERRED, response.getBody());
+        ChainJob job = jobs.get(7L);
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertNotNull(job.getChainResult());
+        verify(notificationRepository, never()).save(any());
+    }
+
+    /**
+     * Tests that a synchronous request gets the result of its job even when a sweep claims and
+     * finishes the job as soon as it is committed, before the request starts waiting.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void waitsForJobFinishedRightAfterCommit() throws Exception {
+        AtomicInteger depth = new AtomicInteger();
+        List<Long> committing = new ArrayList<>();
+        doAnswer(invocation -> {
+            depth.incrementAndGet();
+            Object result;
+            try {
+                result = ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null);
+            } finally {
+                depth.decrementAndGet();
+            }
+            if (depth.get() == 0) {
+                List<Long> committed = List.copyOf(committing);
+                committing.clear();
+                committed.forEach(chainJobService::run);
+            }
+            return result;
+        }).when(transactionTemplate).execute(any());
+        doAnswer(invocation -> {
+            ChainJob job = invocation.getArgument(0);
+            boolean created = job.getId() == null;
+            if (created) {
+                job.setId(ids.incrementAndGet());
+            }
+            jobs.put(job.getId(), job);
+            if (created) {
+                // A job saved outside a transaction is visible to the sweep right away
+                if (depth.get() == 0) {
+                    chainJobService.run(job.getId());
+                } else {
+                    committing.add(job.getId());
+                }
+            }
+            return job;
+        }).when(chainJobRepository).save(any());
+        doReturn(CompletableFuture.completedFuture(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK)))
+                .when(transferService).submitTransfer(any(), eq(user));
+        doReturn(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK))
+                .when(transferService).recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up");
+
+        ResponseEntity<?> response;
+        RequestDeadline.start(1000);
+        try {
+            response = chainJobService.transferShipment(transfer());
+        } finally {
+            RequestDeadline.clear();
+        }
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(TRANSFERRED, response.getBody());
+        assertEquals(JobStatus.SUCCEEDED, jobs.get(7L).getStatus());
+    }
+
+    /**
+     * Tests that a synchronous request still running at its deadline is answered with 202 and
+     * its job, without the Preference-Applied header, and that the job completes afterwards.
+     */
+    @Test
+    void answersWithJobWhenDeadlinePasses() throws Exception {
+        CompletableFuture<ResponseEntity<?>> sent = new CompletableFuture<>();
+        doReturn(sent).when(transferService).submitTransfer(any(), eq(user));
+        doReturn(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK))
+                .when(transferService).recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up");
+
+        ResponseEntity<?> response;
+        RequestDeadline.start(200);
+        try {
+            response = chainJobService.transferShipment(transfer());
+        } finally {
+            RequestDeadline.clear();
+        }
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/jobs/7", response.getHeaders().getLocation().toString());
+        assertNull(response.getHeaders().getFirst("Preference-Applied"));
+        ChainJobOutput output = (ChainJobOutput) response.getBody();
+        assertEquals(7L, output.id());
+        assertEquals(JobType.TRANSFER_SHIPMENT, output.type());
+
+        sent.complete(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK));
+        ChainJob job = jobs.get(7L);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.getStatus() != JobStatus.SUCCEEDED && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        verify(transferService, times(1)).submitTransfer(any(), any());
+    }
+
+    /**
+     * Tests that a job whose transaction is on chain is recorded again without sending it twice.
+     */
+    @Test
+    void retriesRecordingWithoutResending() throws Exception {
+        ChainJob job = pendingJob();
+        doReturn(CompletableFuture.completedFuture(new ResponseEntity<>(TRANSFERRED, HttpStatus.OK)))
+                .when(transferService).submitTransfer(any(), eq(user));
+        when(transferService.recordTransfer(TRANSFERRED, user, "bob@example.com", "Picked up"))
+                .thenThrow(new IllegalStateException("database unavailable"))
+                .thenAnswer(invocation -> new ResponseEntity<>(TRANSFERRED, HttpStatus.OK));
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.PENDING, job.getStatus());
+        assertNotNull(job.getNextAttemptAt());
+        assertEquals("database unavailable", job.getError());
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertEquals(2, job.getAttempts());
+        assertEquals(200, job.getResultStatus());
+        verify(transferService, times(1)).submitTransfer(any(), any());
+        ArgumentCaptor<Notification> notification = ArgumentCaptor.forClass(Notification.class);
+        verify(notificationRepository).save(notification.capture());
+        assertTrue(notification.getValue().getMessage().contains("#7 succeeded"));
+    }
+
+    /**
+     * Tests that a write rejected before reaching the broker is retried later.
+     */
+    @Test
+    void retriesWhenNothingWasSent() throws Exception {
+        ChainJob job = pendingJob();
+        doReturn(CompletableFuture.failedFuture(new CapacityExceededException("busy", 1)))
+                .when(transferService).submitTransfer(any(), eq(user));
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.PENDING, job.getStatus());
+        assertEquals(1, job.getAttempts());
+        assertNotNull(job.getNextAttemptAt());
+        assertNull(job.getChainResult());
+        verify(notificationRepository, never()).save(any());
+    }
+
+    /**
+     * Tests that a write that may have reached the chain is not sent again.
+     */
+    @Test
+    void failsWhenOutcomeIsUnknown() throws Exception {
+        ChainJob job = pendingJob();
+        doReturn(CompletableFuture.failedFuture(
+                new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"))))
+                .when(transferService).submitTransfer(any(), eq(user));
+        doReturn(new ResponseEntity<>("Failed to transfer shipment: Read timed out", HttpStatus.INTERNAL_SERVER_ERROR))
+                .when(transferService).transferFailed(any());
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals(500, job.getResultStatus());
+        assertNull(job.getNextAttemptAt());
+    }
+
+    /**
+     * Tests that a job whose failure cannot be stored during the attempt does not stay running,
+     * and is failed without being sent again.
+     */
+    @Test
+    void failsJobWhenAttemptThrows() throws Exception {
+        ChainJob job = pendingJob();
+        doReturn(CompletableFuture.failedFuture(
+                new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"))))
+                .when(transferService).submitTransfer(any(), eq(user));
+        when(transferService.transferFailed(any())).thenThrow(new IllegalStateException("connection lost"));
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals(500, job.getResultStatus());
+        assertTrue(job.getResult().contains("connection lost"));
+        assertNotNull(job.getCompletedAt());
+
+        chainJobService.run(7L);
+
+        verify(transferService, times(1)).submitTransfer(any(), any());
+    }
+
+    /**
+     * Tests that a batch is recorded once every shipment has been sent, and that a retry only
+     * sends the shipments that never reached the broker.
+     */
+    @Test
+    void sendsOnlyUnsentShipmentsOfBatchAgain() throws Exception {
+        ChainJob job = pendingJob();
+        job.setType(JobType.BATCH_CREATE);
+        job.setPayload(objectMapper.writeValueAsString(List.of(shipment("Vaccine"), shipment("Insulin"), shipment("Bad"))));
+        ShipmentCreated vaccine = new ShipmentCreated(1, "0xalice", "2030-01-01");
+        ShipmentCreated insulin = new ShipmentCreated(2, "0xalice", "2030-01-01");
+        AtomicInteger insulinCalls = new AtomicInteger();
+        when(shipmentService.sendCreate(any(), eq(user))).thenAnswer(invocation -> {
+            ShipmentInput input = invocation.getArgument(0);
+            return switch (input.getProductName()) {
+                case "Vaccine" -> new ResponseEntity<>(vaccine, HttpStatus.OK);
+                case "Insulin" -> {
+                    if (insulinCalls.getAndIncrement() == 0) {
+                        throw new CapacityExceededException("busy", 1);
+                    }
+                    yield new ResponseEntity<>(insulin, HttpStatus.OK);
+                }
+                default -> new ResponseEntity<>("Product name cannot contain numbers", HttpStatus.BAD_REQUEST);
+            };
+        });
+        when(shipmentService.recordCreatedAll(List.of(vaccine, insulin), user)).thenReturn(List.of(
+                new ShipmentRecord(1L, "0xalice", LocalDateTime.now(), State.CREATED, 3L),
+                new ShipmentRecord(2L, "0xalice", LocalDateTime.now(), State.CREATED, 3L)));
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.PENDING, job.getStatus());
+        assertEquals("1 shipments could not be sent yet", job.getError());
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        verify(shipmentService, times(4)).sendCreate(any(), any());
+        List<Map<String, Object>> results = objectMapper.readValue(job.getResult(), new TypeReference<>() {
+        });
+        assertEquals(true, results.get(0).get("success"));
+        assertEquals(2, results.get(1).get("shipmentId"));
+        assertTrue(((String) results.get(1).get("sku")).startsWith("SKU-"));
+        assertEquals("Product name cannot contain numbers", results.get(2).get("message"));
+        verify(chainJobRepository, never()).saveAll(any());
+    }
+
+    /**
+     * Tests that a batch of transfers resolves the new owner once, skips the shipments that cannot
+     * be transferred, and records the sent transfers together once every one has been sent.
+     */
+    @Test
+    void recordsTransfersOfBatchTogether() throws Exception {
+        ChainJob job = pendingJob();
+        job.setType(JobType.BATCH_TRANSFER);
+        job.setPayload(objectMapper.writeValueAsString(
+                new BatchTransferInput(List.of(1, 2, 9), "bob@example.com", 2, "Warehouse", "Unloaded")));
+        when(transferService.rejectedShipments(List.of(1, 2, 9))).thenReturn(Map.of(2, "Shipment not found"));
+        TransferResult second = new TransferResult(2, "0xbob", 2);
+        AtomicInteger secondCalls = new AtomicInteger();
+        when(transferService.submitValidatedTransfer(any(), eq(user), eq(bob))).thenAnswer(invocation -> {
+            TransferInput input = invocation.getArgument(0);
+            if (input.getShipmentId() == 2 && secondCalls.getAndIncrement() == 0) {
+                return CompletableFuture.failedFuture(new CapacityExceededException("busy", 1));
+            }
+            return CompletableFuture.completedFuture(input.getShipmentId() == 1 ? TRANSFERRED : second);
+        });
+        when(transferService.recordTransfers(List.of(TRANSFERRED, second), user, bob, "Unloaded")).thenReturn(Set.of());
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.PENDING, job.getStatus());
+        verify(transferService, never()).recordTransfers(any(), any(), any(), any());
+
+        chainJobService.run(7L);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        verify(transferService, times(3)).submitValidatedTransfer(any(), any(), any());
+        verify(transferService).recordTransfers(List.of(TRANSFERRED, second), user, bob, "Unloaded");
+        List<Map<String, Object>> results = objectMapper.readValue(job.getResult(), new TypeReference<>() {
+        });
+        assertEquals(true, results.get(0).get("success"));
+        assertEquals(2, results.get(1).get("shipmentId"));
+        assertEquals(true, results.get(1).get("success"));
+        assertEquals("Shipment not found", results.get(2).get("message"));
+    }
+
+    private ChainJob pendingJob() throws Exception {
+        ChainJob job = new ChainJob();
+        job.setId(7L);
+        job.setType(JobType.TRANSFER_SHIPMENT);
+        job.setUserId(3L);
+        job.setPayload(objectMapper.writeValueAsString(transfer()));
+        jobs.put(7L, job);
+        return job;
+    }
+}
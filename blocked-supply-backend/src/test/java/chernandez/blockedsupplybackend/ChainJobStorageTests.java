@@ -0,0 +1,131 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.BatchShipmentResult;
+import chernandez.blockedsupplybackend.domain.dto.ShipmentInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.ShipmentRecordRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AddressDirectory;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import chernandez.blockedsupplybackend.services.ShipmentService;
+import chernandez.blockedsupplybackend.services.TransferService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that the largest batch accepted by the API fits in the outbox.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:storage;MODE=MySQL;LOCK_TIMEOUT=10000",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ChainJobStorageTests {
+
+    private static final int MAX_BATCH_SIZE = 500;
+
+    @Autowired
+    private ChainJobRepository chainJobRepository;
+
+    @Autowired
+    private ShipmentRecordRepository shipmentRecordRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final User user = alice();
+    private BrokerClient brokerClient;
+    private ShipmentService shipmentService;
+    private ChainJobService chainJobService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        UserRepository userRepository = mock(UserRepository.class);
+        AuthService authService = mock(AuthService.class);
+        AddressDirectory addressDirectory = mock(AddressDirectory.class);
+        brokerClient = mock(BrokerClient.class);
+        shipmentService = new ShipmentService(shipmentRecordRepository, addressDirectory, brokerClient);
+        chainJobService = new ChainJobService(chainJobRepository, userRepository, mock(NotificationRepository.class),
+                shipmentService, mock(TransferService.class), authService, objectMapper,
+                new TransactionTemplate(transactionManager), 2, 10, 8);
+        when(authService.getUserFromJWT()).thenReturn(user);
+        when(userRepository.findById(3L)).thenReturn(Optional.of(user));
+        when(addressDirectory.addressOf(user)).thenReturn("0xalice");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        chainJobService.destroy();
+        chainJobRepository.deleteAll();
+        shipmentRecordRepository.deleteAll();
+    }
+
+    /**
+     * Tests that a batch of the maximum size, with every text field at its maximum length and
+     * made of two-byte characters, is stored, sent and recorded, although its payload is larger
+     * than a TEXT column, and that longer fields are rejected.
+     */
+    @Test
+    void storesLargestBatch() throws Exception {
+        List<ShipmentInput> inputs = new ArrayList<>(MAX_BATCH_SIZE);
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            inputs.add(new ShipmentInput("é".repeat(100), "é".repeat(500), "ó".repeat(99) + (i % 10),
+                    "ú".repeat(99) + (i % 10), "2030-01-01", 10, 10000));
+        }
+        AtomicInteger shipmentIds = new AtomicInteger();
+        when(brokerClient.createShipmentWithTransfer(any(), any())).thenAnswer(invocation ->
+                new ShipmentCreated(shipmentIds.incrementAndGet(), "0xalice", "2030-01-01"));
+
+        ResponseEntity<?> response = chainJobService.createShipments(inputs, false);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        @SuppressWarnings("unchecked")
+        List<BatchShipmentResult> results = (List<BatchShipmentResult>) response.getBody();
+        assertEquals(MAX_BATCH_SIZE, results.size());
+        assertTrue(results.stream().allMatch(BatchShipmentResult::success));
+        ChainJob job = chainJobRepository.findAll().get(0);
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertTrue(job.getPayload().getBytes(StandardCharsets.UTF_8).length > 65535);
+        assertEquals(objectMapper.writeValueAsString(inputs), job.getPayload());
+        assertEquals(MAX_BATCH_SIZE, objectMapper.readTree(job.getChainResult()).size());
+        assertEquals(MAX_BATCH_SIZE, objectMapper.readTree(job.getResult()).size());
+        assertEquals(MAX_BATCH_SIZE, shipmentRecordRepository.count());
+
+        ShipmentInput tooLong = new ShipmentInput("Vaccine", "pfizer", "o".repeat(101), "B", "2030-01-01", 2, 7);
+        assertEquals(HttpStatus.BAD_REQUEST, shipmentService.validateCreate(tooLong, user).getStatusCode());
+    }
+}
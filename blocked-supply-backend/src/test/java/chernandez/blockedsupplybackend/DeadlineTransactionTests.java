@@ -0,0 +1,133 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.config.DeadlineAwareTransactionManager;
+import chernandez.blockedsupplybackend.controllers.ApiExceptionHandler;
+import chernandez.blockedsupplybackend.controllers.ShipmentController;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import chernandez.blockedsupplybackend.services.ShipmentService;
+import chernandez.blockedsupplybackend.services.TransferService;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests that database calls made after the request deadline are answered with 504.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:deadline;MODE=MySQL;LOCK_TIMEOUT=10000",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Import(DeadlineTransactionTests.TransactionConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class DeadlineTransactionTests {
+
+    @TestConfiguration
+    static class TransactionConfig {
+
+        @Bean
+        PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+            return new DeadlineAwareTransactionManager(entityManagerFactory);
+        }
+    }
+
+    @Autowired
+    private ChainJobRepository chainJobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ChainJobService chainJobService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        AuthService authService = mock(AuthService.class);
+        ShipmentService shipmentService = mock(ShipmentService.class);
+        chainJobService = new ChainJobService(chainJobRepository, mock(UserRepository.class),
+                mock(NotificationRepository.class), shipmentService, mock(TransferService.class),
+                authService, objectMapper, new TransactionTemplate(transactionManager), 1, 10, 1);
+        when(authService.getUserFromJWT()).thenReturn(alice());
+        when(shipmentService.validateCreate(any(), any())).thenReturn(null);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ShipmentController(shipmentService, chainJobService))
+                .setControllerAdvice(new ApiExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        RequestDeadline.clear();
+        chainJobService.destroy();
+        chainJobRepository.deleteAll();
+    }
+
+    /**
+     * Tests that a transaction started after the deadline fails with the deadline exception
+     * itself rather than a generic transaction failure, which callers could not tell apart.
+     */
+    @Test
+    void refusesTransactionAfterDeadline() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        RequestDeadline.start(0);
+        assertThrows(DeadlineExceededException.class,
+                () -> transactionTemplate.execute(status -> chainJobRepository.count()));
+        RequestDeadline.start(10000);
+        assertEquals(0L, (long) transactionTemplate.execute(status -> chainJobRepository.count()));
+    }
+
+    /**
+     * Tests that a request whose deadline passed before its transaction started is answered with
+     * 504 without storing anything, and that the same request with time left is accepted.
+     */
+    @Test
+    void answersExpiredDeadlineWith504() throws Exception {
+        assertInstanceOf(DeadlineAwareTransactionManager.class, transactionManager);
+        String shipment = objectMapper.writeValueAsString(
+                shipment("Vaccine"));
+
+        RequestDeadline.start(0);
+        mockMvc.perform(post("/api/shipment/create").header("Prefer", "respond-async")
+                        .contentType(MediaType.APPLICATION_JSON).content(shipment))
+                .andExpect(status().isGatewayTimeout());
+        RequestDeadline.clear();
+        assertEquals(0, chainJobRepository.count());
+
+        RequestDeadline.start(10000);
+        mockMvc.perform(post("/api/shipment/create").header("Prefer", "respond-async")
+                        .contentType(MediaType.APPLICATION_JSON).content(shipment))
+                .andExpect(status().isAccepted());
+        RequestDeadline.clear();
+        assertEquals(1, chainJobRepository.count());
+    }
+}
@@ -0,0 +1,76 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.services.EncryptionService;
+import chernandez.blockedsupplybackend.utils.EncryptionUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the cached-cipher encryption service.
+ */
+public class EncryptionServiceTests {
+
+    private static final String KEY = "0123456789abcdef";
+    private static final String ADDRESS = "0x90F8bf6A479f320ead074411a4B0e7944Ea8c9C1";
+
+    private final EncryptionService encryptionService = new EncryptionService(KEY);
+
+    /**
+     * Tests that the service produces and reads the same ciphertext as {@link EncryptionUtil}.
+     */
+    @Test
+    void compatibleWithEncryptionUtil() throws Exception {
+        String stored = EncryptionUtil.encrypt(KEY, ADDRESS);
+
+        assertEquals(stored, encryptionService.encrypt(ADDRESS));
+        assertEquals(ADDRESS, encryptionService.decrypt(stored));
+        assertEquals(ADDRESS, EncryptionUtil.decrypt(KEY, encryptionService.encrypt(ADDRESS)));
+    }
+
+    /**
+     * Tests that the bulk methods keep the input order.
+     */
+    @Test
+    void bulkRoundTrip() throws Exception {
+        List<String> addresses = List.of(ADDRESS, "0xFFcf8FDEE72ac11b5c542428B35EEF5769C409f0", "0x22d491Bde2303f2f43325b2108D26f1eAbA1e32b");
+
+        List<String> encrypted = encryptionService.encryptAll(addresses);
+
+        assertEquals(EncryptionUtil.encrypt(KEY, addresses.get(1)), encrypted.get(1));
+        assertEquals(addresses, encryptionService.decryptAll(encrypted));
+    }
+
+    /**
+     * Tests that a failed decryption does not break later calls.
+     */
+    @Test
+    void recoversAfterFailure() throws Exception {
+        assertThrows(Exception.class, () -> encryptionService.decrypt("AAAAAAAAAAAAAAAAAAAAAA=="));
+
+        assertEquals(ADDRESS, encryptionService.decrypt(encryptionService.encrypt(ADDRESS)));
+    }
+
+    /**
+     * Tests that concurrent callers get correct results from the pooled ciphers.
+     */
+    @Test
+    void concurrentUse() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = executor.invokeAll(Collections.nCopies(200,
+                    () -> encryptionService.decrypt(encryptionService.encrypt(ADDRESS))));
+            for (Future<String> result : results) {
+                assertEquals(ADDRESS, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
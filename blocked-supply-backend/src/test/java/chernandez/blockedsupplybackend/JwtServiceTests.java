@@ -0,0 +1,82 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.services.JwtService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the JWT verification pipeline.
+ */
+public class JwtServiceTests {
+
+    private static final String SECRET = "ZmFrZS10ZXN0LXNlY3JldC1rZXktdGhhdC1pcy1sb25nLWVub3VnaC1mb3ItaHMzODQtc2lnbmluZw==";
+
+    private JwtService jwtService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = newJwtService(86400000L, 16);
+        user = User.builder().id(7L).name("John").email("john@example.com").build();
+    }
+
+    /**
+     * Tests that a freshly issued token is verified once and exposes its claims.
+     */
+    @Test
+    void verifyReturnsClaims() {
+        String token = jwtService.generateToken(user);
+
+        VerifiedClaims claims = jwtService.verify(token).orElseThrow();
+
+        assertEquals("john@example.com", claims.subject());
+        assertEquals("7", claims.id());
+        assertTrue(jwtService.isTokenValid(claims, user));
+        assertSame(claims, jwtService.verify(token).orElseThrow());
+    }
+
+    /**
+     * Tests that tampered, malformed and expired tokens are rejected.
+     */
+    @Test
+    void verifyRejectsInvalidTokens() {
+        String token = jwtService.generateToken(user);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertEquals(Optional.empty(), jwtService.verify(tampered));
+        assertEquals(Optional.empty(), jwtService.verify("not-a-jwt"));
+        assertEquals(Optional.empty(), jwtService.verify(null));
+
+        JwtService expiring = newJwtService(-1000L, 16);
+        assertEquals(Optional.empty(), expiring.verify(expiring.generateToken(user)));
+    }
+
+    /**
+     * Tests that verification works with the cache disabled.
+     */
+    @Test
+    void verifyWithoutCache() {
+        JwtService uncached = newJwtService(86400000L, 0);
+        String token = uncached.generateToken(user);
+
+        assertEquals("john@example.com", uncached.extractUsername(token));
+        assertTrue(uncached.isTokenValid(token, user));
+    }
+
+    private static JwtService newJwtService(long expiration, int cacheSize) {
+        JwtService service = new JwtService();
+        ReflectionTestUtils.setField(service, "secretKey", SECRET);
+        ReflectionTestUtils.setField(service, "expiration", expiration);
+        ReflectionTestUtils.setField(service, "refreshExpiration", expiration);
+        ReflectionTestUtils.setField(service, "cacheSize", cacheSize);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+}
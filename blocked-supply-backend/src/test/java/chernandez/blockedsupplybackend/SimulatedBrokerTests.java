@@ -0,0 +1,140 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.clients.SimulatedBroker;
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import chernandez.blockedsupplybackend.domain.dto.broker.BrokerTransfer;
+import chernandez.blockedsupplybackend.domain.dto.broker.ShipmentCreated;
+import chernandez.blockedsupplybackend.exceptions.DeadlineExceededException;
+import chernandez.blockedsupplybackend.utils.RequestDeadline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.util.List;
+import java.util.Optional;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the simulated chain behind the broker client.
+ */
+public class SimulatedBrokerTests {
+
+    private BrokerClient brokerClient;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        RequestDeadline.clear();
+        brokerClient.destroy();
+    }
+
+    /**
+     * Tests that shipments and transfers follow the contract's ID, ownership and history rules.
+     */
+    @Test
+    void followsContractSemantics() {
+        brokerClient = client(new SimulatedBroker(3, 1, "fixed", 0, 0, 0, 1, 0, 30000));
+        List<String> accounts = brokerClient.getAccounts();
+        String owner = accounts.get(0);
+        String carrier = accounts.get(1);
+
+        ShipmentCreated created = brokerClient.createShipment(shipmentFrom(owner));
+        assertEquals(1, created.id());
+        assertEquals(owner, created.currentOwner());
+        assertEquals(2, brokerClient.getNextShipmentId().nextShipmentId());
+
+        brokerClient.transferShipment(1, transfer(1, owner, carrier, 1));
+        HttpClientErrorException notOwner = assertThrows(HttpClientErrorException.class,
+                () -> brokerClient.transferShipment(1, transfer(1, owner, carrier, 2)));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, notOwner.getStatusCode());
+        assertTrue(notOwner.getResponseBodyAsString().contains("revert Only the current owner can perform this action."));
+        assertTrue(notOwner.getResponseBodyAsString().contains(BrokerCallGuard.REVERT_CODE));
+        assertTrue(BrokerCallGuard.isCallerError(notOwner));
+
+        List<BrokerTransfer> transfers = brokerClient.getTransfers(1);
+        assertEquals(1, transfers.size());
+        assertEquals(carrier, transfers.get(0).newShipmentOwner());
+        assertEquals(carrier, brokerClient.getShipment(1).currentOwner());
+        assertEquals(1, brokerClient.getShipment(1).currentState());
+
+        HttpClientErrorException missing = assertThrows(HttpClientErrorException.class, () -> brokerClient.getShipment(5));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, missing.getStatusCode());
+        assertTrue(missing.getResponseBodyAsString().contains("revert Shipment does not exist."));
+    }
+
+    /**
+     * Tests that a shipment created with its initial transfer starts its history at the origin.
+     */
+    @Test
+    void createsShipmentWithInitialTransfer() {
+        brokerClient = client(new SimulatedBroker(1, 1, "fixed", 0, 0, 0, 1, 0, 30000));
+        String owner = brokerClient.getAccounts().get(0);
+
+        ShipmentCreated created = brokerClient.createShipmentWithTransfer(shipmentFrom(owner), "Shipment created");
+        assertEquals(1, created.id());
+        assertEquals(owner, created.currentOwner());
+        assertEquals("2030-01-01", created.deliveryDate());
+
+        List<BrokerTransfer> transfers = brokerClient.getTransfers(1);
+        assertEquals(1, transfers.size());
+        assertEquals(owner, transfers.get(0).newShipmentOwner());
+        assertEquals("A", transfers.get(0).location());
+        assertEquals("Shipment created", transfers.get(0).transferNotes());
+        assertEquals(0, brokerClient.getShipment(1).currentState());
+        assertEquals(2, brokerClient.getNextTransferId().nextTransferId());
+    }
+
+    /**
+     * Tests that only the generated accounts can send transactions.
+     */
+    @Test
+    void rejectsUnknownSenders() {
+        brokerClient = client(new SimulatedBroker(1, 1, "fixed", 0, 0, 0, 1, 0, 30000));
+
+        HttpServerErrorException e = assertThrows(HttpServerErrorException.class,
+                () -> brokerClient.createShipment(shipmentFrom("0x0000000000000000000000000000000000000001")));
+        assertTrue(e.getResponseBodyAsString().contains("sender account not recognized"));
+        assertFalse(BrokerCallGuard.isCallerError(e));
+    }
+
+    /**
+     * Tests that injected failures surface as broker errors.
+     */
+    @Test
+    void injectsErrors() {
+        brokerClient = client(new SimulatedBroker(1, 1, "fixed", 0, 0, 0, 1, 1, 30000));
+
+        assertThrows(HttpServerErrorException.class, () -> brokerClient.getNextTransferId());
+    }
+
+    /**
+     * Tests that injected latency is cut short by the request deadline.
+     */
+    @Test
+    void injectsLatency() {
+        brokerClient = client(new SimulatedBroker(1, 1, "fixed", 2000, 2000, 0, 1, 0, 30000));
+        RequestDeadline.start(100);
+
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> brokerClient.getNextShipmentId());
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    private static BrokerClient client(SimulatedBroker broker) {
+        BrokerProperties properties = brokerProperties("address=http://simulated-chain", "connect-timeout=1000",
+                "pool.acquire-timeout=1000", "pool.max-total=4", "pool.max-per-route=4", "hedge.enabled=false",
+                "circuit-breaker.window-size=10", "circuit-breaker.minimum-calls=4",
+                "bulkhead.read.max-concurrent=2", "bulkhead.write.max-concurrent=1");
+        BrokerCallGuard guard = new BrokerCallGuard(new SimpleMeterRegistry(), properties);
+        return new BrokerClient(RestClient.builder(), new ObjectMapper(), guard, Optional.of(broker), properties, false);
+    }
+}
@@ -0,0 +1,76 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.utils.SingleFlight;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the coalescing of concurrent identical calls.
+ */
+public class SingleFlightTests {
+
+    private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+    /**
+     * Tests that concurrent callers for the same key share one call and its result.
+     */
+    @Test
+    void sharesOneCallBetweenConcurrentCallers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("shipment:1", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return 42;
+                })));
+            }
+            while (calls.get() == 0) {
+                Thread.onSpinWait();
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<Integer> result : results) {
+                assertEquals(42, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, singleFlight.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that a failure is delivered to every waiter and that the next call starts afresh.
+     */
+    @Test
+    void sharesFailuresWithoutCachingThem() {
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("next-id", () -> {
+            throw new IllegalStateException("broker down");
+        }));
+
+        assertEquals(7, singleFlight.execute("next-id", () -> 7));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.config.TokenDigestMigration;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.services.JwtService;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the startup migration of legacy token rows to digests.
+ */
+public class TokenDigestMigrationTests {
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private JwtService jwtService;
+    private TokenDigestMigration migration;
+
+    @BeforeEach
+    void setUp() {
+        // database() resolves to the name of the in-memory database, so the table lives in a
+        // schema of the same name, as it does on MySQL
+        dataSource = new SingleConnectionDataSource(
+                "jdbc:h2:mem:migration;MODE=MySQL;DATABASE_TO_LOWER=TRUE", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create schema migration");
+        jdbcTemplate.execute("set schema migration");
+        jdbcTemplate.execute("create table tokens (id bigint primary key, token varchar(512) unique, " +
+                "token_digest binary(32), expires_at timestamp, expired boolean not null default false)");
+        jwtService = mock(JwtService.class);
+        when(jwtService.verify(anyString())).thenAnswer(invocation -> {
+            String jwt = invocation.getArgument(0);
+            return jwt.startsWith("valid")
+                    ? Optional.of(new VerifiedClaims("john@example.com", "7", Instant.now().plus(1, ChronoUnit.HOURS)))
+                    : Optional.empty();
+        });
+        migration = new TokenDigestMigration(jdbcTemplate, jwtService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    /**
+     * Tests that rows spanning several batches, mixed with rows a previous, interrupted run
+     * already migrated, are all migrated and that the migrated rows are left untouched.
+     */
+    @Test
+    void finishesPartialMigration() {
+        jdbcTemplate.update("insert into tokens (id, token_digest, expired) values (1, ?, false)",
+                (Object) DigestUtil.sha256("already-migrated"));
+        List<Object[]> legacy = new ArrayList<>();
+        for (int id = 2; id <= 1200; id++) {
+            legacy.add(new Object[]{id, (id % 2 == 0 ? "valid-" : "broken-") + id});
+        }
+        jdbcTemplate.batchUpdate("insert into tokens (id, token) values (?, ?)", legacy);
+
+        migration.run(new DefaultApplicationArguments());
+
+        assertEquals(0, count("token is not null"));
+        assertEquals(0, count("token_digest is null"));
+        assertEquals(599, count("expired = true"));
+        assertEquals(600, count("expires_at is not null"));
+        Map<String, Object> migrated = jdbcTemplate.queryForMap("select * from tokens where id = 2");
+        assertArrayEquals(DigestUtil.sha256("valid-2"), (byte[]) migrated.get("token_digest"));
+        assertArrayEquals(DigestUtil.sha256("already-migrated"),
+                jdbcTemplate.queryForObject("select token_digest from tokens where id = 1", byte[].class));
+        verify(jwtService, times(1199)).verify(anyString());
+    }
+
+    /**
+     * Tests that running the migration again changes nothing.
+     */
+    @Test
+    void rerunIsIdempotent() {
+        jdbcTemplate.update("insert into tokens (id, token) values (1, 'valid-1')");
+        migration.run(new DefaultApplicationArguments());
+        List<Map<String, Object>> afterFirstRun = jdbcTemplate.queryForList("select * from tokens");
+
+        migration.run(new DefaultApplicationArguments());
+
+        List<Map<String, Object>> afterSecondRun = jdbcTemplate.queryForList("select * from tokens");
+        assertEquals(afterFirstRun.size(), afterSecondRun.size());
+        assertArrayEquals((byte[]) afterFirstRun.get(0).get("token_digest"),
+                (byte[]) afterSecondRun.get(0).get("token_digest"));
+        assertEquals(afterFirstRun.get(0).get("expires_at"), afterSecondRun.get(0).get("expires_at"));
+        verify(jwtService, times(1)).verify(anyString());
+    }
+
+    /**
+     * Tests that the legacy column is dropped once and that later runs skip the migration.
+     */
+    @Test
+    void skipsMigrationOnceColumnIsDropped() {
+        ReflectionTestUtils.setField(migration, "dropLegacyColumn", true);
+        jdbcTemplate.update("insert into tokens (id, token) values (1, 'valid-1')");
+
+        migration.run(new DefaultApplicationArguments());
+        assertFalse(hasLegacyColumn());
+
+        migration.run(new DefaultApplicationArguments());
+        assertFalse(hasLegacyColumn());
+        assertEquals(1, count("token_digest is not null"));
+        verify(jwtService, times(1)).verify(anyString());
+    }
+
+    private int count(String condition) {
+        return jdbcTemplate.queryForObject("select count(*) from tokens where " + condition, Integer.class);
+    }
+
+    private boolean hasLegacyColumn() {
+        return jdbcTemplate.queryForObject("select count(*) from information_schema.columns " +
+                "where table_name = 'tokens' and column_name = 'token'", Integer.class) > 0;
+    }
+}
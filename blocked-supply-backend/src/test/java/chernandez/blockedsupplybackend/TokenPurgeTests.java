@@ -0,0 +1,113 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.Token;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import chernandez.blockedsupplybackend.services.TokenPurgeService;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the chunked purge and bulk revocation of tokens.
+ */
+@DataJpaTest
+public class TokenPurgeTests {
+
+    private static final long REFRESH_EXPIRATION = 604800000L;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    private TokenPurgeService tokenPurgeService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        tokenPurgeService = new TokenPurgeService(tokenRepository);
+        ReflectionTestUtils.setField(tokenPurgeService, "refreshExpiration", REFRESH_EXPIRATION);
+        ReflectionTestUtils.setField(tokenPurgeService, "batchSize", 2);
+        ReflectionTestUtils.setField(tokenPurgeService, "maxBatches", 100);
+        user = entityManager.persist(User.builder().email("john@example.com").build());
+    }
+
+    /**
+     * Tests that only revoked or expired tokens created before the cutoff are deleted.
+     */
+    @Test
+    void purgesOnlyDeadTokensOlderThanCutoff() {
+        LocalDateTime cutoff = LocalDateTime.now().minusNanos(REFRESH_EXPIRATION * 1_000_000);
+        Token purgeable = token(user, true, cutoff.minusMinutes(1));
+        Token recent = token(user, true, cutoff.plusMinutes(1));
+        Token live = token(user, false, cutoff.minusDays(1));
+
+        assertEquals(1, tokenPurgeService.purge());
+
+        entityManager.clear();
+        assertNull(entityManager.find(Token.class, purgeable.getId()));
+        assertNotNull(entityManager.find(Token.class, recent.getId()));
+        assertNotNull(entityManager.find(Token.class, live.getId()));
+    }
+
+    /**
+     * Tests that one run deletes at most {@code max-batches} chunks.
+     */
+    @Test
+    void stopsAtMaxBatches() {
+        ReflectionTestUtils.setField(tokenPurgeService, "maxBatches", 2);
+        LocalDateTime old = LocalDateTime.now().minusDays(30);
+        for (int i = 0; i < 5; i++) {
+            token(user, true, old);
+        }
+
+        assertEquals(4, tokenPurgeService.purge());
+        assertEquals(1, tokenPurgeService.purge());
+        assertEquals(0, tokenPurgeService.purge());
+    }
+
+    /**
+     * Tests that revoking every token of a user leaves other users' tokens live.
+     */
+    @Test
+    void revokesOnlyLiveTokensOfUser() {
+        User other = entityManager.persist(User.builder().email("jane@example.com").build());
+        Token first = token(user, false, LocalDateTime.now());
+        token(user, false, LocalDateTime.now());
+        token(user, true, LocalDateTime.now());
+        Token untouched = token(other, false, LocalDateTime.now());
+
+        assertEquals(2, tokenRepository.revokeAllByUserId(user.getId(), LocalDateTime.now()));
+
+        entityManager.clear();
+        assertFalse(entityManager.find(Token.class, first.getId()).isLive());
+        assertTrue(entityManager.find(Token.class, untouched.getId()).isLive());
+    }
+
+    private Token token(User owner, boolean dead, LocalDateTime createdAt) {
+        Token token = entityManager.persistAndFlush(Token.builder()
+                .tokenDigest(DigestUtil.sha256(UUID.randomUUID().toString()))
+                .user(owner)
+                .revoked(dead)
+                .expired(dead)
+                .expiresAt(createdAt.plusDays(1))
+                .build());
+        // createdAt is set on insert, so backdate it afterwards
+        entityManager.getEntityManager().createQuery("update tokens t set t.createdAt = :createdAt where t.id = :id")
+                .setParameter("createdAt", createdAt)
+                .setParameter("id", token.getId())
+                .executeUpdate();
+        return token;
+    }
+}
@@ -0,0 +1,136 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.domain.Token;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.auth.VerifiedClaims;
+import chernandez.blockedsupplybackend.repositories.TokenRepository;
+import chernandez.blockedsupplybackend.services.TokenRevocationIndex;
+import chernandez.blockedsupplybackend.utils.DigestUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the in-memory index of issued tokens.
+ */
+public class TokenRevocationIndexTests {
+
+    private static final long REFRESH_INTERVAL = 5000;
+
+    private final User user = User.builder().id(7L).email("john@example.com").build();
+    private TokenRepository tokenRepository;
+    private TokenRevocationIndex index;
+
+    @BeforeEach
+    void setUp() {
+        tokenRepository = mock(TokenRepository.class);
+        index = new TokenRevocationIndex(tokenRepository);
+        ReflectionTestUtils.setField(index, "refreshInterval", REFRESH_INTERVAL);
+    }
+
+    /**
+     * Tests that the live tokens loaded at startup are answered without a database lookup.
+     */
+    @Test
+    void loadsLiveTokensAtStartup() {
+        when(tokenRepository.findAllByRevokedFalseAndExpiredFalseAndExpiresAtAfter(any()))
+                .thenReturn(List.of(token("a", false)));
+
+        index.load();
+
+        assertTrue(index.isLive("a", claims()));
+        verify(tokenRepository, never()).findByTokenDigest(any());
+    }
+
+    /**
+     * Tests that a token revoked by another instance after it was cached is rejected after the
+     * next refresh, and that the refresh window overlaps the previous one.
+     */
+    @Test
+    void rejectsTokenRevokedAfterItWasCached() {
+        when(tokenRepository.findAllByRevokedFalseAndExpiredFalseAndExpiresAtAfter(any()))
+                .thenReturn(List.of(token("a", false)));
+        LocalDateTime beforeLoad = LocalDateTime.now();
+        index.load();
+        LocalDateTime afterLoad = LocalDateTime.now();
+        assertTrue(index.isLive("a", claims()));
+
+        when(tokenRepository.findAllByModifiedAtAfter(any())).thenReturn(List.of(token("a", true)));
+        index.refresh();
+
+        assertFalse(index.isLive("a", claims()));
+        ArgumentCaptor<LocalDateTime> since = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(tokenRepository).findAllByModifiedAtAfter(since.capture());
+        assertFalse(since.getValue().isBefore(beforeLoad.minus(2 * REFRESH_INTERVAL, ChronoUnit.MILLIS)));
+        assertFalse(since.getValue().isAfter(afterLoad.minus(2 * REFRESH_INTERVAL, ChronoUnit.MILLIS)));
+    }
+
+    /**
+     * Tests that an unknown token is looked up once and then rejected from memory.
+     */
+    @Test
+    void remembersUnknownTokens() {
+        when(tokenRepository.findByTokenDigest(any())).thenReturn(Optional.empty());
+
+        assertFalse(index.isLive("unknown", claims()));
+        assertFalse(index.isLive("unknown", claims()));
+
+        verify(tokenRepository, times(1)).findByTokenDigest(any());
+    }
+
+    /**
+     * Tests that a token issued by another instance is found with one lookup and remembered.
+     */
+    @Test
+    void looksUpTokensIssuedElsewhere() {
+        when(tokenRepository.findByTokenDigest(any())).thenReturn(Optional.of(token("b", false)));
+
+        assertTrue(index.isLive("b", claims()));
+        assertTrue(index.isLive("b", claims()));
+
+        verify(tokenRepository, times(1)).findByTokenDigest(any());
+    }
+
+    /**
+     * Tests that revocations made on this instance take effect immediately.
+     */
+    @Test
+    void appliesLocalRevocations() {
+        Instant expiresAt = Instant.now().plus(1, ChronoUnit.HOURS);
+        index.register(7L, "a", expiresAt);
+        index.register(7L, "b", expiresAt);
+        index.register(7L, "c", expiresAt);
+
+        index.revoke("a");
+        index.revokeAll(7L);
+
+        assertFalse(index.isLive("a", claims()));
+        assertFalse(index.isLive("b", claims()));
+        assertFalse(index.isLive("c", claims()));
+        verify(tokenRepository, never()).findByTokenDigest(any());
+    }
+
+    private Token token(String jwt, boolean revoked) {
+        return Token.builder()
+                .tokenDigest(DigestUtil.sha256(jwt))
+                .user(user)
+                .revoked(revoked)
+                .expiresAt(LocalDateTime.now().plusHours(1))
+                .build();
+    }
+
+    private static VerifiedClaims claims() {
+        return new VerifiedClaims("john@example.com", "7", Instant.now().plus(1, ChronoUnit.HOURS));
+    }
+}
@@ -0,0 +1,250 @@
+package chernandez.blockedsupplybackend;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.clients.SimulatedBroker;
+import chernandez.blockedsupplybackend.clients.TransferBatcher;
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import chernandez.blockedsupplybackend.domain.ChainJob;
+import chernandez.blockedsupplybackend.domain.JobStatus;
+import chernandez.blockedsupplybackend.domain.ShipmentRecord;
+import chernandez.blockedsupplybackend.domain.State;
+import chernandez.blockedsupplybackend.domain.User;
+import chernandez.blockedsupplybackend.domain.dto.TransferInput;
+import chernandez.blockedsupplybackend.domain.dto.broker.TransferResult;
+import chernandez.blockedsupplybackend.repositories.ChainJobRepository;
+import chernandez.blockedsupplybackend.repositories.NotificationRepository;
+import chernandez.blockedsupplybackend.repositories.ShipmentRecordRepository;
+import chernandez.blockedsupplybackend.repositories.UserRepository;
+import chernandez.blockedsupplybackend.services.AddressDirectory;
+import chernandez.blockedsupplybackend.services.AuthService;
+import chernandez.blockedsupplybackend.services.ChainJobService;
+import chernandez.blockedsupplybackend.services.ShipmentService;
+import chernandez.blockedsupplybackend.services.TransferService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+import static chernandez.blockedsupplybackend.ChainFixtures.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the grouping of concurrent transfers into batch transactions.
+ */
+public class TransferBatcherTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<Long, ChainJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private BrokerClient brokerClient;
+    private TransferBatcher transferBatcher;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        transferBatcher.destroy();
+        brokerClient.destroy();
+    }
+
+    /**
+     * Tests that concurrent transfers of a sender are sent as one batch and that a rejected
+     * transfer fails on its own.
+     */
+    @Test
+    void batchesTransfersAndIsolatesFailures() {
+        setUp(500, 10);
+        List<String> accounts = brokerClient.getAccounts();
+        String owner = accounts.get(0);
+        String carrier = accounts.get(1);
+        brokerClient.createShipment(shipmentFrom(owner));
+        brokerClient.createShipment(shipmentFrom(carrier));
+        brokerClient.createShipment(shipmentFrom(owner));
+
+        List<CompletableFuture<TransferResult>> results = new ArrayList<>();
+        for (int shipmentId = 1; shipmentId <= 3; shipmentId++) {
+            TransferInput input = transfer(shipmentId, owner, carrier, 2);
+            results.add(transferBatcher.submit(input.getShipmentId(), input));
+        }
+
+        assertEquals(carrier, results.get(0).join().newOwner());
+        assertEquals(2, results.get(2).join().newState());
+        CompletionException rejected = assertThrows(CompletionException.class, () -> results.get(1).join());
+        HttpClientErrorException cause = assertInstanceOf(HttpClientErrorException.class, rejected.getCause());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, cause.getStatusCode());
+        assertTrue(cause.getResponseBodyAsString().contains("revert Only the current owner can perform this action."));
+        assertTrue(cause.getResponseBodyAsString().contains(BrokerCallGuard.REVERT_CODE));
+
+        assertEquals(carrier, brokerClient.getShipment(3).currentOwner());
+        DistributionSummary batchSizes = meterRegistry.get("broker.transfer.batch.size").summary();
+        assertEquals(1, batchSizes.count());
+        assertEquals(3, batchSizes.max());
+    }
+
+    /**
+     * Tests that a full window is sent without waiting for its time to run out.
+     */
+    @Test
+    void sendsFullWindowRightAway() {
+        setUp(60000, 2);
+        String owner = brokerClient.getAccounts().get(0);
+        String carrier = brokerClient.getAccounts().get(1);
+        brokerClient.createShipment(shipmentFrom(owner));
+        brokerClient.createShipment(shipmentFrom(owner));
+
+        long start = System.nanoTime();
+        CompletableFuture<TransferResult> first = transferBatcher.submit(1, transfer(1, owner, carrier, 2));
+        TransferResult second = transferBatcher.submit(2, transfer(2, owner, carrier, 2)).join();
+
+        assertEquals(1, first.join().shipmentId());
+        assertEquals(2, second.shipmentId());
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+
+    /**
+     * Tests that an error thrown while sending a window, not only an exception, fails every
+     * transfer of the window instead of leaving it unanswered.
+     */
+    @Test
+    void failsWindowWhenSendThrowsError() {
+        brokerClient = mock(BrokerClient.class);
+        when(brokerClient.transferShipments(any(), anyList())).thenThrow(new StackOverflowError());
+        transferBatcher = new TransferBatcher(brokerClient, new ObjectMapper(), meterRegistry, true, 60000, 2);
+
+        CompletableFuture<TransferResult> first = transferBatcher.submit(1, transfer(1, "0xowner", "0xcarrier", 2));
+        CompletableFuture<TransferResult> second = transferBatcher.submit(2, transfer(2, "0xowner", "0xcarrier", 2));
+
+        for (CompletableFuture<TransferResult> result : List.of(first, second)) {
+            ExecutionException failed = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(StackOverflowError.class, failed.getCause());
+        }
+    }
+
+    /**
+     * Tests that concurrent single transfer jobs of a sender, more than the outbox has worker
+     * and pipeline threads, are sent as one chain transaction and are all recorded.
+     */
+    @Test
+    void batchesTransferJobsOfSender() throws Exception {
+        setUp(1000, 50);
+        String owner = brokerClient.getAccounts().get(0);
+        String carrier = brokerClient.getAccounts().get(1);
+        int transfers = 20;
+        for (int i = 0; i < transfers; i++) {
+            brokerClient.createShipment(shipmentFrom(owner));
+        }
+        ChainJobService chainJobService = chainJobService(alice(), bob(), owner, carrier);
+
+        try {
+            for (int shipmentId = 1; shipmentId <= transfers; shipmentId++) {
+                ResponseEntity<?> response = chainJobService.submitTransfer(
+                        new TransferInput(shipmentId, "bob@example.com", 2, "Warehouse", "Unloaded"));
+                assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (jobs.values().stream().anyMatch(job -> job.getStatus() != JobStatus.SUCCEEDED)
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            chainJobService.destroy();
+        }
+
+        assertEquals(transfers, jobs.size());
+        assertTrue(jobs.values().stream().allMatch(job -> job.getStatus() == JobStatus.SUCCEEDED));
+        for (int shipmentId = 1; shipmentId <= transfers; shipmentId++) {
+            assertEquals(carrier, brokerClient.getShipment(shipmentId).currentOwner());
+        }
+        DistributionSummary batchSizes = meterRegistry.get("broker.transfer.batch.size").summary();
+        assertEquals(1, batchSizes.count());
+        assertEquals(transfers, batchSizes.max());
+    }
+
+    /**
+     * Builds an outbox with four workers and eight pipeline threads, backed by an in-memory job
+     * table, whose transfers go through the transfer batcher.
+     */
+    @SuppressWarnings("unchecked")
+    private ChainJobService chainJobService(User alice, User bob, String owner, String carrier) throws Exception {
+        ShipmentRecordRepository shipmentRecordRepository = mock(ShipmentRecordRepository.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        AuthService authService = mock(AuthService.class);
+        AddressDirectory addressDirectory = mock(AddressDirectory.class);
+        ChainJobRepository chainJobRepository = mock(ChainJobRepository.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        NotificationRepository notificationRepository = mock(NotificationRepository.class);
+        TransferService transferService = new TransferService(shipmentRecordRepository, userRepository,
+                notificationRepository, authService, addressDirectory, brokerClient, transferBatcher);
+
+        when(authService.getUserFromJWT()).thenReturn(alice);
+        when(userRepository.findById(3L)).thenReturn(Optional.of(alice));
+        when(userRepository.findByEmail("bob@example.com")).thenReturn(Optional.of(bob));
+        when(addressDirectory.addressOf(alice)).thenReturn(owner);
+        when(addressDirectory.addressOf(bob)).thenReturn(carrier);
+        when(shipmentRecordRepository.findById(anyLong())).thenAnswer(invocation -> Optional.of(new ShipmentRecord(
+                invocation.getArgument(0), owner, LocalDateTime.now().plusDays(1), State.CREATED, 3L)));
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        when(chainJobRepository.save(any())).thenAnswer(invocation -> {
+            ChainJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(ids.incrementAndGet());
+            }
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(chainJobRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<Long>getArgument(0))));
+        when(chainJobRepository.claim(anyLong(), eq(JobStatus.PENDING), eq(JobStatus.RUNNING), any(), any()))
+                .thenAnswer(invocation -> {
+                    ChainJob job = jobs.get(invocation.<Long>getArgument(0));
+                    synchronized (job) {
+                        if (job.getStatus() != JobStatus.PENDING) {
+                            return 0;
+                        }
+                        job.setStatus(JobStatus.RUNNING);
+                        return 1;
+                    }
+                });
+        return new ChainJobService(chainJobRepository, userRepository, notificationRepository,
+                mock(ShipmentService.class), transferService, authService, Jackson2ObjectMapperBuilder.json().build(),
+                transactionTemplate, 4, 100, 8);
+    }
+
+    private void setUp(long window, int maxSize) {
+        BrokerProperties properties = brokerProperties("address=http://simulated-chain", "connect-timeout=1000",
+                "pool.acquire-timeout=1000", "pool.max-total=4", "pool.max-per-route=4", "hedge.enabled=false",
+                "circuit-breaker.window-size=10", "circuit-breaker.minimum-calls=4",
+                "bulkhead.read.max-concurrent=2", "bulkhead.write.max-concurrent=2");
+        BrokerCallGuard guard = new BrokerCallGuard(meterRegistry, properties);
+        brokerClient = new BrokerClient(RestClient.builder(), new ObjectMapper(), guard,
+                Optional.of(new SimulatedBroker(2, 1, "fixed", 0, 0, 0, 1, 0, 30000)), properties, false);
+        transferBatcher = new TransferBatcher(brokerClient, new ObjectMapper(), meterRegistry, true, window, maxSize);
+    }
+}
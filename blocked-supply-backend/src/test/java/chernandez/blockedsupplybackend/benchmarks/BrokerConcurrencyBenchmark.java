@@ -0,0 +1,154 @@
+package chernandez.blockedsupplybackend.benchmarks;
+
+import chernandez.blockedsupplybackend.clients.BrokerCallGuard;
+import chernandez.blockedsupplybackend.clients.BrokerClient;
+import chernandez.blockedsupplybackend.config.BrokerProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static chernandez.blockedsupplybackend.BrokerFixtures.brokerProperties;
+
+/**
+ * Compares thread-per-request on platform threads with virtual threads for many concurrent
+ * broker calls, each of which waits on a stub broker with a fixed latency.
+ * <p>
+ * Each invocation starts {@code inFlight} distinct shipment reads at once, one per thread, the
+ * way Tomcat would with that many requests, and waits for all of them; throughput is
+ * {@code inFlight} divided by the reported time. After every iteration the peak number of live
+ * threads and the peak resident memory of the process are printed. The {@code virtual} runs need
+ * Java 21.
+ * </p>
+ * <p>
+ * Run with {@code mvn -Pjava21 test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=chernandez.blockedsupplybackend.benchmarks.BrokerConcurrencyBenchmark}
+ * or from the IDE through {@link #main(String[])}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerConcurrencyBenchmark {
+
+    private static final long BROKER_LATENCY_MS = 50;
+    private static final byte[] SHIPMENT = ("{\"id\":\"1\",\"name\":\"Vaccine\",\"description\":\"pfizer\",\"origin\":\"A\"," +
+            "\"destination\":\"B\",\"deliveryDate\":\"2025-05-05\",\"units\":\"2\",\"weight\":\"7\"," +
+            "\"currentState\":\"1\",\"currentOwner\":\"0xabc\"}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"1000", "10000"})
+    private int inFlight;
+
+    private HttpServer broker;
+    private ScheduledExecutorService brokerScheduler;
+    private BrokerClient brokerClient;
+    private Executor executor;
+    private int nextId;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Keep the stub from closing pooled connections between iterations
+        System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(inFlight));
+        brokerScheduler = Executors.newScheduledThreadPool(2);
+        broker = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), inFlight);
+        broker.createContext("/", exchange ->
+                brokerScheduler.schedule(() -> respond(exchange), BROKER_LATENCY_MS, TimeUnit.MILLISECONDS));
+        broker.start();
+
+        BrokerProperties properties = brokerProperties("address=http://127.0.0.1:" + broker.getAddress().getPort(),
+                "connect-timeout=10000", "read-timeout=60000", "pool.acquire-timeout=60000",
+                "pool.max-total=" + inFlight, "pool.max-per-route=" + inFlight, "pool.idle-timeout=60000",
+                "hedge.enabled=false", "circuit-breaker.slow-call-threshold=60000", "circuit-breaker.window-size=100",
+                "circuit-breaker.minimum-calls=100", "bulkhead.read.max-concurrent=" + inFlight,
+                "bulkhead.write.max-concurrent=1");
+        BrokerCallGuard guard = new BrokerCallGuard(new SimpleMeterRegistry(), properties);
+        brokerClient = new BrokerClient(RestClient.builder(), new ObjectMapper(), guard, Optional.empty(),
+                properties, threads.equals("virtual"));
+        executor = threads.equals("virtual")
+                ? new VirtualThreadTaskExecutor("request-")
+                : Executors.newFixedThreadPool(inFlight);
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() throws IOException {
+        System.out.printf("%n  peak threads: %d, peak RSS: %s%n",
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakResidentMemory());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+        brokerClient.destroy();
+        broker.stop(0);
+        brokerScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public int concurrentReads() {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[inFlight];
+        for (int i = 0; i < inFlight; i++) {
+            // Distinct shipments, so the reads are not coalesced
+            long shipmentId = nextId++;
+            calls[i] = CompletableFuture.supplyAsync(() -> brokerClient.getShipment(shipmentId), executor);
+        }
+        CompletableFuture.allOf(calls).join();
+        return calls.length;
+    }
+
+    private static void respond(HttpExchange exchange) {
+        try (exchange) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, SHIPMENT.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SHIPMENT);
+            }
+        } catch (IOException e) {
+            // The client gave up on the call
+        }
+    }
+
+    private static String peakResidentMemory() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return "n/a";
+        }
+        return Files.readAllLines(status).stream()
+                .filter(line -> line.startsWith("VmHWM:"))
+                .map(line -> line.substring("VmHWM:".length()).trim())
+                .findFirst()
+                .orElse("n/a");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BrokerConcurrencyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package chernandez.blockedsupplybackend.benchmarks;
+
+import chernandez.blockedsupplybackend.services.EncryptionService;
+import chernandez.blockedsupplybackend.utils.EncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EncryptionUtil}, which builds a key and looks up a cipher on every call,
+ * with the cached ciphers of {@link EncryptionService}.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=chernandez.blockedsupplybackend.benchmarks.EncryptionBenchmark}
+ * or from the IDE through {@link #main(String[])}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final String KEY = "0123456789abcdef";
+
+    @Param({"1", "100"})
+    private int size;
+
+    private EncryptionService encryptionService;
+    private List<String> addresses;
+    private List<String> encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        encryptionService = new EncryptionService(KEY);
+        addresses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            addresses.add(String.format("0x%040x", i));
+        }
+        encrypted = encryptionService.encryptAll(addresses);
+    }
+
+    @Benchmark
+    public List<String> encryptUtil() throws Exception {
+        List<String> result = new ArrayList<>(size);
+        for (String address : addresses) {
+            result.add(EncryptionUtil.encrypt(KEY, address));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> encryptService() throws Exception {
+        return encryptionService.encryptAll(addresses);
+    }
+
+    @Benchmark
+    public List<String> decryptUtil() throws Exception {
+        List<String> result = new ArrayList<>(size);
+        for (String value : encrypted) {
+            result.add(EncryptionUtil.decrypt(KEY, value));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> decryptService() throws Exception {
+        return encryptionService.decryptAll(encrypted);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EncryptionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -46,6 +46,21 @@ contract ShipmentManagement {
     mapping(uint256 => Shipment) private shipments;
     mapping(uint256 => Transfer[]) private transfersByShipment;
 
+    /**
+     * @dev Emitted when a shipment is created, so that callers can read its ID from the receipt.
+     * @param shipmentId The ID of the new shipment.
+     * @param owner The address of the initial owner of the shipment.
+     */
+    event ShipmentCreated(uint256 indexed shipmentId, address indexed owner);
+
+    /**
+     * @dev Emitted for each transfer of a batch that was not applied.
+     * @param index The position of the transfer in the batch.
+     * @param shipmentId The ID of the shipment.
+     * @param reason Why the transfer was not applied.
+     */
+    event BatchTransferFailed(uint256 indexed index, uint256 indexed shipmentId, string reason);
+
     /**
      * @dev Modifier to ensure that the caller is the current owner of the shipment.
      * @param shipmentId The ID of the shipment to check.
@@ -87,23 +102,37 @@ contract ShipmentManagement {
         uint256 units,
         uint256 weight
     ) public returns (uint256, address, string memory) {
-        require(units > 0, "Units must be greater than 0.");
-        require(weight > 0, "Weight must be greater than 0.");
-        
-        uint256 newShipmentId = nextShipmentId++;
-        shipments[newShipmentId] = Shipment({
-            id: newShipmentId,
-            name: productName,
-            description: description,
-            origin: origin,
-            destination: destination,
-            deliveryDate: deliveryDate,
-            units: units,
-            weight: weight,
-            currentState: State.CREATED,
-            currentOwner: msg.sender
-        });
+        uint256 newShipmentId = _createShipment(productName, description, origin, destination, deliveryDate, units, weight);
+        return (newShipmentId, msg.sender, deliveryDate);
+    }
 
+    /**
+     * @dev Creates a new shipment and records its initial transfer to the creator, in state
+     * CREATED at the origin, in the same transaction.
+     * @param productName The name of the product in the shipment.
+     * @param description A description of the shipment.
+     * @param origin The origin location of the shipment, also the location of the initial transfer.
+     * @param destination The destination location of the shipment.
+     * @param deliveryDate The expected delivery date of the shipment.
+     * @param units The number of units in the shipment.
+     * @param weight The weight of the shipment.
+     * @param transferNotes Notes about the initial transfer.
+     * @return newShipmentId The ID of the newly created shipment.
+     * @return currentOwner The address of the initial owner of the shipment.
+     * @return deliveryDate The expected delivery date of the shipment.
+     */
+    function createShipmentWithTransfer(
+        string memory productName,
+        string memory description,
+        string memory origin,
+        string memory destination,
+        string memory deliveryDate,
+        uint256 units,
+        uint256 weight,
+        string memory transferNotes
+    ) public returns (uint256, address, string memory) {
+        uint256 newShipmentId = _createShipment(productName, description, origin, destination, deliveryDate, units, weight);
+        _recordTransfer(newShipmentId, msg.sender, State.CREATED, origin, transferNotes);
         return (newShipmentId, msg.sender, deliveryDate);
     }
 
@@ -124,25 +153,49 @@ contract ShipmentManagement {
         string memory location,
         string memory transferNotes
     ) public onlyOwner(shipmentId) returns (uint256, State) {
-        Shipment storage shipment = shipments[shipmentId];
-        
-        shipment.currentOwner = newShipmentOwner;
-        shipment.currentState = newState;
-
-        uint256 transferId = nextTransferId++;
-        transfersByShipment[shipmentId].push(Transfer({
-            id: transferId,
-            shipmentId: shipmentId,
-            timestamp: block.timestamp,
-            newState: newState,
-            location: location,
-            newShipmentOwner: newShipmentOwner,
-            transferNotes: transferNotes
-        }));
+        _transferShipment(shipmentId, newShipmentOwner, newState, location, transferNotes);
 
         return (shipmentId, newState);
     }
 
+    /**
+     * @dev Applies several transfers sent by the same owner in one transaction, in order.
+     * A transfer of a shipment the sender does not own is skipped and reported with
+     * {BatchTransferFailed} instead of reverting the whole batch.
+     * @param shipmentIds The IDs of the shipments to transfer.
+     * @param newShipmentOwners The address of the new owner of each shipment.
+     * @param newStates The new state of each shipment.
+     * @param locations The current location of each shipment.
+     * @param transferNotes Notes about each transfer.
+     * @return transferred Whether each transfer was applied.
+     */
+    function batchShipmentTransfer(
+        uint256[] memory shipmentIds,
+        address[] memory newShipmentOwners,
+        State[] memory newStates,
+        string[] memory locations,
+        string[] memory transferNotes
+    ) public returns (bool[] memory transferred) {
+        require(
+            shipmentIds.length == newShipmentOwners.length &&
+            shipmentIds.length == newStates.length &&
+            shipmentIds.length == locations.length &&
+            shipmentIds.length == transferNotes.length,
+            "Batch arrays must have the same length."
+        );
+
+        transferred = new bool[](shipmentIds.length);
+        for (uint256 i = 0; i < shipmentIds.length; i++) {
+            if (shipments[shipmentIds[i]].currentOwner != msg.sender) {
+                emit BatchTransferFailed(i, shipmentIds[i], "Only the current owner can perform this action.");
+                continue;
+            }
+            _transferShipment(shipmentIds[i], newShipmentOwners[i], newStates[i], locations[i], transferNotes[i]);
+            transferred[i] = true;
+        }
+        return transferred;
+    }
+
     /**
      * @dev Retrieves the details of a shipment.
      * @param shipmentId The ID of the shipment to retrieve.
@@ -211,4 +264,78 @@ contract ShipmentManagement {
     function getNextTransferId() public view returns (uint256) {
         return nextTransferId;
     }
+
+    /**
+     * @dev Stores a new shipment owned by the sender and emits {ShipmentCreated}.
+     * @return The ID of the new shipment.
+     */
+    function _createShipment(
+        string memory productName,
+        string memory description,
+        string memory origin,
+        string memory destination,
+        string memory deliveryDate,
+        uint256 units,
+        uint256 weight
+    ) private returns (uint256) {
+        require(units > 0, "Units must be greater than 0.");
+        require(weight > 0, "Weight must be greater than 0.");
+        
+        uint256 newShipmentId = nextShipmentId++;
+        shipments[newShipmentId] = Shipment({
+            id: newShipmentId,
+            name: productName,
+            description: description,
+            origin: origin,
+            destination: destination,
+            deliveryDate: deliveryDate,
+            units: units,
+            weight: weight,
+            currentState: State.CREATED,
+            currentOwner: msg.sender
+        });
+
+        emit ShipmentCreated(newShipmentId, msg.sender);
+        return newShipmentId;
+    }
+
+    /**
+     * @dev Moves a shipment to its new owner and state and records the transfer.
+     */
+    function _transferShipment(
+        uint256 shipmentId,
+        address newShipmentOwner,
+        State newState,
+        string memory location,
+        string memory transferNotes
+    ) private {
+        Shipment storage shipment = shipments[shipmentId];
+
+        shipment.currentOwner = newShipmentOwner;
+        shipment.currentState = newState;
+
+        _recordTransfer(shipmentId, newShipmentOwner, newState, location, transferNotes);
+    }
+
+    /**
+     * @dev Appends a transfer to the history of a shipment.
+     */
+    function _recordTransfer(
+        uint256 shipmentId,
+        address newShipmentOwner,
+        State newState,
+        string memory location,
+        string memory transferNotes
+    ) private {
+        uint256 transferId = nextTransferId++;
+        transfersByShipment[shipmentId].push(Transfer({
+            id: transferId,
+            shipmentId: shipmentId,
+            timestamp: block.timestamp,
+            newState: newState,
+            location: location,
+            newShipmentOwner: newShipmentOwner,
+            transferNotes: transferNotes
+        }));
+    }
 }
@@ -177,6 +177,120 @@ contract("ShipmentManagement", accounts => {
     assert.strictEqual(transfers[1].transferNotes, "Returned");
   });
 
+  /**
+   * Test case to verify that a shipment and its initial transfer are recorded in one transaction.
+   */
+  it("should create a shipment with its initial transfer", async () => {
+    const result = await contract.createShipmentWithTransfer(
+      "Product F",
+      "Desc F",
+      "Origin F",
+      "Dest F",
+      "2025-09-09",
+      4,
+      40,
+      "Shipment created",
+      { from: owner }
+    );
+
+    const created = result.logs.find(log => log.event === "ShipmentCreated");
+    assert.strictEqual(created.args.shipmentId.toNumber(), 1);
+    assert.strictEqual(created.args.owner, owner);
+
+    const shipment = await contract.getShipment(1);
+    assert.strictEqual(shipment[8].toNumber(), 0); // CREATED
+    assert.strictEqual(shipment[9], owner);
+
+    const transfers = await contract.getTransfers(1);
+    assert.strictEqual(transfers.length, 1);
+    assert.strictEqual(transfers[0].newShipmentOwner, owner);
+    assert.strictEqual(Number(transfers[0].newState), 0);
+    assert.strictEqual(transfers[0].location, "Origin F");
+    assert.strictEqual(transfers[0].transferNotes, "Shipment created");
+
+    const nextTransferId = await contract.getNextTransferId();
+    assert.strictEqual(nextTransferId.toNumber(), 2);
+  });
+
+  /**
+   * Test case to verify that an invalid shipment leaves no initial transfer behind.
+   */
+  it("should not record an initial transfer for an invalid shipment", async () => {
+    try {
+      await contract.createShipmentWithTransfer(
+        "Bad Product",
+        "No units",
+        "Origin",
+        "Dest",
+        "2025-12-01",
+        0,
+        100,
+        "Shipment created",
+        { from: owner }
+      );
+      assert.fail("Expected revert not received for 0 units");
+    } catch (error) {
+      assert(error.message.includes("Units must be greater than 0."), error.message);
+    }
+
+    const nextShipmentId = await contract.getNextShipmentId();
+    const nextTransferId = await contract.getNextTransferId();
+    assert.strictEqual(nextShipmentId.toNumber(), 1);
+    assert.strictEqual(nextTransferId.toNumber(), 1);
+  });
+
+  /**
+   * Test case to verify that a batch applies the transfers of the sender and skips the others.
+   */
+  it("should isolate failed transfers of a batch", async () => {
+    await contract.createShipment("Product G", "Desc G", "A", "B", "2025-08-08", 1, 10, { from: owner });
+    await contract.createShipment("Product H", "Desc H", "A", "B", "2025-08-08", 1, 10, { from: user1 });
+    await contract.createShipment("Product I", "Desc I", "A", "B", "2025-08-08", 1, 10, { from: owner });
+
+    const result = await contract.batchShipmentTransfer(
+      [1, 2, 3],
+      [user1, user1, user2],
+      [2, 2, 1], // STORED, STORED, IN_TRANSIT
+      ["Warehouse", "Warehouse", "Dock"],
+      ["Unloaded", "Unloaded", "Loaded"],
+      { from: owner }
+    );
+
+    const failed = result.logs.filter(log => log.event === "BatchTransferFailed");
+    assert.strictEqual(failed.length, 1);
+    assert.strictEqual(failed[0].args.index.toNumber(), 1);
+    assert.strictEqual(failed[0].args.shipmentId.toNumber(), 2);
+    assert.strictEqual(failed[0].args.reason, "Only the current owner can perform this action.");
+
+    const first = await contract.getShipment(1);
+    assert.strictEqual(first[8].toNumber(), 2); // STORED
+    assert.strictEqual(first[9], user1);
+    const second = await contract.getShipment(2);
+    assert.strictEqual(second[9], user1);
+    const third = await contract.getShipment(3);
+    assert.strictEqual(third[8].toNumber(), 1); // IN_TRANSIT
+    assert.strictEqual(third[9], user2);
+
+    const transfers = await contract.getTransfers(2);
+    assert.strictEqual(transfers.length, 0);
+    const nextTransferId = await contract.getNextTransferId();
+    assert.strictEqual(nextTransferId.toNumber(), 3);
+  });
+
+  /**
+   * Test case to verify that a batch with arrays of different lengths is rejected.
+   */
+  it("should reject a batch with mismatched arrays", async () => {
+    await contract.createShipment("Product J", "Desc J", "A", "B", "2025-08-08", 1, 10, { from: owner });
+
+    try {
+      await contract.batchShipmentTransfer([1], [user1, user2], [1], ["A"], ["B"], { from: owner });
+      assert.fail("Expected revert for mismatched arrays");
+    } catch (error) {
+      assert(error.message.includes("Batch arrays must have the same length."), error.message);
+    }
+  });
+
   /**
    * Test case to verify that calls for non-existent shipments are rejected.
    */
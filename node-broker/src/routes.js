@@ -7,6 +7,31 @@ const express = require('express');
 const router = express.Router();
 const { web3, contract } = require('./blockchain');
 
+/**
+ * The error code sent with the 422 answer to a reverted contract call.
+ * @type {string}
+ */
+const REVERT_CODE = 'CONTRACT_REVERT';
+
+/**
+ * Answers a failed contract call. A call the contract reverted is answered with 422 and the
+ * {@link REVERT_CODE} code, so that clients can tell it from a failure of the broker or the
+ * node, which is answered with 500.
+ * @param {express.Response} res - The Express response object.
+ * @param {Error} error - The error raised by web3.
+ */
+function sendError(res, error) {
+    const reverted = error.name === 'ContractExecutionError'
+        || error.name === 'TransactionRevertInstructionError'
+        || error.name === 'TransactionRevertedWithoutReasonError';
+    if (reverted) {
+        // The revert reason is in the error reported by the node, not in the web3 wrapper
+        const message = error.innerError?.message ?? error.reason ?? error.message;
+        return res.status(422).json({ error: message, code: REVERT_CODE });
+    }
+    res.status(500).json({ error: error.message });
+}
+
 /**
  * @name GET /api/shipments/next-id
  * @description Fetches the next available shipment ID from the smart contract.
@@ -20,7 +45,7 @@ router.get('/shipments/next-id', async (req, res) => {
         const nextShipmentId = await contract.methods.getNextShipmentId().call();
         res.json({ nextShipmentId: nextShipmentId.toString() });
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 
@@ -37,10 +62,50 @@ router.get('/transfers/next-id', async (req, res) => {
         const nextTransferId = await contract.methods.getNextTransferId().call();
         res.json({ nextTransferId: nextTransferId.toString() });
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 
+/**
+ * Checks the fields of a shipment creation request.
+ * @param {Object} body - The request body.
+ * @returns {string|null} The validation error, or null if the request is valid.
+ */
+function checkShipmentFields(body) {
+    const { productName, description, origin, destination, deliveryDate, units, weight, from } = body;
+
+    if (from == null) {
+        return "'from' address is required";
+    }
+
+    if (productName == null || description == null || origin == null || destination == null || deliveryDate == null || units == null || weight == null) {
+        return 'Missing required fields';
+    }
+
+    if (isNaN(units) || isNaN(weight)) {
+        return 'Units and weight must be numbers';
+    }
+
+    return null;
+}
+
+/**
+ * Builds the response of a shipment creation from the ShipmentCreated event of its receipt,
+ * so that the new ID is known without further calls to the node.
+ * @param {Object} receipt - The receipt of the creation transaction.
+ * @param {string} deliveryDate - The delivery date of the shipment.
+ * @returns {Object} The ID, owner and delivery date of the created shipment.
+ */
+function createdShipment(receipt, deliveryDate) {
+    const created = receipt.events.ShipmentCreated.returnValues;
+
+    return {
+        id: created.shipmentId.toString(),
+        currentOwner: created.owner,
+        deliveryDate
+    };
+}
+
 /**
  * @name POST /api/shipments
  * @description Creates a new shipment on the blockchain.
@@ -61,42 +126,72 @@ router.post('/shipments', async (req, res) => {
         from
     } = req.body;
 
-    if (from == null) {
-        return res.status(400).json({ error: "'from' address is required" });
+    const invalid = checkShipmentFields(req.body);
+    if (invalid != null) {
+        return res.status(400).json({ error: invalid });
     }
 
-    if (productName == null || description == null || origin == null || destination == null || deliveryDate == null || units == null || weight == null) {
-        return res.status(400).json({ error: 'Missing required fields' });
+    try {
+        const receipt = await contract.methods.createShipment(
+            productName,
+            description,
+            origin,
+            destination,
+            deliveryDate,
+            units,
+            weight
+        ).send({ from, gas: 3000000 });
+
+        res.json(createdShipment(receipt, deliveryDate));
+
+    } catch (error) {
+        sendError(res, error);
     }
+});
 
-    if (isNaN(units) || isNaN(weight)) {
-        return res.status(400).json({ error: 'Units and weight must be numbers' });
+/**
+ * @name POST /api/shipments/with-transfer
+ * @description Creates a new shipment on the blockchain and records its initial transfer to the
+ * sender, in state CREATED at the origin, in the same transaction.
+ * @function
+ * @async
+ * @param {express.Request} req - The Express request object.
+ * @param {express.Response} res - The Express response object.
+ */
+router.post('/shipments/with-transfer', async (req, res) => {
+    const {
+        productName,
+        description,
+        origin,
+        destination,
+        deliveryDate,
+        units,
+        weight,
+        transferNotes,
+        from
+    } = req.body;
+
+    const invalid = checkShipmentFields(req.body) ?? (transferNotes == null ? 'Missing required fields' : null);
+    if (invalid != null) {
+        return res.status(400).json({ error: invalid });
     }
 
     try {
-        await contract.methods.createShipment(
+        const receipt = await contract.methods.createShipmentWithTransfer(
             productName,
             description,
             origin,
             destination,
             deliveryDate,
             units,
-            weight
+            weight,
+            transferNotes
         ).send({ from, gas: 3000000 });
 
-        const nextId = await contract.methods.getNextShipmentId().call();
-        const createdId = Number(nextId) - 1;
-
-        const shipment = await contract.methods.getShipment(createdId).call();
-
-        res.json({
-            id: shipment[0].toString(),
-            currentOwner: shipment[9],
-            deliveryDate: shipment[5]
-        });
+        res.json(createdShipment(receipt, deliveryDate));
 
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 
@@ -127,7 +222,7 @@ router.get('/shipments/:shipmentId', async (req, res) => {
             currentOwner: shipment[9],
         });
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 
@@ -178,7 +273,68 @@ router.post('/shipments/:shipmentId/transfer', async (req, res) => {
         });
 
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
+    }
+});
+
+/**
+ * @name POST /api/transfers/batch
+ * @description Sends several transfers from the same owner to the blockchain in one transaction.
+ * A transfer the contract skips does not fail the others; the result of each transfer is
+ * returned in request order, with an error instead of the new owner and state when it failed.
+ * @function
+ * @async
+ * @param {express.Request} req - The Express request object.
+ * @param {express.Response} res - The Express response object.
+ */
+router.post('/transfers/batch', async (req, res) => {
+    const { transfers, from } = req.body;
+
+    if (from == null) {
+        return res.status(400).json({ error: "'from' address is required" });
+    }
+
+    if (!Array.isArray(transfers) || transfers.length === 0) {
+        return res.status(400).json({ error: 'At least one transfer is required' });
+    }
+
+    if (transfers.some(t => t == null || t.shipmentId == null || t.newShipmentOwner == null || t.newState == null || t.location == null || t.transferNotes == null)) {
+        return res.status(400).json({ error: 'Missing required fields' });
+    }
+
+    try {
+        const method = contract.methods.batchShipmentTransfer(
+            transfers.map(t => t.shipmentId),
+            transfers.map(t => t.newShipmentOwner),
+            transfers.map(t => t.newState),
+            transfers.map(t => t.location),
+            transfers.map(t => t.transferNotes)
+        );
+        // The gas of a batch grows with its size, so it is estimated rather than fixed
+        const gas = Math.ceil(Number(await method.estimateGas({ from })) * 1.2);
+        const receipt = await method.send({ from, gas });
+
+        const failures = new Map();
+        [].concat(receipt.events.BatchTransferFailed ?? []).forEach(event => {
+            failures.set(Number(event.returnValues.index), event.returnValues.reason);
+        });
+
+        res.json(transfers.map((t, index) => failures.has(index)
+            ? {
+                shipmentId: t.shipmentId.toString(),
+                newOwner: null,
+                newState: null,
+                error: `revert ${failures.get(index)}`,
+            }
+            : {
+                shipmentId: t.shipmentId.toString(),
+                newOwner: web3.utils.toChecksumAddress(t.newShipmentOwner),
+                newState: t.newState.toString(),
+                error: null,
+            }));
+
+    } catch (error) {
+        sendError(res, error);
     }
 });
 
@@ -208,7 +364,7 @@ router.get('/shipments/:shipmentId/transfers', async (req, res) => {
 
         res.json(parsedTransfers);
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 
@@ -225,7 +381,7 @@ router.get('/accounts', async (req, res) => {
         const accounts = await web3.eth.getAccounts();
         res.json({ accounts });
     } catch (error) {
-        res.status(500).json({ error: error.message });
+        sendError(res, error);
     }
 });
 